@@ -14,6 +14,7 @@ public class Transaction {
     private BigDecimal totalAmount;
     private Supplier relatedSupplier;
     private Long relatedTransactionId;
+    private Integer returnableQuantity; // 销售记录剩余可退数量（服务端维护）
     private String operatorName;
     private String notes;
     private LocalDateTime createdAt;
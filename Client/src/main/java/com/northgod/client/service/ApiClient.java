@@ -7,8 +7,10 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -113,6 +115,8 @@ public class ApiClient {
                 .header("Content-Type", "application/json")
                 .header("Accept", "application/json")
                 .header("User-Agent", "Bookstore-Client/1.0")
+                // 幂等键：同一次调用的所有重试复用同一个键，服务端据此避免重复执行
+                .header("Idempotency-Key", UUID.randomUUID().toString())
                 .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
                 .timeout(requestTimeout);
 
@@ -141,6 +145,30 @@ public class ApiClient {
         });
     }
 
+    // 上传文件作为请求体（如CSV送货单），内容从磁盘流式发送
+    public String postFile(String endpoint, Path file, String contentType) throws Exception {
+        totalRequests.incrementAndGet();
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + endpoint))
+                .header("Content-Type", contentType)
+                .header("Accept", "application/json")
+                .header("User-Agent", "Bookstore-Client/1.0")
+                .header("Idempotency-Key", UUID.randomUUID().toString())
+                .POST(HttpRequest.BodyPublishers.ofFile(file))
+                .timeout(requestTimeout);
+
+        addAuthHeader(builder);
+
+        HttpRequest request = builder.build();
+        LogUtil.debug("发送HTTP POST文件请求: " + endpoint + " (文件: " + file.getFileName() + ")");
+
+        HttpResponse<String> response = sendWithRetry(request);
+
+        checkResponse(response, endpoint, "POST");
+
+        return response.body();
+    }
+
     public String put(String endpoint, Object body) throws Exception {
         totalRequests.incrementAndGet();
         String jsonBody;
@@ -156,6 +184,8 @@ public class ApiClient {
                 .header("Content-Type", "application/json")
                 .header("Accept", "application/json")
                 .header("User-Agent", "Bookstore-Client/1.0")
+                // 幂等键：同一次调用的所有重试复用同一个键，服务端据此避免重复执行
+                .header("Idempotency-Key", UUID.randomUUID().toString())
                 .PUT(HttpRequest.BodyPublishers.ofString(jsonBody))
                 .timeout(requestTimeout);
 
@@ -3,6 +3,10 @@ package com.northgod.client.test;
 import com.northgod.client.service.ApiClient;
 import com.northgod.client.util.LogUtil;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -66,8 +70,76 @@ public class PerformanceTester {
         LogUtil.info("性能测试完成，线程池已关闭");
     }
 
+    /**
+     * 交易写入压测：并发提交销售记录，统计吞吐量和延迟分位数
+     * 分别在服务端关闭/开启 bookstore.group-commit.enabled 时运行，对比逐笔提交与组提交
+     */
+    public void runSaleWriteTest(int numRequests, long bookId) throws InterruptedException {
+        LogUtil.info("=== 开始交易写入压测 ===");
+        LogUtil.info("请求数量: " + numRequests + ", 书籍ID: " + bookId);
+
+        AtomicInteger failureCount = new AtomicInteger(0);
+        long[] latencies = new long[numRequests];
+
+        Map<String, Object> requestData = new HashMap<>();
+        requestData.put("book", Map.of("id", bookId));
+        requestData.put("transactionType", "SALE");
+        requestData.put("quantity", 1);
+        requestData.put("unitPrice", new BigDecimal("1.00"));
+        requestData.put("notes", "performance test");
+
+        long startTime = System.nanoTime();
+
+        CompletableFuture<?>[] futures = new CompletableFuture[numRequests];
+        for (int i = 0; i < numRequests; i++) {
+            final int requestId = i;
+            futures[i] = CompletableFuture.runAsync(() -> {
+                long requestStart = System.nanoTime();
+                try {
+                    apiClient.post("/transactions/sale", requestData);
+                } catch (Exception e) {
+                    failureCount.incrementAndGet();
+                    if (requestId % 100 == 0) {
+                        LogUtil.warn("请求 " + requestId + " 失败: " + e.getMessage());
+                    }
+                }
+                latencies[requestId] = System.nanoTime() - requestStart;
+            }, executorService);
+        }
+
+        CompletableFuture.allOf(futures).join();
+
+        long totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        Arrays.sort(latencies);
+
+        LogUtil.info("\n=== 测试结果 ===");
+        LogUtil.info("成功请求: " + (numRequests - failureCount.get()));
+        LogUtil.info("失败请求: " + failureCount.get());
+        LogUtil.info("总耗时: " + totalTime + "ms");
+        LogUtil.info("吞吐量: " + (numRequests / (totalTime / 1000.0)) + "请求/秒");
+        LogUtil.info("P50延迟: " + percentileMillis(latencies, 0.50) + "ms");
+        LogUtil.info("P99延迟: " + percentileMillis(latencies, 0.99) + "ms");
+
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+        LogUtil.info("性能测试完成，线程池已关闭");
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    /**
+     * 用法：无参数运行查询压测；参数 "sale 书籍ID [请求数]" 运行交易写入压测
+     */
     public static void main(String[] args) throws InterruptedException {
         PerformanceTester tester = new PerformanceTester();
-        tester.runConcurrentTest(1000);
+        if (args.length >= 2 && "sale".equals(args[0])) {
+            int numRequests = args.length >= 3 ? Integer.parseInt(args[2]) : 5000;
+            tester.runSaleWriteTest(numRequests, Long.parseLong(args[1]));
+        } else {
+            tester.runConcurrentTest(1000);
+        }
     }
 }
\ No newline at end of file
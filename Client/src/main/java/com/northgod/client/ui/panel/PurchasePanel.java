@@ -10,6 +10,9 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -20,6 +23,7 @@ import javax.swing.BorderFactory;
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
@@ -30,6 +34,7 @@ import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.DefaultTableModel;
 
 import com.northgod.client.model.Book;
@@ -203,14 +208,17 @@ public class PurchasePanel extends JPanel {
         JButton submitButton = new JButton("提交进货");
         JButton resetButton = new JButton("重置");
         JButton printButton = new JButton("打印进货单");
+        JButton importReceiptButton = new JButton("导入送货单(CSV)");
 
         submitButton.addActionListener(e -> submitPurchase());
         resetButton.addActionListener(e -> resetForm());
         printButton.addActionListener(e -> printPurchaseOrder());
+        importReceiptButton.addActionListener(e -> importReceiptCsv());
 
         buttonPanel.add(submitButton);
         buttonPanel.add(resetButton);
         buttonPanel.add(printButton);
+        buttonPanel.add(importReceiptButton);
 
         panel.add(buttonPanel, BorderLayout.SOUTH);
 
@@ -462,6 +470,62 @@ public class PurchasePanel extends JPanel {
         }
     }
 
+    /**
+     * 导入CSV送货单：整张送货单一次上传，服务端在一个事务中批量入库
+     * CSV表头需包含 isbn、quantity、unitPrice，可选 notes
+     */
+    private void importReceiptCsv() {
+        Supplier selectedSupplier = (Supplier) supplierComboBox.getSelectedItem();
+        if (selectedSupplier == null) {
+            DialogUtil.showWarningDialog(this, "请先选择送货的供应商");
+            return;
+        }
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("选择送货单CSV文件");
+        chooser.setFileFilter(new FileNameExtensionFilter("CSV 文件 (*.csv)", "csv"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        String notes = notesField.getText().trim();
+
+        ThreadPoolManager.getInstance().submitIoTask(() -> {
+            try {
+                String endpoint = "/transactions/receipt/csv?supplierId=" + selectedSupplier.getId()
+                        + (notes.isEmpty() ? "" : "&notes=" + URLEncoder.encode(notes, StandardCharsets.UTF_8));
+                String response = apiClient.postFile(endpoint, file, "text/csv");
+                Map<String, Object> result = JsonUtil.parseJson(response);
+
+                SwingUtilities.invokeLater(() -> {
+                    if (result != null && Boolean.TRUE.equals(result.get("success"))) {
+                        Map<String, Object> data = (Map<String, Object>) result.get("data");
+                        DialogUtil.showSuccessDialog(this, String.format(
+                                "收货成功！\n供应商: %s\n行数: %s\n书籍种数: %s\n总数量: %s\n总金额: %s 元",
+                                data.get("supplierName"), data.get("lineCount"), data.get("bookCount"),
+                                data.get("totalQuantity"), data.get("totalAmount")));
+                        loadPurchaseHistory();
+                        loadBooks();
+                        if (mainFrame != null) {
+                            mainFrame.refreshBookDropdowns();
+                            mainFrame.refreshBookPanel();
+                            mainFrame.refreshReportPanel();
+                        }
+                    } else {
+                        String message = result != null && result.get("message") != null ?
+                                result.get("message").toString() : "未知错误";
+                        DialogUtil.showErrorDialog(this, "导入送货单失败: " + message);
+                    }
+                });
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> {
+                    LogUtil.error("导入送货单失败", e);
+                    DialogUtil.showErrorDialog(this, "导入送货单失败: " + e.getMessage());
+                });
+            }
+        });
+    }
+
     private void resetForm() {
         bookComboBox.setSelectedIndex(-1);
         supplierComboBox.setSelectedIndex(-1);
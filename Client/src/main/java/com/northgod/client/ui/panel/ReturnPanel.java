@@ -13,10 +13,8 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListCellRenderer;
@@ -128,7 +126,7 @@ public class ReturnPanel extends JPanel {
                     String date = transaction.getCreatedAt() != null ?
                             transaction.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")) : "";
                     return super.getListCellRendererComponent(list,
-                            bookTitle + " | 数量:" + transaction.getQuantity() + " | 日期:" + date,
+                            bookTitle + " | 可退数量:" + returnableQuantity(transaction) + " | 日期:" + date,
                             index, isSelected, hasFocus);
                 }
                 return super.getListCellRendererComponent(list, value, index, isSelected, hasFocus);
@@ -302,11 +300,11 @@ public class ReturnPanel extends JPanel {
         Transaction selected = (Transaction) saleComboBox.getSelectedItem();
         if (selected != null) {
             String bookTitle = selected.getBook() != null ? selected.getBook().getTitle() : "未知";
-            originalSaleInfoLabel.setText(String.format("书籍: %s | 原销售数量: %d | 原单价: %s 元",
-                    bookTitle, selected.getQuantity(), selected.getUnitPrice()));
+            originalSaleInfoLabel.setText(String.format("书籍: %s | 原销售数量: %d | 可退数量: %d | 原单价: %s 元",
+                    bookTitle, selected.getQuantity(), returnableQuantity(selected), selected.getUnitPrice()));
             unitPriceField.setText(selected.getUnitPrice().toString());
-            // 写死退货数量为原订单数量，不可修改
-            quantityField.setText(String.valueOf(selected.getQuantity()));
+            // 写死退货数量为剩余可退数量，不可修改
+            quantityField.setText(String.valueOf(returnableQuantity(selected)));
             calculateTotal();
         } else {
             originalSaleInfoLabel.setText("");
@@ -314,6 +312,10 @@ public class ReturnPanel extends JPanel {
         }
     }
 
+    private int returnableQuantity(Transaction sale) {
+        return sale.getReturnableQuantity() != null ? sale.getReturnableQuantity() : sale.getQuantity();
+    }
+
     private void calculateTotal() {
         try {
             String quantityStr = quantityField.getText().trim();
@@ -340,8 +342,8 @@ public class ReturnPanel extends JPanel {
         }
 
         try {
-            // 退货数量写死为原订单数量，不需要验证
-            int quantity = selectedSale.getQuantity();
+            // 退货数量写死为剩余可退数量，不需要验证
+            int quantity = returnableQuantity(selectedSale);
             BigDecimal unitPrice = new BigDecimal(unitPriceField.getText().trim());
             String notes = notesField.getText().trim();
 
@@ -484,28 +486,6 @@ public class ReturnPanel extends JPanel {
                             List<Map<String, Object>> data = (List<Map<String, Object>>) dataObj;
                             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-                            // 收集所有已退货的订单ID
-                            Set<Long> returnedSaleIds = new HashSet<>();
-                            if (data != null && !data.isEmpty()) {
-                                for (Map<String, Object> item : data) {
-                                    String type = item.get("transactionType") != null ? 
-                                            item.get("transactionType").toString() : "";
-                                    if ("RETURN".equals(type)) {
-                                        Object relatedIdObj = item.get("relatedTransactionId");
-                                        if (relatedIdObj != null) {
-                                            try {
-                                                Long relatedId = Long.valueOf(relatedIdObj.toString());
-                                                returnedSaleIds.add(relatedId);
-                                                LogUtil.debug("发现已退货订单ID: " + relatedId);
-                                            } catch (Exception e) {
-                                                LogUtil.error("解析退货关联订单ID失败: " + relatedIdObj, e);
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                            LogUtil.info("共收集到 " + returnedSaleIds.size() + " 个已退货的订单ID");
-
                             if (data != null && !data.isEmpty()) {
                                 for (Map<String, Object> item : data) {
                                     try {
@@ -514,8 +494,9 @@ public class ReturnPanel extends JPanel {
                                         if ("SALE".equals(type)) {
                                             Transaction transaction = parseTransaction(item);
                                             
-                                            // 排除已经退货的订单
-                                            if (returnedSaleIds.contains(transaction.getId())) {
+                                            // 排除已全部退货的订单（剩余可退数量由服务端随销售记录返回）
+                                            if (transaction.getReturnableQuantity() != null
+                                                    && transaction.getReturnableQuantity() <= 0) {
                                                 LogUtil.debug("排除已退货订单: " + transaction.getId());
                                                 continue;
                                             }
@@ -626,6 +607,9 @@ public class ReturnPanel extends JPanel {
         if (item.get("relatedTransactionId") != null) {
             transaction.setRelatedTransactionId(Long.valueOf(item.get("relatedTransactionId").toString()));
         }
+        if (item.get("returnableQuantity") != null) {
+            transaction.setReturnableQuantity(Integer.valueOf(item.get("returnableQuantity").toString()));
+        }
 
         if (item.get("book") != null) {
             Map<String, Object> bookData = (Map<String, Object>) item.get("book");
@@ -5,7 +5,11 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
+import com.northgod.server.enums.TransactionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContextInitializer;
@@ -20,6 +24,7 @@ import org.springframework.core.env.ConfigurableEnvironment;
 public class DatabasePreInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
 
     private static final Logger logger = LoggerFactory.getLogger(DatabasePreInitializer.class);
+    private static final int ID_ALLOCATION_SIZE = 50;
 
     @Override
     public void initialize(ConfigurableApplicationContext applicationContext) {
@@ -133,6 +138,18 @@ public class DatabasePreInitializer implements ApplicationContextInitializer<Con
                     logger.info("数据库 '{}' 已存在", dbName);
                 }
             }
+
+            // 在Hibernate校验主键序列之前，把序列步长调整为实体的 allocationSize
+            String targetDbUrl = String.format("jdbc:postgresql://%s:%d/%s", host, port, dbName);
+            try (Connection connection = DriverManager.getConnection(targetDbUrl, username, password)) {
+                alignSequenceIncrements(connection);
+                alignTransactionTypeCheck(connection);
+                addReturnedQuantityColumn(connection);
+                addSnapshotColumns(connection);
+                addAmountCentsColumn(connection);
+                addVoidedAtColumn(connection);
+                replaceTransactionIndexes(connection);
+            }
         } catch (SQLException e) {
             logger.warn("无法连接到PostgreSQL服务器或创建数据库: {}", e.getMessage());
             logger.warn("请确保PostgreSQL服务正在运行，并且用户 '{}' 有创建数据库的权限", username);
@@ -140,6 +157,221 @@ public class DatabasePreInitializer implements ApplicationContextInitializer<Con
         }
     }
 
+    /**
+     * 主键序列步长与实体 @SequenceGenerator(allocationSize = 50) 保持一致
+     * 配合 pooled-lo 优化器，每次 nextval 可分配50个主键，批量插入时无需逐行访问序列。
+     * 序列不存在时（首次启动）由Hibernate按注解创建，这里跳过。
+     */
+    private void alignSequenceIncrements(Connection connection) throws SQLException {
+        String[] sequences = {"book_id_seq", "transaction_id_seq", "supplier_id_seq"};
+        String sql = "SELECT increment_by FROM pg_sequences WHERE schemaname = current_schema() AND sequencename = ?";
+        for (String sequence : sequences) {
+            try (var stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, sequence);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next() && rs.getLong(1) != ID_ALLOCATION_SIZE) {
+                        try (Statement alter = connection.createStatement()) {
+                            alter.execute("ALTER SEQUENCE " + sequence + " INCREMENT BY " + ID_ALLOCATION_SIZE);
+                        }
+                        logger.info("已将序列 {} 的步长调整为 {}", sequence, ID_ALLOCATION_SIZE);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hibernate 按枚举值为 transaction_type 生成 CHECK 约束，但 ddl-auto: update 不会更新已有约束；
+     * 枚举新增取值（如盘点调整类型）后，在这里按当前枚举重建约束。表不存在时（首次启动）跳过。
+     */
+    private void alignTransactionTypeCheck(Connection connection) throws SQLException {
+        String sql = "SELECT pg_get_constraintdef(oid) FROM pg_constraint "
+                + "WHERE conrelid = to_regclass('transaction') AND conname = 'transaction_transaction_type_check'";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next()) {
+                return;
+            }
+            String definition = rs.getString(1);
+            List<String> types = Arrays.stream(TransactionType.values()).map(Enum::name).toList();
+            if (types.stream().allMatch(type -> definition.contains("'" + type + "'"))) {
+                return;
+            }
+            String allowed = types.stream().map(type -> "'" + type + "'").collect(Collectors.joining(", "));
+            try (Statement alter = connection.createStatement()) {
+                alter.execute("ALTER TABLE transaction DROP CONSTRAINT transaction_transaction_type_check, "
+                        + "ADD CONSTRAINT transaction_transaction_type_check CHECK (transaction_type IN (" + allowed + "))");
+            }
+            logger.info("已更新交易类型约束，允许的类型: {}", allowed);
+        }
+    }
+
+    /**
+     * 销售记录的已退货数量列：已有数据库首次升级时由这里添加并按历史退货记录回填一次，
+     * 之后由退货/作废逻辑维护。表不存在（首次启动）或列已存在时跳过，新库由Hibernate建列。
+     */
+    private void addReturnedQuantityColumn(Connection connection) throws SQLException {
+        String sql = "SELECT to_regclass('transaction') IS NOT NULL AND NOT EXISTS ("
+                + "SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema() "
+                + "AND table_name = 'transaction' AND column_name = 'returned_quantity')";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return;
+            }
+        }
+        boolean originalAutoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE transaction ADD COLUMN returned_quantity INTEGER NOT NULL DEFAULT 0");
+                int updated = stmt.executeUpdate("""
+                    UPDATE transaction AS s SET returned_quantity = r.returned
+                    FROM (
+                        SELECT related_transaction_id, SUM(quantity) AS returned
+                        FROM transaction
+                        WHERE transaction_type = 'RETURN' AND related_transaction_id IS NOT NULL
+                        GROUP BY related_transaction_id
+                    ) r
+                    WHERE s.id = r.related_transaction_id AND s.transaction_type = 'SALE'
+                """);
+                logger.info("已添加销售记录已退货数量列，回填 {} 条销售记录", updated);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    /**
+     * 交易记录的书籍/供应商快照列：已有数据库首次升级时添加并从当前书籍、供应商回填一次，
+     * 之后在插入交易时写入且不再修改。表不存在或列已存在时跳过。
+     */
+    private void addSnapshotColumns(Connection connection) throws SQLException {
+        String sql = "SELECT to_regclass('transaction') IS NOT NULL AND NOT EXISTS ("
+                + "SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema() "
+                + "AND table_name = 'transaction' AND column_name = 'book_title')";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return;
+            }
+        }
+        boolean originalAutoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE transaction ADD COLUMN book_title VARCHAR(200), "
+                        + "ADD COLUMN book_isbn VARCHAR(20), ADD COLUMN supplier_name VARCHAR(100)");
+                int updated = stmt.executeUpdate("""
+                    UPDATE transaction AS t SET book_title = b.title, book_isbn = b.isbn
+                    FROM book b
+                    WHERE b.id = t.book_id
+                """);
+                stmt.executeUpdate("""
+                    UPDATE transaction AS t SET supplier_name = s.name
+                    FROM supplier s
+                    WHERE s.id = t.related_supplier_id
+                """);
+                logger.info("已添加交易记录书籍快照列，回填 {} 条交易记录", updated);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    /**
+     * 交易金额（分）列：已有数据库首次升级时添加并由 total_amount 回填一次。表不存在或列已存在时跳过。
+     */
+    private void addAmountCentsColumn(Connection connection) throws SQLException {
+        String sql = "SELECT to_regclass('transaction') IS NOT NULL AND NOT EXISTS ("
+                + "SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema() "
+                + "AND table_name = 'transaction' AND column_name = 'amount_cents')";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return;
+            }
+        }
+        boolean originalAutoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE transaction ADD COLUMN amount_cents BIGINT NOT NULL DEFAULT 0");
+                int updated = stmt.executeUpdate("""
+                    UPDATE transaction
+                    SET amount_cents = COALESCE(round(total_amount * 100), round(unit_price * 100) * quantity)
+                """);
+                logger.info("已添加交易金额（分）列，回填 {} 条交易记录", updated);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    /**
+     * 作废时间列：已有数据库首次升级时添加，并按备注中的 [作废] 标记回填（以最后修改时间近似作废时间）。
+     * 表不存在或列已存在时跳过。
+     */
+    private void addVoidedAtColumn(Connection connection) throws SQLException {
+        String sql = "SELECT to_regclass('transaction') IS NOT NULL AND NOT EXISTS ("
+                + "SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema() "
+                + "AND table_name = 'transaction' AND column_name = 'voided_at')";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return;
+            }
+        }
+        boolean originalAutoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE transaction ADD COLUMN voided_at TIMESTAMP");
+                int updated = stmt.executeUpdate("""
+                    UPDATE transaction
+                    SET voided_at = COALESCE(updated_at, created_at)
+                    WHERE notes LIKE '%[作废]%'
+                """);
+                logger.info("已添加交易作废时间列，回填 {} 条已作废交易", updated);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    /**
+     * 交易表单列索引 idx_transaction_type / idx_book_id 替换为 (transaction_type, created_at) 和 (book_id, created_at)
+     * 复合索引：按类型或书籍加时间范围的查询可直接范围扫描，复合索引的前导列也覆盖原单列索引的用途。
+     * 先建新索引再删旧索引，已有数据库升级过程中不会出现无索引的窗口；表不存在或旧索引已删除时跳过。
+     */
+    private void replaceTransactionIndexes(Connection connection) throws SQLException {
+        String sql = "SELECT to_regclass('transaction') IS NOT NULL "
+                + "AND (to_regclass('idx_transaction_type') IS NOT NULL OR to_regclass('idx_book_id') IS NOT NULL)";
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return;
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_transaction_type_created_at ON transaction (transaction_type, created_at)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_transaction_book_created_at ON transaction (book_id, created_at)");
+            stmt.execute("DROP INDEX IF EXISTS idx_transaction_type");
+            stmt.execute("DROP INDEX IF EXISTS idx_book_id");
+        }
+        logger.info("已将交易表类型/书籍索引替换为带创建时间的复合索引");
+    }
+
     /**
      * 检查数据库是否存在
      */
@@ -0,0 +1,13 @@
+package com.northgod.server.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * 定时任务配置
+ * 启用 @Scheduled 后台任务（如热销书籍库存的定时回写）
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
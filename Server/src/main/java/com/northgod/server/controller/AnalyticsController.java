@@ -0,0 +1,102 @@
+package com.northgod.server.controller;
+
+import com.northgod.server.enums.AnalyticsDimension;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.exception.BusinessException;
+import com.northgod.server.service.TransactionAnalyticsService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 交易分析（列式内存数据，需开启 bookstore.analytics.enabled）
+ */
+@RestController
+@RequestMapping("/analytics")
+@Validated
+public class AnalyticsController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyticsController.class);
+    private final TransactionAnalyticsService analyticsService;
+
+    public AnalyticsController(TransactionAnalyticsService analyticsService) {
+        this.analyticsService = analyticsService;
+    }
+
+    /**
+     * 按条件过滤后按维度分组汇总；groupBy 取 NONE、TYPE、DAY、MONTH、WEEKDAY、HOUR、BOOK、CATEGORY、OPERATOR，
+     * 按书籍/分类/操作员分组时按金额倒序，其余按分组键排序；limit 为 0 时返回全部分组
+     */
+    @GetMapping("/transactions")
+    public ResponseEntity<Map<String, Object>> analyzeTransactions(
+            @RequestParam(value = "startDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(value = "endDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(value = "types", required = false) List<String> types,
+            @RequestParam(value = "bookId", required = false) Long bookId,
+            @RequestParam(value = "category", required = false) String category,
+            @RequestParam(value = "operator", required = false) String operator,
+            @RequestParam(value = "groupBy", defaultValue = "NONE") String groupBy,
+            @RequestParam(value = "limit", defaultValue = "0") @Min(0) @Max(100000) int limit) {
+        AnalyticsDimension dimension;
+        Set<TransactionType> typeSet = EnumSet.noneOf(TransactionType.class);
+        try {
+            dimension = AnalyticsDimension.valueOf(groupBy.trim().toUpperCase());
+            if (types != null) {
+                for (String type : types) {
+                    typeSet.add(TransactionType.valueOf(type.trim().toUpperCase()));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse("无效的分组维度或交易类型: " + groupBy + " " + types, HttpStatus.BAD_REQUEST);
+        }
+        try {
+            logger.debug("交易分析，{} 到 {}, 分组: {}", startDate, endDate, dimension);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", analyticsService.query(new TransactionAnalyticsService.AnalyticsQuery(
+                    startDate, endDate, typeSet, bookId,
+                    category != null && !category.isBlank() ? category.trim() : null,
+                    operator != null && !operator.isBlank() ? operator.trim() : null,
+                    dimension, limit)));
+            return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            logger.warn("交易分析失败: [{}] {}", e.getCode(), e.getMessage());
+            HttpStatus status = "ANALYTICS_LOADING".equals(e.getCode()) || "ANALYTICS_DISABLED".equals(e.getCode())
+                    ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.BAD_REQUEST;
+            return createErrorResponse(e.getMessage(), status);
+        } catch (Exception e) {
+            logger.error("交易分析失败", e);
+            return createErrorResponse("交易分析失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", analyticsService.getStatus());
+        return ResponseEntity.ok(response);
+    }
+
+    private ResponseEntity<Map<String, Object>> createErrorResponse(String message, HttpStatus status) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        response.put("status", status.value());
+        response.put("timestamp", System.currentTimeMillis());
+        return ResponseEntity.status(status).body(response);
+    }
+}
@@ -1,10 +1,18 @@
 package com.northgod.server.controller;
 
 import com.northgod.server.entity.Book;
+import com.northgod.server.exception.BusinessException;
 import com.northgod.server.service.BookService;
+import com.northgod.server.service.CatalogImportService;
+import com.northgod.server.service.StockLedgerService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
@@ -15,6 +23,7 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,9 +36,14 @@ public class BookController {
 
     private static final Logger logger = LoggerFactory.getLogger(BookController.class);
     private final BookService bookService;
+    private final CatalogImportService catalogImportService;
+    private final StockLedgerService stockLedgerService;
 
-    public BookController(BookService bookService) {
+    public BookController(BookService bookService, CatalogImportService catalogImportService,
+                          StockLedgerService stockLedgerService) {
         this.bookService = bookService;
+        this.catalogImportService = catalogImportService;
+        this.stockLedgerService = stockLedgerService;
     }
 
     @GetMapping
@@ -359,6 +373,220 @@ public class BookController {
         }
     }
 
+    /**
+     * 开启或关闭书籍的热销库存模式
+     */
+    @PutMapping("/{id}/hot-stock")
+    public ResponseEntity<Map<String, Object>> setHotStock(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "enabled", defaultValue = "true") boolean enabled) {
+        try {
+            logger.debug("设置热销库存模式，ID: {}, 启用: {}", id, enabled);
+            bookService.setHotStock(id, enabled);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", enabled ? "已开启热销库存模式" : "已关闭热销库存模式");
+            response.put("bookId", id);
+            response.put("hotStock", enabled);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("设置热销库存模式失败，ID: {}", id, e);
+            return createErrorResponse("设置热销库存模式失败: " + e.getMessage(),
+                    HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * 热销库存账本指标（待回写量、回写耗时）
+     */
+    @GetMapping("/hot-stock/metrics")
+    public ResponseEntity<Map<String, Object>> getHotStockMetrics() {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", bookService.getHotStockMetrics());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("获取热销库存指标失败", e);
+            return createErrorResponse("获取热销库存指标失败: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 单本书籍的库存流水账：快照 + 快照之后的流水，与书籍表库存对照
+     */
+    @GetMapping("/{id}/stock-ledger")
+    public ResponseEntity<Map<String, Object>> getStockLedger(@PathVariable("id") Long id) {
+        try {
+            logger.debug("获取库存流水账，ID: {}", id);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", stockLedgerService.getLedgerStock(id));
+            return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (Exception e) {
+            logger.error("获取库存流水账失败，ID: {}", id, e);
+            return createErrorResponse("获取库存流水账失败: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 立即滚动库存快照（通常由定时任务执行）
+     */
+    @PostMapping("/stock-ledger/snapshot")
+    public ResponseEntity<Map<String, Object>> takeStockSnapshot() {
+        try {
+            int updated = stockLedgerService.takeSnapshot();
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", String.format("库存快照完成，更新 %d 本书籍", updated));
+            response.put("updatedBooks", updated);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("库存快照失败", e);
+            return createErrorResponse("库存快照失败: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 立即执行库存对账；full=true 时忽略快照、从全部流水重新累加
+     */
+    @PostMapping("/stock-ledger/reconcile")
+    public ResponseEntity<Map<String, Object>> reconcileStock(
+            @RequestParam(value = "full", defaultValue = "false") boolean full) {
+        try {
+            logger.debug("库存对账，全量: {}", full);
+            Map<String, Object> report = stockLedgerService.reconcile(full);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", String.format("库存对账完成，偏差书籍 %s 本", report.get("driftBooks")));
+            response.put("data", report);
+            return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.CONFLICT);
+        } catch (Exception e) {
+            logger.error("库存对账失败", e);
+            return createErrorResponse("库存对账失败: " + e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 最近一次库存对账报告
+     */
+    @GetMapping("/stock-ledger/reconciliation")
+    public ResponseEntity<Map<String, Object>> getLastReconciliation() {
+        Map<String, Object> report = stockLedgerService.getLastReconciliation();
+        if (report == null) {
+            return createErrorResponse("尚未执行库存对账", HttpStatus.NOT_FOUND);
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", report);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 批量盘点：按实盘数量设置库存，差异记为盘盈/盘亏交易
+     */
+    @PostMapping("/stocktake")
+    public ResponseEntity<Map<String, Object>> applyStocktake(@Valid @RequestBody StocktakeRequest request) {
+        try {
+            logger.debug("批量盘点，条目数量: {}", request.getItems().size());
+            if (request.getItems().size() > 50000) {
+                return createErrorResponse("单次盘点不能超过50000条记录",
+                        HttpStatus.BAD_REQUEST);
+            }
+            List<BookService.StocktakeEntry> entries = new ArrayList<>(request.getItems().size());
+            for (StocktakeItem item : request.getItems()) {
+                if (item.getBookId() == null && (item.getIsbn() == null || item.getIsbn().isBlank())) {
+                    return createErrorResponse("盘点条目必须提供书籍ID或ISBN", HttpStatus.BAD_REQUEST);
+                }
+                entries.add(new BookService.StocktakeEntry(item.getBookId(), item.getIsbn(), item.getCountedQuantity()));
+            }
+            Map<String, Object> result = bookService.applyStocktake(entries, request.getOperatorName(), request.getNotes());
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", String.format("盘点完成，调整 %s 本，未变化 %s 本，未识别 %s 条",
+                    result.get("adjusted"), result.get("unchanged"), ((List<?>) result.get("unmatched")).size()));
+            response.put("data", result);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("批量盘点失败", e);
+            return createErrorResponse("批量盘点失败: " + e.getMessage(),
+                    HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * 流式导入书籍目录（请求体为 CSV 或 NDJSON 原始内容，按ISBN新增或更新）
+     * 格式由 format 参数指定，未指定时根据 Content-Type 判断
+     */
+    @PostMapping("/import")
+    public ResponseEntity<Map<String, Object>> importCatalog(
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "importId", required = false) String importId,
+            HttpServletRequest request) {
+        try {
+            CatalogImportService.Format importFormat = resolveImportFormat(format, request.getContentType());
+            logger.debug("导入书籍目录，格式: {}, 导入ID: {}", importFormat, importId);
+            Map<String, Object> result = catalogImportService.importCatalog(
+                    request.getInputStream(), importFormat, importId);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", String.format("导入完成，新增 %s 本，更新 %s 本，拒绝 %s 行",
+                    result.get("inserted"), result.get("updated"), result.get("rejected")));
+            response.put("data", result);
+            return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            logger.error("导入书籍目录失败", e);
+            ResponseEntity<Map<String, Object>> error = createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+            error.getBody().put("code", e.getCode());
+            if (e.getData() != null) {
+                error.getBody().put("data", e.getData());
+            }
+            return error;
+        } catch (Exception e) {
+            logger.error("导入书籍目录失败", e);
+            return createErrorResponse("导入书籍目录失败: " + e.getMessage(),
+                    HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * 查询目录导入进度
+     */
+    @GetMapping("/import/{importId}")
+    public ResponseEntity<Map<String, Object>> getImportProgress(@PathVariable("importId") String importId) {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", catalogImportService.getProgress(importId));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+
+    private CatalogImportService.Format resolveImportFormat(String format, String contentType) {
+        if (format != null && !format.isBlank()) {
+            try {
+                return CatalogImportService.Format.valueOf(format.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new BusinessException("IMPORT_FORMAT_INVALID", "不支持的导入格式: " + format + "（可选 csv、ndjson）");
+            }
+        }
+        if (contentType != null && (contentType.contains("ndjson") || contentType.contains("json"))) {
+            return CatalogImportService.Format.NDJSON;
+        }
+        return CatalogImportService.Format.CSV;
+    }
+
     private ResponseEntity<Map<String, Object>> createErrorResponse(String message, HttpStatus status) {
         Map<String, Object> response = new HashMap<>();
         response.put("success", false);
@@ -367,4 +595,31 @@ public class BookController {
         response.put("timestamp", System.currentTimeMillis());
         return ResponseEntity.status(status).body(response);
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量盘点请求DTO
+     */
+    @Data
+    public static class StocktakeRequest {
+        @NotEmpty(message = "盘点条目不能为空")
+        private List<@Valid StocktakeItem> items;
+
+        private String operatorName;
+
+        private String notes;
+    }
+
+    /**
+     * 盘点条目DTO（书籍ID与ISBN二选一）
+     */
+    @Data
+    public static class StocktakeItem {
+        private Long bookId;
+
+        private String isbn;
+
+        @NotNull(message = "实盘数量不能为空")
+        @PositiveOrZero(message = "实盘数量不能为负数")
+        private Integer countedQuantity;
+    }
+}
@@ -1,6 +1,7 @@
 package com.northgod.server.controller;
 
 import com.northgod.server.service.CacheService;
+import com.northgod.server.service.OutboxRelay;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
@@ -37,15 +38,18 @@ public class HealthController {
     private final ApplicationAvailability availability;
     private final MeterRegistry meterRegistry;
     private final CacheService cacheService;
+    private final OutboxRelay outboxRelay;
 
     public HealthController(JdbcTemplate jdbcTemplate,
                             ApplicationAvailability availability,
                             MeterRegistry meterRegistry,
-                            CacheService cacheService) {
+                            CacheService cacheService,
+                            OutboxRelay outboxRelay) {
         this.jdbcTemplate = jdbcTemplate;
         this.availability = availability;
         this.meterRegistry = meterRegistry;
         this.cacheService = cacheService;
+        this.outboxRelay = outboxRelay;
     }
 
     /**
@@ -72,6 +76,9 @@ public class HealthController {
         Map<String, Object> cacheStatus = checkCache();
         health.put("cache", cacheStatus);
 
+        // 发件箱投递状态
+        health.put("outbox", checkOutbox());
+
         // 系统信息（适配虚拟线程环境）
         Map<String, Object> systemInfo = getSystemInfo();
         health.put("system", systemInfo);
@@ -286,6 +293,20 @@ public class HealthController {
         return system;
     }
 
+    /**
+     * 检查发件箱积压与投递情况
+     */
+    private Map<String, Object> checkOutbox() {
+        try {
+            return outboxRelay.getMetrics();
+        } catch (DataAccessException e) {
+            logger.warn("获取发件箱状态失败", e);
+            Map<String, Object> status = new HashMap<>();
+            status.put("error", e.getMessage());
+            return status;
+        }
+    }
+
     /**
      * 获取应用指标
      */
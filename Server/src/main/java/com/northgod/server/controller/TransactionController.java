@@ -1,12 +1,29 @@
 package com.northgod.server.controller;
 
+import com.northgod.server.entity.Book;
 import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.exception.BusinessException;
+import com.northgod.server.service.GroupCommitService;
+import com.northgod.server.service.IdempotencyService;
+import com.northgod.server.service.LiveSalesRankingService;
+import com.northgod.server.service.ReorderPlanService;
+import com.northgod.server.service.SalesRollupService;
+import com.northgod.server.service.TransactionExportService;
+import com.northgod.server.service.TransactionPartitionService;
 import com.northgod.server.service.TransactionService;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,10 +31,14 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestClient;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,14 +53,42 @@ public class TransactionController {
 
     private static final Logger logger = LoggerFactory.getLogger(TransactionController.class);
     private final TransactionService transactionService;
+    private final GroupCommitService groupCommitService;
+    private final IdempotencyService idempotencyService;
+    private final SalesRollupService salesRollupService;
+    private final LiveSalesRankingService liveSalesRankingService;
+    private final ReorderPlanService reorderPlanService;
+    private final TransactionExportService transactionExportService;
+    private final TransactionPartitionService transactionPartitionService;
     private final RestClient restClient;
 
     /**
      * 构造函数
      * @param transactionService 交易服务
+     * @param groupCommitService 交易组提交服务（未开启时直接单笔提交）
+     * @param idempotencyService 写接口幂等服务（Idempotency-Key 请求头）
+     * @param salesRollupService 交易汇总表维护服务
+     * @param liveSalesRankingService 实时畅销榜
+     * @param reorderPlanService 批量补货计划
+     * @param transactionExportService 交易记录流式导出
+     * @param transactionPartitionService 交易表按月分区维护
      */
-    public TransactionController(TransactionService transactionService) {
+    public TransactionController(TransactionService transactionService,
+                                 GroupCommitService groupCommitService,
+                                 IdempotencyService idempotencyService,
+                                 SalesRollupService salesRollupService,
+                                 LiveSalesRankingService liveSalesRankingService,
+                                 ReorderPlanService reorderPlanService,
+                                 TransactionExportService transactionExportService,
+                                 TransactionPartitionService transactionPartitionService) {
         this.transactionService = transactionService;
+        this.groupCommitService = groupCommitService;
+        this.idempotencyService = idempotencyService;
+        this.salesRollupService = salesRollupService;
+        this.liveSalesRankingService = liveSalesRankingService;
+        this.reorderPlanService = reorderPlanService;
+        this.transactionExportService = transactionExportService;
+        this.transactionPartitionService = transactionPartitionService;
         // 直接初始化 RestClient，避免复杂的 Bean 依赖问题
         this.restClient = RestClient.builder().build();
     }
@@ -48,44 +97,23 @@ public class TransactionController {
      * 创建进货记录
      */
     @PostMapping("/purchase")
-    public ResponseEntity<Map<String, Object>> createPurchase(@Valid @RequestBody Transaction transaction) {
+    public ResponseEntity<Map<String, Object>> createPurchase(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @Valid @RequestBody Transaction transaction) {
+        return idempotencyService.executeInWrite(idempotencyKey, "POST /transactions/purchase",
+                ticket -> doCreatePurchase(transaction, ticket));
+    }
+
+    private ResponseEntity<Map<String, Object>> doCreatePurchase(Transaction transaction, IdempotencyService.Ticket ticket) {
         try {
             logger.debug("创建进货记录，书籍ID: {}", transaction.getBook() != null ? transaction.getBook().getId() : "null");
-            Transaction created = transactionService.createPurchase(transaction);
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "进货成功");
-            
-            // 构建简化的交易数据，避免循环引用
-            Map<String, Object> transactionData = new HashMap<>();
-            transactionData.put("id", created.getId());
-            transactionData.put("transactionType", created.getTransactionType().toString());
-            transactionData.put("quantity", created.getQuantity());
-            transactionData.put("unitPrice", created.getUnitPrice());
-            transactionData.put("totalAmount", created.getTotalAmount());
-            transactionData.put("notes", created.getNotes());
-            transactionData.put("createdAt", created.getCreatedAt());
-            
-            // 添加书籍基本信息
-            if (created.getBook() != null) {
-                Map<String, Object> bookData = new HashMap<>();
-                bookData.put("id", created.getBook().getId());
-                bookData.put("title", created.getBook().getTitle());
-                bookData.put("isbn", created.getBook().getIsbn());
-                transactionData.put("book", bookData);
-            }
-            
-            // 添加供应商基本信息
-            if (created.getRelatedSupplier() != null) {
-                Map<String, Object> supplierData = new HashMap<>();
-                supplierData.put("id", created.getRelatedSupplier().getId());
-                supplierData.put("name", created.getRelatedSupplier().getName());
-                transactionData.put("relatedSupplier", supplierData);
-            }
-            
-            response.put("data", transactionData);
-            response.put("transactionId", created.getId());
-            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+            // 幂等记录在写入交易的同一事务中保存（组提交开启时是提交线程的批量事务）
+            Transaction created = groupCommitService.submit(TransactionType.PURCHASE, transaction, keyOf(ticket),
+                    written -> idempotencyService.record(ticket, purchaseCreatedResponse(written)));
+            return purchaseCreatedResponse(created);
+        } catch (BusinessException e) {
+            logger.warn("创建进货记录失败: [{}] {}", e.getCode(), e.getMessage());
+            return createErrorResponse("进货失败: " + e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
             logger.error("创建进货记录失败", e);
             return createErrorResponse("进货失败: " + e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -96,16 +124,22 @@ public class TransactionController {
      * 创建销售记录
      */
     @PostMapping("/sale")
-    public ResponseEntity<Map<String, Object>> createSale(@Valid @RequestBody Transaction transaction) {
+    public ResponseEntity<Map<String, Object>> createSale(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @Valid @RequestBody Transaction transaction) {
+        return idempotencyService.executeInWrite(idempotencyKey, "POST /transactions/sale",
+                ticket -> doCreateSale(transaction, ticket));
+    }
+
+    private ResponseEntity<Map<String, Object>> doCreateSale(Transaction transaction, IdempotencyService.Ticket ticket) {
         try {
             logger.debug("创建销售记录，书籍ID: {}", transaction.getBook() != null ? transaction.getBook().getId() : "null");
-            Transaction created = transactionService.createSale(transaction);
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "销售成功");
-            response.put("data", created);
-            response.put("transactionId", created.getId());
-            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+            Transaction created = groupCommitService.submit(TransactionType.SALE, transaction, keyOf(ticket),
+                    written -> idempotencyService.record(ticket, saleCreatedResponse(written)));
+            return saleCreatedResponse(created);
+        } catch (BusinessException e) {
+            logger.warn("创建销售记录失败: [{}] {}", e.getCode(), e.getMessage());
+            return createErrorResponse("销售失败: " + e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
             logger.error("创建销售记录失败", e);
             return createErrorResponse("销售失败: " + e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -116,19 +150,172 @@ public class TransactionController {
      * 创建退货记录
      */
     @PostMapping("/return")
-    public ResponseEntity<Map<String, Object>> createReturn(@Valid @RequestBody Transaction transaction) {
+    public ResponseEntity<Map<String, Object>> createReturn(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @Valid @RequestBody Transaction transaction) {
+        return idempotencyService.executeInWrite(idempotencyKey, "POST /transactions/return",
+                ticket -> doCreateReturn(transaction, ticket));
+    }
+
+    private ResponseEntity<Map<String, Object>> doCreateReturn(Transaction transaction, IdempotencyService.Ticket ticket) {
         try {
             logger.debug("创建退货记录，原交易ID: {}", transaction.getRelatedTransactionId());
-            Transaction created = transactionService.createReturn(transaction);
+            Transaction created = groupCommitService.submit(TransactionType.RETURN, transaction, keyOf(ticket),
+                    written -> idempotencyService.record(ticket, returnCreatedResponse(written)));
+            return returnCreatedResponse(created);
+        } catch (BusinessException e) {
+            logger.warn("创建退货记录失败: [{}] {}", e.getCode(), e.getMessage());
+            return createErrorResponse("退货失败: " + e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("创建退货记录失败", e);
+            return createErrorResponse("退货失败: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    private static String keyOf(IdempotencyService.Ticket ticket) {
+        return ticket != null ? ticket.key() : null;
+    }
+
+    private ResponseEntity<Map<String, Object>> purchaseCreatedResponse(Transaction created) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "进货成功");
+        // 构建简化的交易数据，避免循环引用
+        response.put("data", toTransactionData(created));
+        response.put("transactionId", created.getId());
+        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+    }
+
+    private ResponseEntity<Map<String, Object>> saleCreatedResponse(Transaction created) {
+        return createdResponse("销售成功", created);
+    }
+
+    private ResponseEntity<Map<String, Object>> returnCreatedResponse(Transaction created) {
+        return createdResponse("退货成功", created);
+    }
+
+    private ResponseEntity<Map<String, Object>> createdResponse(String message, Transaction created) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", message);
+        response.put("data", created);
+        response.put("transactionId", created.getId());
+        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+    }
+
+    /**
+     * 整单结账（多行购物篮）
+     * 所有行在同一个数据库事务中提交，整单成功或整单拒绝，返回逐行结果
+     */
+    @PostMapping("/checkout")
+    public ResponseEntity<Map<String, Object>> checkout(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @Valid @RequestBody CheckoutRequest request) {
+        return idempotencyService.execute(idempotencyKey, "POST /transactions/checkout", () -> doCheckout(request));
+    }
+
+    private ResponseEntity<Map<String, Object>> doCheckout(CheckoutRequest request) {
+        try {
+            logger.debug("整单结账，行数: {}", request.getItems().size());
+            if (request.getItems().size() > 100) {
+                return createErrorResponse("单次结账不能超过100行", HttpStatus.BAD_REQUEST);
+            }
+            List<Transaction> items = new ArrayList<>(request.getItems().size());
+            for (CheckoutItem item : request.getItems()) {
+                Book book = new Book();
+                book.setId(item.getBookId());
+                Transaction transaction = new Transaction();
+                transaction.setBook(book);
+                transaction.setQuantity(item.getQuantity());
+                transaction.setUnitPrice(item.getUnitPrice());
+                transaction.setNotes(item.getNotes() != null ? item.getNotes() : request.getNotes());
+                transaction.setOperatorName(request.getOperatorName());
+                items.add(transaction);
+            }
+            Map<String, Object> result = transactionService.checkout(items);
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("message", "退货成功");
-            response.put("data", created);
-            response.put("transactionId", created.getId());
+            response.put("message", "结账成功");
+            response.put("data", result);
             return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (BusinessException e) {
+            logger.warn("整单结账失败: [{}] {}", e.getCode(), e.getMessage());
+            ResponseEntity<Map<String, Object>> errorResponse =
+                    createErrorResponse("结账失败: " + e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
+            if (e.getData() != null) {
+                errorResponse.getBody().put("lines", e.getData());
+            }
+            return errorResponse;
         } catch (Exception e) {
-            logger.error("创建退货记录失败", e);
-            return createErrorResponse("退货失败: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+            logger.error("整单结账失败", e);
+            return createErrorResponse("结账失败: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * 供应商送货收货（JSON）：一张送货单的所有进货行一次提交
+     */
+    @PostMapping("/receipt")
+    public ResponseEntity<Map<String, Object>> receiveGoods(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @Valid @RequestBody ReceiptRequest request) {
+        return idempotencyService.execute(idempotencyKey, "POST /transactions/receipt", () -> {
+            List<TransactionService.ReceiptLine> lines = request.getLines().stream()
+                    .map(line -> new TransactionService.ReceiptLine(
+                            line.getIsbn(), line.getQuantity(), line.getUnitPrice(), line.getNotes()))
+                    .toList();
+            return doReceiveGoods(request.getSupplierId(), lines, request.getOperatorName(), request.getNotes());
+        });
+    }
+
+    /**
+     * 供应商送货收货（CSV上传）：请求体为送货单CSV，表头包含 isbn、quantity、unitPrice，可选 notes
+     */
+    @PostMapping(value = "/receipt/csv", consumes = {"text/csv", "text/plain", "application/octet-stream"})
+    public ResponseEntity<Map<String, Object>> receiveGoodsCsv(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @RequestParam("supplierId") Long supplierId,
+            @RequestParam(value = "operatorName", required = false) String operatorName,
+            @RequestParam(value = "notes", required = false) String notes,
+            @RequestBody byte[] content) {
+        return idempotencyService.execute(idempotencyKey, "POST /transactions/receipt/csv", () -> {
+            try {
+                List<TransactionService.ReceiptLine> lines =
+                        transactionService.parseReceiptCsv(new ByteArrayInputStream(content));
+                return doReceiveGoods(supplierId, lines, operatorName, notes);
+            } catch (BusinessException e) {
+                logger.warn("送货单解析失败: [{}] {}", e.getCode(), e.getMessage());
+                return createErrorResponse("收货失败: " + e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
+            }
+        });
+    }
+
+    private ResponseEntity<Map<String, Object>> doReceiveGoods(Long supplierId,
+                                                               List<TransactionService.ReceiptLine> lines,
+                                                               String operatorName, String notes) {
+        try {
+            logger.debug("送货单收货，供应商: {}, 行数: {}", supplierId, lines.size());
+            if (lines.size() > 5000) {
+                return createErrorResponse("单张送货单不能超过5000行", HttpStatus.BAD_REQUEST);
+            }
+            Map<String, Object> result = transactionService.receiveGoods(supplierId, lines, operatorName, notes);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", String.format("收货成功，共 %s 行，%s 本",
+                    result.get("lineCount"), result.get("totalQuantity")));
+            response.put("data", result);
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (BusinessException e) {
+            logger.warn("送货单收货失败: [{}] {}", e.getCode(), e.getMessage());
+            ResponseEntity<Map<String, Object>> errorResponse =
+                    createErrorResponse("收货失败: " + e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
+            if (e.getData() != null) {
+                errorResponse.getBody().put("lines", e.getData());
+            }
+            return errorResponse;
+        } catch (Exception e) {
+            logger.error("送货单收货失败", e);
+            return createErrorResponse("收货失败: " + e.getMessage(), HttpStatus.BAD_REQUEST);
         }
     }
 
@@ -140,57 +327,18 @@ public class TransactionController {
         try {
             logger.debug("获取今日交易记录");
             List<Transaction> transactions = transactionService.getTodayTransactions();
-            BigDecimal salesTotal = transactionService.getDailySalesTotal(LocalDate.now());
-            BigDecimal purchasesTotal = transactionService.getDailyPurchasesTotal(LocalDate.now());
             
-            // 构建包含完整信息的交易数据列表，避免LAZY加载问题
-            List<Map<String, Object>> transactionDataList = new ArrayList<>();
+            // 交易数据全部取自交易表（书籍/供应商信息使用写入时的快照），不触发懒加载
+            List<Map<String, Object>> transactionDataList = new ArrayList<>(transactions.size());
             for (Transaction transaction : transactions) {
-                Map<String, Object> transactionData = new HashMap<>();
-                transactionData.put("id", transaction.getId());
-                transactionData.put("transactionType", transaction.getTransactionType().toString());
-                transactionData.put("quantity", transaction.getQuantity());
-                transactionData.put("unitPrice", transaction.getUnitPrice());
-                transactionData.put("totalAmount", transaction.getTotalAmount());
-                transactionData.put("notes", transaction.getNotes());
-                transactionData.put("createdAt", transaction.getCreatedAt());
-                
-                // 添加关联交易ID（如果是退货记录）
-                if (transaction.getRelatedTransactionId() != null) {
-                    transactionData.put("relatedTransactionId", transaction.getRelatedTransactionId());
-                }
-                
-                // 添加书籍信息
-                if (transaction.getBook() != null) {
-                    Map<String, Object> bookData = new HashMap<>();
-                    bookData.put("id", transaction.getBook().getId());
-                    bookData.put("title", transaction.getBook().getTitle());
-                    bookData.put("isbn", transaction.getBook().getIsbn());
-                    bookData.put("stockQuantity", transaction.getBook().getStockQuantity());
-                    transactionData.put("book", bookData);
-                }
-                
-                // 添加供应商信息（如果是进货记录）
-                if (transaction.getRelatedSupplier() != null) {
-                    Map<String, Object> supplierData = new HashMap<>();
-                    supplierData.put("id", transaction.getRelatedSupplier().getId());
-                    supplierData.put("name", transaction.getRelatedSupplier().getName());
-                    transactionData.put("relatedSupplier", supplierData);
-                }
-                
-                transactionDataList.add(transactionData);
+                transactionDataList.add(toTransactionData(transaction));
             }
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("data", transactionDataList);
-            response.put("summary", Map.of(
-                    "date", LocalDate.now(),
-                    "totalTransactions", transactions.size(),
-                    "salesTotal", salesTotal,
-                    "purchasesTotal", purchasesTotal,
-                    "netTotal", salesTotal.subtract(purchasesTotal)
-            ));
+            // 汇总取自内存计数器，不再查询
+            response.put("summary", transactionService.getTodaySummary());
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             logger.error("获取今日交易记录失败", e);
@@ -198,6 +346,17 @@ public class TransactionController {
         }
     }
 
+    /**
+     * 今日汇总（按交易类型的笔数、数量、金额），只读取内存计数器，适合终端频繁轮询
+     */
+    @GetMapping("/today/summary")
+    public ResponseEntity<Map<String, Object>> getTodaySummary() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", transactionService.getTodaySummary());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 获取月度交易记录
      */
@@ -208,9 +367,13 @@ public class TransactionController {
         try {
             logger.debug("获取月度交易记录，{}-{}", year, month);
             List<Transaction> transactions = transactionService.getMonthlyTransactions(year, month);
+            List<Map<String, Object>> transactionDataList = new ArrayList<>(transactions.size());
+            for (Transaction transaction : transactions) {
+                transactionDataList.add(toTransactionData(transaction));
+            }
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("data", transactions);
+            response.put("data", transactionDataList);
             response.put("period", Map.of("year", year, "month", month));
             response.put("count", transactions.size());
             return ResponseEntity.ok(response);
@@ -220,6 +383,89 @@ public class TransactionController {
         }
     }
 
+    /**
+     * 流式导出任意日期范围的交易记录（含两端，包含已作废记录）
+     * format 取 csv 或 ndjson，gzip=true 时输出 .gz 文件；结果直接写入响应流，不在内存中汇集
+     */
+    @GetMapping("/export")
+    public ResponseEntity<Map<String, Object>> exportTransactions(
+            @RequestParam(value = "startDate", required = true) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(value = "endDate", required = true) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            @RequestParam(value = "type", required = false) String type,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip,
+            HttpServletResponse response) {
+        if (startDate.isAfter(endDate)) {
+            return createErrorResponse("开始日期不能晚于结束日期", HttpStatus.BAD_REQUEST);
+        }
+        TransactionExportService.Format exportFormat;
+        TransactionType transactionType;
+        try {
+            exportFormat = TransactionExportService.Format.valueOf(format.trim().toUpperCase());
+            transactionType = type != null && !type.isBlank() ? TransactionType.valueOf(type.trim().toUpperCase()) : null;
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse("不支持的导出格式或交易类型: " + format + " " + type + "（格式可选 csv、ndjson）",
+                    HttpStatus.BAD_REQUEST);
+        }
+
+        String fileName = String.format("transactions_%s_%s.%s%s", startDate, endDate,
+                exportFormat.name().toLowerCase(), gzip ? ".gz" : "");
+        response.setContentType(gzip ? "application/gzip"
+                : exportFormat == TransactionExportService.Format.CSV ? "text/csv; charset=UTF-8"
+                : "application/x-ndjson; charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        try {
+            logger.debug("导出交易记录，{} 到 {}, 格式: {}", startDate, endDate, exportFormat);
+            transactionExportService.export(startDate, endDate, transactionType, exportFormat, gzip,
+                    response.getOutputStream());
+            response.flushBuffer();
+            // 响应已直接写出
+            return null;
+        } catch (IOException e) {
+            logger.warn("导出交易记录中断，{} 到 {}: {}", startDate, endDate, e.getMessage());
+            return null;
+        } catch (Exception e) {
+            logger.error("导出交易记录失败，{} 到 {}", startDate, endDate, e);
+            if (response.isCommitted()) {
+                // 已开始发送内容，抛出异常使容器不发送分块结束标记，客户端据此识别文件不完整
+                throw new IllegalStateException("导出交易记录中断", e);
+            }
+            response.reset();
+            return createErrorResponse("导出交易记录失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 获取单本书籍的交易历史（分页）
+     */
+    @GetMapping("/book/{bookId}")
+    public ResponseEntity<Map<String, Object>> getBookTransactionHistory(
+            @PathVariable("bookId") Long bookId,
+            @RequestParam(value = "page", defaultValue = "0") @Min(0) int page,
+            @RequestParam(value = "size", defaultValue = "20") @Min(1) @Max(100) int size) {
+        try {
+            logger.debug("获取书籍交易历史，书籍ID: {}, 页码: {}", bookId, page);
+            Page<Transaction> history = transactionService.getTransactionHistory(bookId, page, size);
+            List<Map<String, Object>> transactionDataList = new ArrayList<>(history.getNumberOfElements());
+            for (Transaction transaction : history.getContent()) {
+                transactionDataList.add(toTransactionData(transaction));
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", transactionDataList);
+            response.put("pagination", Map.of(
+                    "currentPage", history.getNumber(),
+                    "pageSize", history.getSize(),
+                    "totalItems", history.getTotalElements(),
+                    "totalPages", history.getTotalPages()
+            ));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("获取书籍交易历史失败，书籍ID: {}", bookId, e);
+            return createErrorResponse("获取书籍交易历史失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * 获取月度汇总
      */
@@ -241,15 +487,19 @@ public class TransactionController {
     }
 
     /**
-     * 获取销售排行
+     * 获取销售排行（自然月）
      */
     @GetMapping("/ranking/{year}/{month}")
     public ResponseEntity<Map<String, Object>> getSalesRanking(
             @PathVariable("year") int year,
-            @PathVariable("month") @Min(1) @Max(12) int month) {
+            @PathVariable("month") @Min(1) @Max(12) int month,
+            @RequestParam(value = "limit", defaultValue = "0") int limit) {
         try {
             logger.debug("获取销售排行，{}-{}", year, month);
-            List<Map<String, Object>> ranking = transactionService.getSalesRanking(year, month);
+            LocalDate startDate = LocalDate.of(year, month, 1);
+            List<Map<String, Object>> ranking = limit > 0
+                    ? transactionService.getSalesRanking(startDate, startDate.plusMonths(1).minusDays(1), limit)
+                    : transactionService.getSalesRanking(year, month);
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("data", ranking);
@@ -261,6 +511,79 @@ public class TransactionController {
         }
     }
 
+    /**
+     * 获取任意日期区间的销售排行
+     * byCategory=true 时返回每个分类的前 N 名（可用 category 只看一个分类）
+     */
+    @GetMapping("/ranking")
+    public ResponseEntity<Map<String, Object>> getSalesRankingBetween(
+            @RequestParam(value = "startDate", required = true) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(value = "endDate", required = true) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(value = "limit", defaultValue = "0") int limit,
+            @RequestParam(value = "byCategory", defaultValue = "false") boolean byCategory,
+            @RequestParam(value = "category", required = false) String category) {
+        try {
+            logger.debug("获取销售排行，{} 到 {}, 按分类: {}", startDate, endDate, byCategory);
+            if (startDate.isAfter(endDate)) {
+                return createErrorResponse("开始日期不能晚于结束日期", HttpStatus.BAD_REQUEST);
+            }
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            if (byCategory || (category != null && !category.isBlank())) {
+                response.put("data", transactionService.getSalesRankingByCategory(startDate, endDate, limit,
+                        category != null && !category.isBlank() ? category.trim() : null));
+            } else {
+                response.put("data", transactionService.getSalesRanking(startDate, endDate, limit));
+            }
+            response.put("period", Map.of("startDate", startDate, "endDate", endDate));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("获取销售排行失败，{} 到 {}", startDate, endDate, e);
+            return createErrorResponse("获取销售排行失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 实时畅销榜（内存数据，不访问数据库）
+     * window 取 hour（最近60分钟）、today（今天零点至今）或分钟数（最多1440）
+     */
+    @GetMapping("/ranking/live")
+    public ResponseEntity<Map<String, Object>> getLiveSalesRanking(
+            @RequestParam(value = "window", defaultValue = "hour") String window,
+            @RequestParam(value = "limit", defaultValue = "10") @Min(1) @Max(100) int limit) {
+        int windowMinutes;
+        if ("hour".equalsIgnoreCase(window)) {
+            windowMinutes = 60;
+        } else if ("today".equalsIgnoreCase(window)) {
+            windowMinutes = LiveSalesRankingService.minutesSinceMidnight();
+        } else {
+            try {
+                windowMinutes = Integer.parseInt(window);
+            } catch (NumberFormatException e) {
+                return createErrorResponse("window 参数应为 hour、today 或分钟数", HttpStatus.BAD_REQUEST);
+            }
+            if (windowMinutes < 1 || windowMinutes > 1440) {
+                return createErrorResponse("window 分钟数应在1到1440之间", HttpStatus.BAD_REQUEST);
+            }
+        }
+        List<Map<String, Object>> ranking = new ArrayList<>();
+        int rank = 1;
+        for (LiveSalesRankingService.RankedBook book : liveSalesRankingService.getTop(windowMinutes, limit)) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("rank", rank++);
+            entry.put("bookId", book.bookId());
+            entry.put("title", book.title());
+            entry.put("quantity", book.quantity());
+            entry.put("error", book.error());
+            ranking.add(entry);
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", ranking);
+        response.put("windowMinutes", windowMinutes);
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 获取每日汇总
      */
@@ -273,9 +596,6 @@ public class TransactionController {
             if (startDate.isAfter(endDate)) {
                 return createErrorResponse("开始日期不能晚于结束日期", HttpStatus.BAD_REQUEST);
             }
-            if (startDate.plusMonths(3).isBefore(endDate)) {
-                return createErrorResponse("查询时间范围不能超过3个月", HttpStatus.BAD_REQUEST);
-            }
             Map<String, Object> summary = transactionService.getDailySummary(startDate, endDate);
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
@@ -287,6 +607,166 @@ public class TransactionController {
         }
     }
 
+    /**
+     * 从交易表重建日/月汇总（按整月对齐；不传日期时重建全部）
+     */
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRollups(
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        try {
+            if (from != null && to != null && from.isAfter(to)) {
+                return createErrorResponse("开始日期不能晚于结束日期", HttpStatus.BAD_REQUEST);
+            }
+            Map<String, Object> result = salesRollupService.rebuild(from, to);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "交易汇总重建完成");
+            response.put("data", result);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("重建交易汇总失败，{} 到 {}", from, to, e);
+            return createErrorResponse("重建交易汇总失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 交易表分区列表（范围、估计行数、占用空间）
+     */
+    @GetMapping("/partitions")
+    public ResponseEntity<Map<String, Object>> getPartitions() {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("partitioned", transactionPartitionService.isPartitioned());
+            response.put("data", transactionPartitionService.isPartitioned()
+                    ? transactionPartitionService.listPartitions() : List.of());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("获取交易分区列表失败", e);
+            return createErrorResponse("获取交易分区列表失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 归档一个月的交易分区（分离后改名为 transaction_archive_yyyy_MM 保留在库中）
+     * 归档月份的交易不再出现在交易查询中，日/月汇总保持不变，重建汇总时跳过该月
+     */
+    @PostMapping("/partitions/{year}/{month}/detach")
+    public ResponseEntity<Map<String, Object>> detachPartition(
+            @PathVariable("year") int year,
+            @PathVariable("month") @Min(1) @Max(12) int month) {
+        try {
+            logger.info("归档交易分区，{}-{}", year, month);
+            Map<String, Object> result = transactionPartitionService.detachMonth(YearMonth.of(year, month));
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "交易分区已归档");
+            response.put("data", result);
+            return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            logger.warn("归档交易分区失败: [{}] {}", e.getCode(), e.getMessage());
+            return createErrorResponse(e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("归档交易分区失败，{}-{}", year, month, e);
+            return createErrorResponse("归档交易分区失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 把历史分区 transaction_legacy 中最早的一个月拆成独立的月分区，之后即可按月归档
+     * 拆分期间持有交易表的排他锁，应在业务低峰逐月调用，直到返回 legacyRemaining = false
+     */
+    @PostMapping("/partitions/legacy/split")
+    public ResponseEntity<Map<String, Object>> splitLegacyPartition() {
+        try {
+            logger.info("拆分交易历史分区");
+            Map<String, Object> result = transactionPartitionService.splitLegacyMonth();
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "历史分区已拆分");
+            response.put("data", result);
+            return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            logger.warn("拆分交易历史分区失败: [{}] {}", e.getCode(), e.getMessage());
+            return createErrorResponse(e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("拆分交易历史分区失败", e);
+            return createErrorResponse("拆分交易历史分区失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 生成全目录补货计划（可只针对一个供应商）
+     */
+    @PostMapping("/reorder-plans")
+    public ResponseEntity<Map<String, Object>> generateReorderPlan(
+            @RequestParam(value = "supplierId", required = false) Long supplierId) {
+        try {
+            logger.info("生成补货计划，供应商ID: {}", supplierId);
+            Map<String, Object> plan = reorderPlanService.generatePlan(supplierId);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "补货计划已生成");
+            response.put("data", plan);
+            return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            logger.warn("生成补货计划失败: [{}] {}", e.getCode(), e.getMessage());
+            return createErrorResponse("生成补货计划失败: " + e.getMessage(), e.getCode(), HttpStatus.CONFLICT);
+        } catch (Exception e) {
+            logger.error("生成补货计划失败，供应商ID: {}", supplierId, e);
+            return createErrorResponse("生成补货计划失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * 分页读取补货计划明细
+     * planId 为 latest 时读取最近的计划（指定 supplierId 时优先取该供应商的计划，没有则取全目录计划并按供应商过滤）
+     */
+    @GetMapping("/reorder-plans/{planId}")
+    public ResponseEntity<Map<String, Object>> getReorderPlan(
+            @PathVariable("planId") String planId,
+            @RequestParam(value = "supplierId", required = false) Long supplierId,
+            @RequestParam(value = "page", defaultValue = "0") @Min(0) int page,
+            @RequestParam(value = "size", defaultValue = "100") @Min(1) @Max(1000) int size) {
+        try {
+            Map<String, Object> plan;
+            if ("latest".equalsIgnoreCase(planId)) {
+                try {
+                    plan = reorderPlanService.getLatestPlan(supplierId);
+                } catch (BusinessException e) {
+                    if (supplierId == null) {
+                        throw e;
+                    }
+                    plan = reorderPlanService.getLatestPlan(null);
+                }
+            } else {
+                plan = reorderPlanService.getPlan(Long.parseLong(planId));
+            }
+            Map<String, Object> lines = reorderPlanService.getPlanLines((Long) plan.get("planId"), supplierId, page, size);
+            long totalItems = (Long) lines.get("totalItems");
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("plan", plan);
+            response.put("data", lines.get("lines"));
+            response.put("pagination", Map.of(
+                    "currentPage", page,
+                    "pageSize", size,
+                    "totalItems", totalItems,
+                    "totalPages", (totalItems + size - 1) / size
+            ));
+            return ResponseEntity.ok(response);
+        } catch (NumberFormatException e) {
+            return createErrorResponse("计划ID格式错误", HttpStatus.BAD_REQUEST);
+        } catch (BusinessException e) {
+            return createErrorResponse(e.getMessage(), e.getCode(), HttpStatus.NOT_FOUND);
+        } catch (Exception e) {
+            logger.error("获取补货计划失败，计划ID: {}", planId, e);
+            return createErrorResponse("获取补货计划失败: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     /**
      * 获取推荐进货数量
      */
@@ -310,8 +790,13 @@ public class TransactionController {
      */
     @PutMapping("/{id}/void")
     public ResponseEntity<Map<String, Object>> voidTransaction(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
             @PathVariable("id") Long id,
             @RequestParam(value = "reason", required = true) String reason) {
+        return idempotencyService.execute(idempotencyKey, "PUT /transactions/void", () -> doVoidTransaction(id, reason));
+    }
+
+    private ResponseEntity<Map<String, Object>> doVoidTransaction(Long id, String reason) {
         try {
             logger.debug("作废交易记录，ID: {}, 原因: {}", id, reason);
             transactionService.voidTransaction(id, reason);
@@ -320,6 +805,9 @@ public class TransactionController {
             response.put("message", "交易记录已作废");
             response.put("transactionId", id);
             return ResponseEntity.ok(response);
+        } catch (BusinessException e) {
+            logger.warn("作废交易记录失败，ID: {}: [{}] {}", id, e.getCode(), e.getMessage());
+            return createErrorResponse("作废交易记录失败: " + e.getMessage(), e.getCode(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
             logger.error("作废交易记录失败，ID: {}", id, e);
             return createErrorResponse("作废交易记录失败: " + e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -364,15 +852,139 @@ public class TransactionController {
         }
     }
 
+    /**
+     * 交易记录转换为响应数据
+     * 书籍和供应商信息取自交易行上的快照列，关联对象只读取ID（懒加载代理不会因此查询数据库）
+     */
+    private Map<String, Object> toTransactionData(Transaction transaction) {
+        Map<String, Object> transactionData = new HashMap<>();
+        transactionData.put("id", transaction.getId());
+        transactionData.put("transactionType", transaction.getTransactionType().toString());
+        transactionData.put("quantity", transaction.getQuantity());
+        transactionData.put("unitPrice", transaction.getUnitPrice());
+        transactionData.put("totalAmount", transaction.getTotalAmount());
+        transactionData.put("operatorName", transaction.getOperatorName());
+        transactionData.put("notes", transaction.getNotes());
+        transactionData.put("createdAt", transaction.getCreatedAt());
+
+        // 添加关联交易ID（如果是退货记录）
+        if (transaction.getRelatedTransactionId() != null) {
+            transactionData.put("relatedTransactionId", transaction.getRelatedTransactionId());
+        }
+
+        if (transaction.getVoidedAt() != null) {
+            transactionData.put("voidedAt", transaction.getVoidedAt());
+        }
+
+        // 销售记录附带已退货数量和剩余可退数量，退货界面无需再查询退货记录
+        if (transaction.getTransactionType() == TransactionType.SALE) {
+            transactionData.put("returnedQuantity", transaction.getReturnedQuantity());
+            transactionData.put("returnableQuantity", transaction.getReturnableQuantity());
+        }
+
+        if (transaction.getBook() != null) {
+            Map<String, Object> bookData = new HashMap<>();
+            bookData.put("id", transaction.getBook().getId());
+            bookData.put("title", transaction.getBookTitle());
+            bookData.put("isbn", transaction.getBookIsbn());
+            transactionData.put("book", bookData);
+        }
+
+        if (transaction.getRelatedSupplier() != null) {
+            Map<String, Object> supplierData = new HashMap<>();
+            supplierData.put("id", transaction.getRelatedSupplier().getId());
+            supplierData.put("name", transaction.getSupplierName());
+            transactionData.put("relatedSupplier", supplierData);
+        }
+        return transactionData;
+    }
+
     /**
      * 创建错误响应（辅助方法）
      */
     private ResponseEntity<Map<String, Object>> createErrorResponse(String message, HttpStatus status) {
+        return createErrorResponse(message, null, status);
+    }
+
+    /**
+     * 创建带业务错误码的错误响应（如 INSUFFICIENT_STOCK），便于客户端区分失败原因
+     */
+    private ResponseEntity<Map<String, Object>> createErrorResponse(String message, String code, HttpStatus status) {
         Map<String, Object> response = new HashMap<>();
         response.put("success", false);
         response.put("message", message);
+        if (code != null) {
+            response.put("code", code);
+        }
         response.put("status", status.value());
         response.put("timestamp", System.currentTimeMillis());
         return ResponseEntity.status(status).body(response);
     }
-}
\ No newline at end of file
+
+    /**
+     * 整单结账请求DTO
+     */
+    @Data
+    public static class CheckoutRequest {
+        @NotEmpty(message = "购物篮不能为空")
+        private List<@Valid CheckoutItem> items;
+
+        private String operatorName;
+
+        private String notes;
+    }
+
+    /**
+     * 购物篮行DTO
+     */
+    @Data
+    public static class CheckoutItem {
+        @NotNull(message = "书籍ID不能为空")
+        private Long bookId;
+
+        @NotNull(message = "数量不能为空")
+        @Min(value = 1, message = "数量必须大于0")
+        private Integer quantity;
+
+        @NotNull(message = "单价不能为空")
+        @Positive(message = "单价必须大于0")
+        private BigDecimal unitPrice;
+
+        private String notes;
+    }
+
+    /**
+     * 送货单请求DTO
+     */
+    @Data
+    public static class ReceiptRequest {
+        @NotNull(message = "供应商不能为空")
+        private Long supplierId;
+
+        @NotEmpty(message = "送货单不能为空")
+        private List<@Valid ReceiptItem> lines;
+
+        private String operatorName;
+
+        private String notes;
+    }
+
+    /**
+     * 送货单行DTO
+     */
+    @Data
+    public static class ReceiptItem {
+        @NotBlank(message = "ISBN不能为空")
+        private String isbn;
+
+        @NotNull(message = "数量不能为空")
+        @Min(value = 1, message = "数量必须大于0")
+        private Integer quantity;
+
+        @NotNull(message = "单价不能为空")
+        @Positive(message = "单价必须大于0")
+        private BigDecimal unitPrice;
+
+        private String notes;
+    }
+}
@@ -28,7 +28,7 @@ public class Book {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
-    @SequenceGenerator(name = "book_seq", sequenceName = "book_id_seq", allocationSize = 1)
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_id_seq", allocationSize = 50)
     @EqualsAndHashCode.Include
     private Long id;
 
@@ -71,6 +71,10 @@ public class Book {
     @Column(name = "is_active", nullable = false)
     private Boolean isActive = true;
 
+    // 热销库存模式：库存变化先记入内存账本，由后台任务定时回写（见 HotStockLedger）
+    @Column(name = "hot_stock", columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private Boolean hotStock = false;
+
     @Column(name = "thumbnail_url", length = 500)
     private String thumbnailUrl;
 
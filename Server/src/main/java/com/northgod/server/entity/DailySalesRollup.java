@@ -0,0 +1,46 @@
+package com.northgod.server.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * 按（日期, 交易类型）汇总的交易笔数、数量和金额（分）
+ * 与交易写入在同一个数据库事务中增量累加；同一键拆分为多个 slot 行以分散并发写入的行锁，读取时求和
+ */
+@Data
+@Entity
+@IdClass(DailySalesRollup.Key.class)
+@Table(name = "sales_rollup_daily")
+public class DailySalesRollup {
+
+    @Id
+    @Column(nullable = false)
+    private LocalDate day;
+
+    @Id
+    @Column(name = "transaction_type", nullable = false, length = 10)
+    private String transactionType;
+
+    @Id
+    @Column(nullable = false)
+    private Short slot;
+
+    @Column(name = "txn_count", nullable = false)
+    private Long txnCount;
+
+    @Column(nullable = false)
+    private Long quantity;
+
+    @Column(name = "amount_cents", nullable = false)
+    private Long amountCents;
+
+    @Data
+    public static class Key implements Serializable {
+        private LocalDate day;
+        private String transactionType;
+        private Short slot;
+    }
+}
@@ -0,0 +1,46 @@
+package com.northgod.server.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * 按（月份, 交易类型）汇总的交易笔数、数量和金额（分），month 为当月第一天
+ * 维护方式与 DailySalesRollup 相同
+ */
+@Data
+@Entity
+@IdClass(MonthlySalesRollup.Key.class)
+@Table(name = "sales_rollup_monthly")
+public class MonthlySalesRollup {
+
+    @Id
+    @Column(nullable = false)
+    private LocalDate month;
+
+    @Id
+    @Column(name = "transaction_type", nullable = false, length = 10)
+    private String transactionType;
+
+    @Id
+    @Column(nullable = false)
+    private Short slot;
+
+    @Column(name = "txn_count", nullable = false)
+    private Long txnCount;
+
+    @Column(nullable = false)
+    private Long quantity;
+
+    @Column(name = "amount_cents", nullable = false)
+    private Long amountCents;
+
+    @Data
+    public static class Key implements Serializable {
+        private LocalDate month;
+        private String transactionType;
+        private Short slot;
+    }
+}
@@ -0,0 +1,51 @@
+package com.northgod.server.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 补货计划快照：一次全目录（或单个供应商）补货计算的汇总信息，明细见 ReorderPlanLine
+ */
+@Data
+@Entity
+@Table(name = "reorder_plan", indexes = {
+        @Index(name = "idx_reorder_plan_created_at", columnList = "created_at")
+})
+public class ReorderPlan {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "reorder_plan_seq")
+    @SequenceGenerator(name = "reorder_plan_seq", sequenceName = "reorder_plan_id_seq", allocationSize = 50)
+    private Long id;
+
+    // 为空表示全部供应商
+    @Column(name = "supplier_id")
+    private Long supplierId;
+
+    @Column(name = "books_scanned", nullable = false)
+    private Integer booksScanned;
+
+    @Column(name = "line_count", nullable = false)
+    private Integer lineCount;
+
+    @Column(name = "total_quantity", nullable = false)
+    private Long totalQuantity;
+
+    // 按进价估算的补货金额（分）
+    @Column(name = "total_cost_cents", nullable = false)
+    private Long totalCostCents;
+
+    @Column(name = "smoothing_alpha", nullable = false)
+    private Double smoothingAlpha;
+
+    @Column(name = "cover_days", nullable = false)
+    private Integer coverDays;
+
+    @Column(name = "elapsed_ms", nullable = false)
+    private Long elapsedMs;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,64 @@
+package com.northgod.server.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 补货计划明细：只保存建议补货数量大于0的书籍，书籍和供应商信息为计划生成时的快照
+ */
+@Data
+@Entity
+@IdClass(ReorderPlanLine.Key.class)
+@Table(name = "reorder_plan_line", indexes = {
+        @Index(name = "idx_reorder_plan_line_supplier", columnList = "plan_id, supplier_id, book_id")
+})
+public class ReorderPlanLine {
+
+    @Id
+    @Column(name = "plan_id", nullable = false)
+    private Long planId;
+
+    @Id
+    @Column(name = "book_id", nullable = false)
+    private Long bookId;
+
+    // 最近一次进货的供应商
+    @Column(name = "supplier_id")
+    private Long supplierId;
+
+    @Column(name = "supplier_name", length = 100)
+    private String supplierName;
+
+    @Column(name = "book_title", length = 200)
+    private String bookTitle;
+
+    @Column(name = "book_isbn", length = 20)
+    private String bookIsbn;
+
+    @Column(name = "current_stock", nullable = false)
+    private Integer currentStock;
+
+    @Column(name = "min_stock", nullable = false)
+    private Integer minStock;
+
+    // 指数平滑得到的日销量预测
+    @Column(name = "forecast_daily", nullable = false)
+    private Double forecastDaily;
+
+    @Column(name = "target_stock", nullable = false)
+    private Integer targetStock;
+
+    @Column(name = "recommended_quantity", nullable = false)
+    private Integer recommendedQuantity;
+
+    @Column(name = "unit_cost_cents", nullable = false)
+    private Long unitCostCents;
+
+    @Data
+    public static class Key implements Serializable {
+        private Long planId;
+        private Long bookId;
+    }
+}
@@ -0,0 +1,44 @@
+package com.northgod.server.entity;
+
+import com.northgod.server.enums.StockMovementReason;
+import jakarta.persistence.*;
+import lombok.Data;
+import org.hibernate.annotations.Immutable;
+
+import java.time.LocalDateTime;
+
+/**
+ * 库存流水（只追加，不更新不删除）
+ * 每次库存变化都在同一个数据库事务中追加一条流水；书籍库存 = 快照数量 + 快照之后的流水合计。
+ * 流水由服务层以集合SQL批量写入，实体仅用于建表和查询。
+ */
+@Data
+@Entity
+@Immutable
+@Table(name = "stock_movement", indexes = {
+        @Index(name = "idx_stock_movement_book_created", columnList = "book_id, created_at"),
+        @Index(name = "idx_stock_movement_transaction", columnList = "transaction_id")
+})
+public class StockMovement {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stock_movement_seq")
+    @SequenceGenerator(name = "stock_movement_seq", sequenceName = "stock_movement_id_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "book_id", nullable = false)
+    private Long bookId;
+
+    @Column(nullable = false)
+    private Integer delta;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private StockMovementReason reason;
+
+    @Column(name = "transaction_id")
+    private Long transactionId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
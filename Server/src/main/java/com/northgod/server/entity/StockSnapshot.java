@@ -0,0 +1,29 @@
+package com.northgod.server.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 书籍库存快照：截至 as_of（不含）的全部流水合计
+ * 由定时任务按书籍增量滚动更新，当前库存 = quantity + created_at >= as_of 的流水合计
+ */
+@Data
+@Entity
+@Table(name = "stock_snapshot")
+public class StockSnapshot {
+
+    @Id
+    @Column(name = "book_id")
+    private Long bookId;
+
+    @Column(nullable = false)
+    private Integer quantity;
+
+    @Column(name = "as_of", nullable = false)
+    private LocalDateTime asOf;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -22,7 +22,7 @@ public class Supplier {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "supplier_seq")
-    @SequenceGenerator(name = "supplier_seq", sequenceName = "supplier_id_seq", allocationSize = 1)
+    @SequenceGenerator(name = "supplier_seq", sequenceName = "supplier_id_seq", allocationSize = 50)
     @EqualsAndHashCode.Include
     private Long id;
 
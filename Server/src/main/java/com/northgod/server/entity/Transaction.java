@@ -1,6 +1,7 @@
 package com.northgod.server.entity;
 
 import com.northgod.server.enums.TransactionType;
+import com.northgod.server.util.Money;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
@@ -15,16 +16,17 @@ import java.time.LocalDateTime;
 @Data
 @Entity
 @Table(name = "transaction", indexes = {
-        @Index(name = "idx_transaction_type", columnList = "transaction_type"),
+        @Index(name = "idx_transaction_type_created_at", columnList = "transaction_type, created_at"),
         @Index(name = "idx_transaction_created_at", columnList = "created_at"),
-        @Index(name = "idx_book_id", columnList = "book_id"),
-        @Index(name = "idx_supplier_id", columnList = "related_supplier_id")
+        @Index(name = "idx_transaction_book_created_at", columnList = "book_id, created_at"),
+        @Index(name = "idx_supplier_id", columnList = "related_supplier_id"),
+        @Index(name = "idx_related_transaction_id", columnList = "related_transaction_id")
 })
 public class Transaction {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transaction_seq")
-    @SequenceGenerator(name = "transaction_seq", sequenceName = "transaction_id_seq", allocationSize = 1)
+    @SequenceGenerator(name = "transaction_seq", sequenceName = "transaction_id_seq", allocationSize = 50)
     private Long id;
 
     @NotNull(message = "书籍不能为空")
@@ -50,6 +52,10 @@ public class Transaction {
     @Column(name = "total_amount", precision = 10, scale = 2)
     private BigDecimal totalAmount;
 
+    // 交易金额（分），写入路径与汇总统计均以该列做整数运算，total_amount 仅用于展示
+    @Column(name = "amount_cents", nullable = false, columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private Long amountCents = 0L;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "related_supplier_id", foreignKey = @ForeignKey(name = "fk_transaction_supplier"))
     private Supplier relatedSupplier;
@@ -57,12 +63,34 @@ public class Transaction {
     @Column(name = "related_transaction_id")
     private Long relatedTransactionId;
 
+    // 销售记录已退货数量（仅SALE使用），与退货记录在同一事务中由带保护的UPDATE原子递增
+    @Column(name = "returned_quantity", nullable = false, columnDefinition = "INTEGER NOT NULL DEFAULT 0")
+    private Integer returnedQuantity = 0;
+
+    // 写入时的书籍/供应商快照，历史列表直接读取，无需关联书籍表和供应商表（书籍下架或改名后仍保持原样）
+    @Column(name = "book_title", length = 200, updatable = false)
+    private String bookTitle;
+
+    @Column(name = "book_isbn", length = 20, updatable = false)
+    private String bookIsbn;
+
+    @Column(name = "supplier_name", length = 100, updatable = false)
+    private String supplierName;
+
     @Column(name = "operator_name", length = 50)
     private String operatorName;
 
     @Column(length = 500)
     private String notes;
 
+    // 作废时间，未作废为空；作废后的交易不再计入汇总
+    @Column(name = "voided_at")
+    private LocalDateTime voidedAt;
+
+    // 库存变化尚未回写到书籍表（热销库存模式下为true，回写后清除）
+    @Column(name = "stock_pending", columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private Boolean stockPending = false;
+
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -74,11 +102,33 @@ public class Transaction {
     @Version
     private Long version;
 
+    /**
+     * 剩余可退数量（仅对销售记录有意义）
+     */
+    public int getReturnableQuantity() {
+        return quantity == null ? 0 : quantity - (returnedQuantity == null ? 0 : returnedQuantity);
+    }
+
     @PrePersist
+    public void onPersist() {
+        calculateTotalAmount();
+        if (book != null && bookTitle == null) {
+            bookTitle = book.getTitle();
+            bookIsbn = book.getIsbn();
+        }
+        if (relatedSupplier != null && supplierName == null) {
+            supplierName = relatedSupplier.getName();
+        }
+    }
+
+    /**
+     * 以分为单位计算交易金额，并同步两位小数的 total_amount
+     */
     @PreUpdate
     public void calculateTotalAmount() {
         if (unitPrice != null && quantity != null) {
-            this.totalAmount = unitPrice.multiply(BigDecimal.valueOf(quantity));
+            this.amountCents = Money.times(Money.toCents(unitPrice), quantity);
+            this.totalAmount = Money.fromCents(amountCents);
         }
     }
 }
\ No newline at end of file
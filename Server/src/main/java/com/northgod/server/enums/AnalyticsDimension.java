@@ -0,0 +1,33 @@
+package com.northgod.server.enums;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * 交易分析的分组维度
+ */
+public enum AnalyticsDimension {
+    NONE("不分组"),
+    TYPE("交易类型"),
+    DAY("日期"),
+    MONTH("月份"),
+    WEEKDAY("星期"),
+    HOUR("小时"),
+    BOOK("书籍"),
+    CATEGORY("分类"),
+    OPERATOR("操作员");
+
+    private final String description;
+
+    AnalyticsDimension(String description) {
+        this.description = description;
+    }
+
+    @JsonValue
+    public String getValue() {
+        return this.name();
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
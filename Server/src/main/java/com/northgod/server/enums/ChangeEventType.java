@@ -0,0 +1,34 @@
+package com.northgod.server.enums;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * 变更事件类型（写入 outbox_event 表，由中继按顺序投递给进程内订阅者）
+ */
+public enum ChangeEventType {
+    TRANSACTION_CREATED("交易创建", "TRANSACTION"),
+    TRANSACTION_VOIDED("交易作废", "TRANSACTION"),
+    BOOK_CHANGED("书籍变更", "BOOK"),
+    CATALOG_IMPORTED("目录导入", "CATALOG");
+
+    private final String description;
+    private final String aggregateType;
+
+    ChangeEventType(String description, String aggregateType) {
+        this.description = description;
+        this.aggregateType = aggregateType;
+    }
+
+    @JsonValue
+    public String getValue() {
+        return this.name();
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getAggregateType() {
+        return aggregateType;
+    }
+}
@@ -0,0 +1,38 @@
+package com.northgod.server.enums;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * 库存流水原因
+ * 交易产生的流水与交易类型同名；其余为作废冲销、手工调整、新书入库和账本启用时的期初余额
+ */
+public enum StockMovementReason {
+    PURCHASE("进货"),
+    SALE("销售"),
+    RETURN("退货"),
+    ADJUST_IN("盘盈"),
+    ADJUST_OUT("盘亏"),
+    VOID("作废冲销"),
+    MANUAL("手工调整"),
+    INITIAL("新书入库"),
+    OPENING("期初余额");
+
+    private final String description;
+
+    StockMovementReason(String description) {
+        this.description = description;
+    }
+
+    @JsonValue
+    public String getValue() {
+        return this.name();
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static StockMovementReason of(TransactionType type) {
+        return valueOf(type.name());
+    }
+}
@@ -6,7 +6,9 @@ import com.fasterxml.jackson.annotation.JsonValue;
 public enum TransactionType {
     PURCHASE("进货"),
     SALE("销售"),
-    RETURN("退货");
+    RETURN("退货"),
+    ADJUST_IN("盘盈"),
+    ADJUST_OUT("盘亏");
 
     private final String description;
 
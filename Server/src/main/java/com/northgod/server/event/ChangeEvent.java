@@ -0,0 +1,36 @@
+package com.northgod.server.event;
+
+import com.northgod.server.enums.ChangeEventType;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * 发件箱中继投递给进程内订阅者的变更事件（订阅方式：@EventListener 方法参数为 ChangeEvent）
+ *
+ * 投递语义为"至少一次"：订阅者抛出异常时，该事件及其后的事件会在下一轮重新投递给所有订阅者，
+ * 因此订阅者需按事件ID做幂等处理；同一批次内严格按事件ID顺序投递。
+ *
+ * @param id            发件箱事件ID（单调递增）
+ * @param aggregateId   交易ID或书籍ID，目录导入事件为空
+ * @param payload       事件内容（JSON 反序列化结果）
+ * @param createdAt     事件写入时间（与业务写入同一事务）
+ */
+public record ChangeEvent(long id, ChangeEventType type, Long aggregateId, Map<String, Object> payload,
+                          LocalDateTime createdAt) {
+
+    public Long longValue(String key) {
+        Object value = payload.get(key);
+        return value instanceof Number number ? number.longValue() : null;
+    }
+
+    public Integer intValue(String key) {
+        Object value = payload.get(key);
+        return value instanceof Number number ? number.intValue() : null;
+    }
+
+    public String stringValue(String key) {
+        Object value = payload.get(key);
+        return value != null ? value.toString() : null;
+    }
+}
@@ -0,0 +1,60 @@
+package com.northgod.server.event;
+
+import com.northgod.server.enums.ChangeEventType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 低库存预警订阅者
+ * 根据交易事件中携带的交易后库存判断是否触及最低库存，无需在每次写入后重新查询书籍表
+ */
+@Component
+public class LowStockAlertListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(LowStockAlertListener.class);
+
+    private static final int RECENT_EVENT_IDS = 4096;
+
+    private final Counter alertCounter;
+
+    /** 最近处理过的事件ID，中继重投时跳过（至少一次投递） */
+    private final Map<Long, Boolean> recentEventIds = new LinkedHashMap<>(RECENT_EVENT_IDS, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > RECENT_EVENT_IDS;
+        }
+    };
+
+    public LowStockAlertListener(MeterRegistry meterRegistry) {
+        this.alertCounter = Counter.builder("bookstore.low_stock.alerts")
+                .description("交易后触及最低库存的次数")
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void onChange(ChangeEvent event) {
+        if (event.type() != ChangeEventType.TRANSACTION_CREATED) {
+            return;
+        }
+        Integer stockAfter = event.intValue("stockAfter");
+        Integer minStock = event.intValue("minStock");
+        if (stockAfter == null || minStock == null || stockAfter > minStock) {
+            return;
+        }
+        synchronized (this) {
+            if (recentEventIds.put(event.id(), Boolean.TRUE) != null) {
+                return;
+            }
+        }
+        alertCounter.increment();
+        logger.warn("低库存预警：书籍ID {}，当前库存 {}，最低库存 {}（交易 {}）",
+                event.longValue("bookId"), stockAfter, minStock, event.aggregateId());
+    }
+}
@@ -7,17 +7,21 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository extends JpaRepository<Book, Long>, BulkInsertRepository<Book> {
 
     // 移除有问题的 findByIdWithTransactions 方法
     // @Query("SELECT b FROM Book b LEFT JOIN FETCH b.transactions WHERE b.id = :id")
@@ -27,6 +31,14 @@ public interface BookRepository extends JpaRepository<Book, Long> {
     @Query("SELECT b FROM Book b WHERE b.id = :id")
     Optional<Book> findByIdForUpdate(@Param("id") Long id);
 
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT b FROM Book b WHERE b.id IN :ids")
+    List<Book> findAllByIdReadOnly(@Param("ids") Collection<Long> ids);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT b FROM Book b WHERE b.isbn IN :isbns")
+    List<Book> findAllByIsbnReadOnly(@Param("isbns") Collection<String> isbns);
+
     @Query("SELECT b FROM Book b WHERE b.isbn = :isbn AND b.isActive = true")
     Optional<Book> findByIsbn(@Param("isbn") String isbn);
 
@@ -56,9 +68,31 @@ public interface BookRepository extends JpaRepository<Book, Long> {
     @Query("UPDATE Book b SET b.stockQuantity = b.stockQuantity + :quantity WHERE b.id = :id")
     int updateStockQuantity(@Param("id") Long id, @Param("quantity") Integer quantity);
 
+    /**
+     * 带库存保护的原子库存变更（单次往返）
+     * 库存不足或书籍不存在时不更新任何行并返回空；成功时返回变更后的库存。
+     * 纯库存变更不递增version字段，避免并发销售之间的乐观锁冲突。
+     */
+    @Query(value = """
+        UPDATE book SET stock_quantity = stock_quantity + :quantity, updated_at = CURRENT_TIMESTAMP
+        WHERE id = :id AND stock_quantity + :quantity >= 0
+        RETURNING stock_quantity
+    """, nativeQuery = true)
+    Optional<Integer> updateStockQuantityIfSufficient(@Param("id") Long id, @Param("quantity") Integer quantity);
+
+    @Query("SELECT b.stockQuantity FROM Book b WHERE b.id = :id")
+    Optional<Integer> findStockQuantityById(@Param("id") Long id);
+
+    /**
+     * 以只读方式加载书籍，随后对库存字段的内存修改不会被脏检查写回数据库
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT b FROM Book b WHERE b.id = :id")
+    Optional<Book> findByIdReadOnly(@Param("id") Long id);
+
     @Modifying(clearAutomatically = true, flushAutomatically = true)
-    @Query("UPDATE Book b SET b.stockQuantity = b.stockQuantity + :quantity WHERE b.id = :id AND b.stockQuantity + :quantity >= 0")
-    int updateStockQuantityIfSufficient(@Param("id") Long id, @Param("quantity") Integer quantity);
+    @Query("UPDATE Book b SET b.hotStock = :hotStock WHERE b.id = :id")
+    int updateHotStock(@Param("id") Long id, @Param("hotStock") Boolean hotStock);
 
     @Query(value = """
         SELECT b.* FROM book b 
@@ -0,0 +1,18 @@
+package com.northgod.server.repository;
+
+import java.util.List;
+
+/**
+ * 批量写入仓库片段
+ * 按 hibernate.jdbc.batch_size 分批 persist/flush/clear，配合 pooled-lo 主键分配和
+ * PostgreSQL reWriteBatchedInserts，实现大批量数据导入时的多行INSERT
+ */
+public interface BulkInsertRepository<T> {
+
+    /**
+     * 批量插入新实体（实体必须是新建的，不做合并）
+     *
+     * @return 插入的行数
+     */
+    int bulkInsert(List<T> entities);
+}
@@ -0,0 +1,45 @@
+package com.northgod.server.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量写入仓库片段实现
+ * 每 batch_size 条刷新后把这一批实体从持久化上下文中分离，避免一级缓存随导入量线性增长；
+ * 只分离本次写入的实体，调用方事务中已加载的其他实体保持托管状态
+ */
+public class BulkInsertRepositoryImpl<T> implements BulkInsertRepository<T> {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize;
+
+    @Override
+    @Transactional
+    public int bulkInsert(List<T> entities) {
+        int count = 0;
+        List<T> pending = new ArrayList<>(batchSize);
+        for (T entity : entities) {
+            entityManager.persist(entity);
+            pending.add(entity);
+            if (++count % batchSize == 0) {
+                flushAndDetach(pending);
+            }
+        }
+        flushAndDetach(pending);
+        return count;
+    }
+
+    private void flushAndDetach(List<T> pending) {
+        entityManager.flush();
+        pending.forEach(entityManager::detach);
+        pending.clear();
+    }
+}
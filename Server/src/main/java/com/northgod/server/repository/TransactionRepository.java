@@ -5,72 +5,152 @@ import com.northgod.server.enums.TransactionType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.math.BigDecimal;
+import jakarta.persistence.LockModeType;
+
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
-import java.math.BigDecimal;
 
 @Repository
-public interface TransactionRepository extends JpaRepository<Transaction, Long> {
+public interface TransactionRepository extends JpaRepository<Transaction, Long>, BulkInsertRepository<Transaction> {
 
     List<Transaction> findByTransactionType(TransactionType transactionType);
 
-    @Query("SELECT t FROM Transaction t WHERE DATE(t.createdAt) = :date ORDER BY t.createdAt DESC")
-    List<Transaction> findByDate(@Param("date") LocalDate date);
+    /**
+     * 按创建时间半开区间查询（可走 created_at 索引范围扫描；列表所需的书籍/供应商信息取自快照列，不关联其他表）
+     */
+    @Query("SELECT t FROM Transaction t WHERE t.createdAt >= :start AND t.createdAt < :end ORDER BY t.createdAt DESC")
+    List<Transaction> findAllCreatedBetween(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    @Query("SELECT t FROM Transaction t WHERE t.transactionType = :type AND t.createdAt >= :start AND t.createdAt < :end ORDER BY t.createdAt DESC")
+    List<Transaction> findByTypeCreatedBetween(@Param("type") TransactionType type,
+                                               @Param("start") LocalDateTime start,
+                                               @Param("end") LocalDateTime end);
+
+    @Query("SELECT COUNT(t) FROM Transaction t WHERE t.createdAt >= :start AND t.createdAt < :end")
+    long countCreatedBetween(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end);
+
+    // 按日期/年月查询统一换算为 created_at 半开区间，不对列套用 DATE()/YEAR()/MONTH()，以便使用索引
+
+    default List<Transaction> findByDate(LocalDate date) {
+        return findAllCreatedBetween(date.atStartOfDay(), date.plusDays(1).atStartOfDay());
+    }
+
+    default long countByDate(LocalDate date) {
+        return countCreatedBetween(date.atStartOfDay(), date.plusDays(1).atStartOfDay());
+    }
+
+    default List<Transaction> findByYearAndMonth(int year, int month) {
+        LocalDateTime start = LocalDate.of(year, month, 1).atStartOfDay();
+        return findAllCreatedBetween(start, start.plusMonths(1));
+    }
+
+    default List<Transaction> findSalesByMonth(int year, int month) {
+        LocalDateTime start = LocalDate.of(year, month, 1).atStartOfDay();
+        return findByTypeCreatedBetween(TransactionType.SALE, start, start.plusMonths(1));
+    }
 
     @Query("SELECT t FROM Transaction t WHERE t.book.id = :bookId ORDER BY t.createdAt DESC")
     Page<Transaction> findByBookId(@Param("bookId") Long bookId, Pageable pageable);
 
-    @Query("SELECT t FROM Transaction t WHERE YEAR(t.createdAt) = :year AND MONTH(t.createdAt) = :month ORDER BY t.createdAt DESC")
-    List<Transaction> findByYearAndMonth(@Param("year") int year, @Param("month") int month);
+    /**
+     * 区间内销量前 N 的书籍：先按书籍ID聚合并排名，只为入选的 N 本书关联书籍表取展示列
+     * 返回 [rank, bookId, title, author, category, quantity, amountCents]，已作废的销售不计入
+     */
+    @Query(value = """
+        SELECT r.rank, r.book_id, b.title, b.author, b.category, r.quantity, r.amount_cents
+        FROM (
+            SELECT s.book_id, s.quantity, s.amount_cents,
+                   row_number() OVER (ORDER BY s.quantity DESC, s.amount_cents DESC, s.book_id) AS rank
+            FROM (
+                SELECT book_id, SUM(quantity) AS quantity, SUM(amount_cents) AS amount_cents
+                FROM transaction
+                WHERE transaction_type = 'SALE' AND created_at >= :start AND created_at < :end
+                  AND voided_at IS NULL
+                GROUP BY book_id
+            ) s
+            ORDER BY rank
+            LIMIT :limit
+        ) r
+        JOIN book b ON b.id = r.book_id
+        ORDER BY r.rank
+    """, nativeQuery = true)
+    List<Object[]> findTopSales(@Param("start") LocalDateTime start,
+                                @Param("end") LocalDateTime end,
+                                @Param("limit") int limit);
 
-    @Query("SELECT t FROM Transaction t WHERE t.transactionType = 'SALE' AND YEAR(t.createdAt) = :year AND MONTH(t.createdAt) = :month")
-    List<Transaction> findSalesByMonth(@Param("year") int year, @Param("month") int month);
+    /**
+     * 区间内每个分类销量前 N 的书籍（category 不为空时只返回该分类），按分类、名次排序
+     * 返回列与 findTopSales 相同；未分类的书籍归入分类为空的一组
+     */
+    @Query(value = """
+        SELECT r.rank, r.book_id, r.title, r.author, r.category, r.quantity, r.amount_cents
+        FROM (
+            SELECT s.book_id, s.quantity, s.amount_cents, b.title, b.author, b.category,
+                   row_number() OVER (PARTITION BY b.category
+                                      ORDER BY s.quantity DESC, s.amount_cents DESC, s.book_id) AS rank
+            FROM (
+                SELECT book_id, SUM(quantity) AS quantity, SUM(amount_cents) AS amount_cents
+                FROM transaction
+                WHERE transaction_type = 'SALE' AND created_at >= :start AND created_at < :end
+                  AND voided_at IS NULL
+                GROUP BY book_id
+            ) s
+            JOIN book b ON b.id = s.book_id
+            WHERE CAST(:category AS varchar) IS NULL OR b.category = CAST(:category AS varchar)
+        ) r
+        WHERE r.rank <= :limit
+        ORDER BY r.category NULLS LAST, r.rank
+    """, nativeQuery = true)
+    List<Object[]> findTopSalesByCategory(@Param("start") LocalDateTime start,
+                                          @Param("end") LocalDateTime end,
+                                          @Param("limit") int limit,
+                                          @Param("category") String category);
 
+    /**
+     * 单本书籍在区间内的销售笔数和销售数量：[count, quantity]（不含已作废的销售）
+     */
     @Query("""
-        SELECT t.book, SUM(t.quantity) as totalQuantity, SUM(t.totalAmount) as totalAmount 
-        FROM Transaction t 
-        WHERE t.transactionType = 'SALE' 
-        AND YEAR(t.createdAt) = :year 
-        AND MONTH(t.createdAt) = :month 
-        GROUP BY t.book 
-        ORDER BY totalQuantity DESC
+        SELECT COUNT(t), COALESCE(SUM(t.quantity), 0)
+        FROM Transaction t
+        WHERE t.book.id = :bookId AND t.transactionType = 'SALE'
+        AND t.createdAt >= :start AND t.createdAt < :end AND t.voidedAt IS NULL
     """)
-    List<Object[]> findSalesRanking(@Param("year") int year, @Param("month") int month);
-
-    @Query("SELECT COALESCE(SUM(t.totalAmount), 0) FROM Transaction t WHERE t.transactionType = 'SALE' AND DATE(t.createdAt) = :date")
-    BigDecimal getDailySalesTotal(@Param("date") LocalDate date);
-
-    @Query("SELECT COALESCE(SUM(t.totalAmount), 0) FROM Transaction t WHERE t.transactionType = 'PURCHASE' AND DATE(t.createdAt) = :date")
-    BigDecimal getDailyPurchasesTotal(@Param("date") LocalDate date);
-
-    @Query("SELECT COUNT(t) FROM Transaction t WHERE DATE(t.createdAt) = :date")
-    long countByDate(@Param("date") LocalDate date);
+    List<Object[]> sumBookSales(@Param("bookId") Long bookId,
+                                @Param("start") LocalDateTime start,
+                                @Param("end") LocalDateTime end);
 
     @Query("SELECT t FROM Transaction t WHERE t.createdAt >= :startDate AND t.createdAt < :endDate ORDER BY t.createdAt DESC")
     Page<Transaction> findByDateRange(@Param("startDate") LocalDateTime startDate,
                                       @Param("endDate") LocalDateTime endDate,
                                       Pageable pageable);
 
-    @Query("""
-        SELECT 
-            DATE(t.createdAt) as transactionDate,
-            COUNT(t) as transactionCount,
-            SUM(CASE WHEN t.transactionType = 'SALE' THEN t.totalAmount ELSE 0 END) as salesTotal,
-            SUM(CASE WHEN t.transactionType = 'PURCHASE' THEN t.totalAmount ELSE 0 END) as purchasesTotal
-        FROM Transaction t
-        WHERE t.createdAt >= :startDate AND t.createdAt < :endDate
-        GROUP BY DATE(t.createdAt)
-        ORDER BY DATE(t.createdAt) DESC
-    """)
-    List<Object[]> getDailySummary(@Param("startDate") LocalDateTime startDate,
-                                   @Param("endDate") LocalDateTime endDate);
-
     Optional<Transaction> findByIdAndTransactionType(Long id, TransactionType transactionType);
-}
\ No newline at end of file
+
+    /**
+     * 加锁读取交易记录（SELECT ... FOR UPDATE），用于作废时与并发退货的已退货计数互斥
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM Transaction t WHERE t.id = :id")
+    Optional<Transaction> findByIdForUpdate(@Param("id") Long id);
+
+    /**
+     * 原子累加销售记录的已退货数量（检查与更新在同一条语句中完成）
+     * 记录不存在、不是销售记录、已作废、书籍不一致或超出原销售数量时不更新任何行并返回空；成功时返回累加后的已退货数量。
+     * 传入负数用于退货作废时回退计数。
+     */
+    @Query(value = """
+        UPDATE transaction SET returned_quantity = returned_quantity + :quantity
+        WHERE id = :id AND transaction_type = 'SALE' AND voided_at IS NULL AND book_id = :bookId
+          AND returned_quantity + :quantity BETWEEN 0 AND quantity
+        RETURNING returned_quantity
+    """, nativeQuery = true)
+    Optional<Integer> addReturnedQuantity(@Param("id") Long id, @Param("bookId") Long bookId,
+                                          @Param("quantity") Integer quantity);
+}
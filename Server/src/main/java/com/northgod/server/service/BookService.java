@@ -1,6 +1,9 @@
 package com.northgod.server.service;
 
 import com.northgod.server.entity.Book;
+import com.northgod.server.enums.ChangeEventType;
+import com.northgod.server.enums.StockMovementReason;
+import com.northgod.server.enums.TransactionType;
 import com.northgod.server.exception.BusinessException;
 import com.northgod.server.repository.BookRepository;
 import jakarta.persistence.EntityManager;
@@ -14,17 +17,27 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @Service
 @Transactional(readOnly = true)
@@ -33,13 +46,26 @@ public class BookService {
     private static final Logger logger = LoggerFactory.getLogger(BookService.class);
     private final BookRepository bookRepository;
     private final CacheService cacheService;
+    private final JdbcTemplate jdbcTemplate;
+    private final HotStockLedger hotStockLedger;
+    private final StockLedgerService stockLedgerService;
+    private final OutboxService outboxService;
+    private final SalesRollupService salesRollupService;
 
     @PersistenceContext
     private EntityManager entityManager;
 
-    public BookService(BookRepository bookRepository, CacheService cacheService) {
+    public BookService(BookRepository bookRepository, CacheService cacheService,
+                       JdbcTemplate jdbcTemplate, HotStockLedger hotStockLedger,
+                       StockLedgerService stockLedgerService, OutboxService outboxService,
+                       SalesRollupService salesRollupService) {
         this.bookRepository = bookRepository;
         this.cacheService = cacheService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.hotStockLedger = hotStockLedger;
+        this.stockLedgerService = stockLedgerService;
+        this.outboxService = outboxService;
+        this.salesRollupService = salesRollupService;
     }
 
     // 分页查询，提高性能（只返回活跃的书籍）
@@ -86,8 +112,15 @@ public class BookService {
                     .orElseThrow(() -> new BusinessException("BOOK_NOT_FOUND", "书籍不存在"));
             
             // 复制字段到已存在的实体（保留version字段）
+            int previousStock = existingBook.getStockQuantity();
             copyBookFields(book, existingBook);
             Book savedBook = bookRepository.save(existingBook);
+            // 编辑书籍时直接改写的库存差额记为手工调整流水
+            stockLedgerService.record(savedBook.getId(), savedBook.getStockQuantity() - previousStock,
+                    StockMovementReason.MANUAL, null);
+            outboxService.bookChanged(savedBook.getId(), "UPDATED", savedBook.getStockQuantity() - previousStock);
+            // 库存字段被整体改写，提交后把差额同步到热销库存账本
+            hotStockLedger.resyncAfterCommit(savedBook.getId(), savedBook.getStockQuantity() - previousStock);
             
             // 清除缓存（更新操作）
             cacheService.evictBookCache(savedBook.getId());
@@ -103,6 +136,8 @@ public class BookService {
         
         // 新建操作，直接保存
         Book savedBook = bookRepository.save(book);
+        stockLedgerService.recordInitialStock(List.of(savedBook));
+        outboxService.bookChanged(savedBook.getId(), "CREATED", savedBook.getStockQuantity());
         
         // 清除所有书籍缓存（新建操作，因为ID是新的）
         cacheService.evictAllBookCache();
@@ -139,6 +174,7 @@ public class BookService {
         // 这样可以保留历史交易记录，同时标记书籍为已删除状态
         book.setIsActive(false);
         bookRepository.save(book);
+        outboxService.bookChanged(id, "DELETED", null);
         
         // 手动清除缓存（避免SpEL表达式参数名称问题）
         cacheService.evictBookCache(id);
@@ -170,6 +206,7 @@ public class BookService {
         
         book.setIsActive(true);
         bookRepository.save(book);
+        outboxService.bookChanged(id, "RESTORED", null);
         
         // 清除缓存
         cacheService.evictBookCache(id);
@@ -190,6 +227,12 @@ public class BookService {
         }
         // 使用数据库批量软删除，性能更优
         int deletedCount = bookRepository.softDeleteBooksBatch(ids);
+        List<OutboxService.PendingEvent> events = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            events.add(new OutboxService.PendingEvent(ChangeEventType.BOOK_CHANGED, id,
+                    Map.of("bookId", id, "change", "DELETED")));
+        }
+        outboxService.publishAll(events);
         logger.info("批量软删除书籍完成，删除数量: {}", deletedCount);
         return deletedCount;
     }
@@ -208,31 +251,311 @@ public class BookService {
 
     @Transactional(propagation = Propagation.REQUIRED)
     public Book updateStock(Long bookId, Integer quantity) {
-        Optional<Book> bookOptional = bookRepository.findById(bookId);
-        if (bookOptional.isPresent()) {
-            Book book = bookOptional.get();
-            int newStock = book.getStockQuantity() + quantity;
-            if (newStock < 0) {
-                throw new RuntimeException("库存不足，当前库存：" + book.getStockQuantity());
+        adjustStock(bookId, quantity);
+        stockLedgerService.record(bookId, quantity, StockMovementReason.MANUAL, null);
+        outboxService.bookChanged(bookId, "STOCK_ADJUSTED", quantity);
+        return bookRepository.findById(bookId)
+                .orElseThrow(() -> new BusinessException("BOOK_NOT_FOUND", "书籍不存在"));
+    }
+
+    /**
+     * 原子调整库存（单条带库存保护的UPDATE，不读取书籍实体、不触发版本冲突）
+     * 所有交易路径（进货、销售、退货、作废）都通过此方法变更库存
+     *
+     * @return 调整后的库存数量
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    public int adjustStock(Long bookId, int quantity) {
+        // 热销书籍先在内存账本上校验下限，保持内存可用量与书籍行一致
+        if (hotStockLedger.isTracked(bookId) && !hotStockLedger.tryApplyDirect(bookId, quantity)) {
+            Integer currentStock = bookRepository.findStockQuantityById(bookId).orElse(0);
+            throw new BusinessException("INSUFFICIENT_STOCK",
+                    String.format("库存不足，当前库存：%d，请求数量：%d", currentStock, -quantity));
+        }
+        Optional<Integer> newStock = bookRepository.updateStockQuantityIfSufficient(bookId, quantity);
+        if (newStock.isEmpty()) {
+            // 仅在失败路径上读取当前库存，用于区分书籍不存在和库存不足
+            Integer currentStock = bookRepository.findStockQuantityById(bookId)
+                    .orElseThrow(() -> new BusinessException("BOOK_NOT_FOUND", "书籍不存在"));
+            throw new BusinessException("INSUFFICIENT_STOCK",
+                    String.format("库存不足，当前库存：%d，请求数量：%d", currentStock, -quantity));
+        }
+
+        // 清除缓存
+        cacheService.evictBookCache(bookId);
+
+        return newStock.get();
+    }
+
+    /**
+     * 批量原子调整库存：所有书籍的库存变更在一条带库存保护的UPDATE中完成
+     * 不满足库存保护条件的书籍不会被更新，也不会出现在返回结果中，由调用方决定是否回滚
+     *
+     * @param deltas 书籍ID到库存变化量的映射
+     * @return 成功更新的书籍ID到调整后库存的映射
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    public Map<Long, Integer> adjustStockBatch(Map<Long, Integer> deltas) {
+        // 热销书籍在内存账本上校验失败时不参与本次更新，由调用方按库存不足处理
+        deltas = deltas.entrySet().stream()
+                .filter(e -> !hotStockLedger.isTracked(e.getKey())
+                        || hotStockLedger.tryApplyDirect(e.getKey(), e.getValue()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (deltas.isEmpty()) {
+            return Map.of();
+        }
+        Long[] ids = deltas.keySet().toArray(new Long[0]);
+        Integer[] quantities = deltas.values().toArray(new Integer[0]);
+
+        // 使用数组参数，SQL文本与书籍数量无关，可复用同一个预编译语句
+        Map<Long, Integer> newStocks = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("""
+                UPDATE book AS b SET stock_quantity = b.stock_quantity + v.quantity, updated_at = CURRENT_TIMESTAMP
+                FROM unnest(?::bigint[], ?::int[]) AS v(id, quantity)
+                WHERE b.id = v.id AND b.stock_quantity + v.quantity >= 0
+                RETURNING b.id, b.stock_quantity
+            """);
+            ps.setArray(1, connection.createArrayOf("bigint", ids));
+            ps.setArray(2, connection.createArrayOf("integer", quantities));
+            return ps;
+        }, (RowCallbackHandler) rs -> newStocks.put(rs.getLong(1), rs.getInt(2)));
+
+        newStocks.keySet().forEach(cacheService::evictBookCache);
+        return newStocks;
+    }
+
+    /**
+     * 批量盘点：把书籍库存设为实盘数量，差异记为盘盈/盘亏交易
+     *
+     * 先按主键顺序锁定涉及的书籍行，再用一条语句以数组参数展开实盘数据，更新有差异的书籍行并写入调整交易。
+     * 热销书籍尚未回写的变化量（stock_pending）已在实物中体现，写入书籍行时预先扣除，回写后恰为实盘数。
+     * 行锁在计算待回写量之前取得：并发的回写要更新同一书籍行，只能在盘点提交前全部完成或在其后执行，
+     * 后一条语句读到的库存与待回写标记总是同一状态。
+     *
+     * @param entries 盘点条目（书籍ID或ISBN二选一），同一本书出现多次时以最后一条为准
+     * @return 盘点结果：调整明细、未变化数量和无法识别的条目
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    public Map<String, Object> applyStocktake(List<StocktakeEntry> entries, String operatorName, String notes) {
+        // 一次查询解析所有ISBN
+        List<String> isbns = entries.stream()
+                .filter(entry -> entry.bookId() == null && entry.isbn() != null)
+                .map(entry -> entry.isbn().trim())
+                .distinct()
+                .toList();
+        Map<String, Long> idsByIsbn = new HashMap<>();
+        if (!isbns.isEmpty()) {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("SELECT id, isbn FROM book WHERE isbn = ANY(?)");
+                ps.setArray(1, connection.createArrayOf("varchar", isbns.toArray()));
+                return ps;
+            }, (RowCallbackHandler) rs -> idsByIsbn.put(rs.getString(2), rs.getLong(1)));
+        }
+
+        Map<Long, Integer> counted = new LinkedHashMap<>();
+        List<Map<String, Object>> unmatched = new ArrayList<>();
+        for (StocktakeEntry entry : entries) {
+            Long bookId = entry.bookId() != null ? entry.bookId()
+                    : entry.isbn() != null ? idsByIsbn.get(entry.isbn().trim()) : null;
+            if (bookId == null) {
+                Map<String, Object> miss = new HashMap<>();
+                miss.put("isbn", entry.isbn());
+                miss.put("countedQuantity", entry.countedQuantity());
+                unmatched.add(miss);
+            } else {
+                counted.put(bookId, entry.countedQuantity());
             }
-            book.setStockQuantity(newStock);
+        }
 
-            // 批量更新时使用版本控制
-            bookRepository.save(book);
+        Long[] ids = counted.keySet().toArray(new Long[0]);
+        Integer[] quantities = counted.values().toArray(new Integer[0]);
+        List<Map<String, Object>> adjustments = new ArrayList<>();
+        List<OutboxService.PendingEvent> events = new ArrayList<>();
+        List<SalesRollupService.RollupDelta> rollups = new ArrayList<>();
+        if (ids.length > 0) {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(
+                        "SELECT id FROM book WHERE id = ANY(?) ORDER BY id FOR UPDATE");
+                ps.setArray(1, connection.createArrayOf("bigint", ids));
+                return ps;
+            }, (RowCallbackHandler) rs -> { });
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("""
+                    WITH counted AS (
+                        SELECT * FROM unnest(?::bigint[], ?::int[]) AS c(book_id, counted_quantity)
+                    ), pending AS (
+                        SELECT t.book_id,
+                               SUM(CASE WHEN t.transaction_type IN ('SALE', 'ADJUST_OUT') THEN -t.quantity
+                                        ELSE t.quantity END) AS delta
+                        FROM transaction t JOIN counted c ON c.book_id = t.book_id
+                        WHERE t.stock_pending = true
+                        GROUP BY t.book_id
+                    ), changed AS (
+                        SELECT b.id, b.stock_quantity + COALESCE(p.delta, 0) AS previous, COALESCE(p.delta, 0) AS pending,
+                               c.counted_quantity, GREATEST(COALESCE(b.purchase_price, b.selling_price, 0.01), 0.01) AS price,
+                               b.title, b.isbn, b.min_stock, b.category
+                        FROM book b
+                        JOIN counted c ON c.book_id = b.id
+                        LEFT JOIN pending p ON p.book_id = b.id
+                        WHERE b.stock_quantity + COALESCE(p.delta, 0) <> c.counted_quantity
+                    ), updated AS (
+                        UPDATE book AS b SET stock_quantity = ch.counted_quantity - ch.pending,
+                                             updated_at = CURRENT_TIMESTAMP
+                        FROM changed ch
+                        WHERE b.id = ch.id
+                        RETURNING b.id
+                    ), inserted AS (
+                        INSERT INTO transaction (id, book_id, transaction_type, quantity, unit_price, total_amount,
+                                                 amount_cents, book_title, book_isbn, operator_name, notes,
+                                                 stock_pending, created_at, updated_at, version)
+                        SELECT nextval('transaction_id_seq'), ch.id,
+                               CASE WHEN ch.counted_quantity > ch.previous THEN 'ADJUST_IN' ELSE 'ADJUST_OUT' END,
+                               abs(ch.counted_quantity - ch.previous), ch.price,
+                               ch.price * abs(ch.counted_quantity - ch.previous),
+                               round(ch.price * 100)::bigint * abs(ch.counted_quantity - ch.previous), ch.title, ch.isbn,
+                               ?, ?, false, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 0
+                        FROM changed ch
+                        JOIN updated u ON u.id = ch.id
+                        RETURNING id, book_id, transaction_type, quantity, amount_cents, created_at
+                    ), moved AS (
+                        INSERT INTO stock_movement (id, book_id, delta, reason, transaction_id, created_at)
+                        SELECT nextval('stock_movement_id_seq'), i.book_id,
+                               CASE WHEN i.transaction_type = 'ADJUST_IN' THEN i.quantity ELSE -i.quantity END,
+                               i.transaction_type, i.id, CURRENT_TIMESTAMP
+                        FROM inserted i
+                    )
+                    SELECT ch.id, ch.previous, ch.counted_quantity, i.id, i.transaction_type, i.quantity,
+                           i.amount_cents, i.created_at, ch.min_stock, ch.category
+                    FROM changed ch JOIN inserted i ON i.book_id = ch.id
+                """);
+                ps.setArray(1, connection.createArrayOf("bigint", ids));
+                ps.setArray(2, connection.createArrayOf("integer", quantities));
+                ps.setString(3, operatorName);
+                ps.setString(4, notes != null ? notes : "库存盘点");
+                return ps;
+            }, (RowCallbackHandler) rs -> {
+                Map<String, Object> adjustment = new LinkedHashMap<>();
+                adjustment.put("bookId", rs.getLong(1));
+                adjustment.put("previousQuantity", rs.getInt(2));
+                adjustment.put("countedQuantity", rs.getInt(3));
+                adjustment.put("delta", rs.getInt(3) - rs.getInt(2));
+                adjustment.put("transactionId", rs.getLong(4));
+                adjustments.add(adjustment);
+
+                // 盘盈/盘亏交易事件，内容与其他交易创建事件一致
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("transactionId", rs.getLong(4));
+                payload.put("bookId", rs.getLong(1));
+                payload.put("transactionType", rs.getString(5));
+                payload.put("quantity", rs.getInt(6));
+                payload.put("amountCents", rs.getLong(7));
+                payload.put("createdAt", rs.getObject(8, LocalDateTime.class).toString());
+                payload.put("category", rs.getString(10));
+                payload.put("stockAfter", rs.getInt(3));
+                payload.put("minStock", rs.getObject(9, Integer.class));
+                events.add(new OutboxService.PendingEvent(ChangeEventType.TRANSACTION_CREATED, rs.getLong(4), payload));
+                rollups.add(new SalesRollupService.RollupDelta(
+                        rs.getObject(8, LocalDateTime.class).toLocalDate(),
+                        TransactionType.valueOf(rs.getString(5)), 1, rs.getInt(6), rs.getLong(7)));
+            });
+        }
+        outboxService.publishAll(events);
+        salesRollupService.apply(rollups);
 
-            // 清除缓存
+        // 只清除实际调整过的书籍缓存；热销书籍提交后把盘点差额同步到内存账本
+        for (Map<String, Object> adjustment : adjustments) {
+            Long bookId = (Long) adjustment.get("bookId");
             cacheService.evictBookCache(bookId);
+            hotStockLedger.resyncAfterCommit(bookId, (Integer) adjustment.get("delta"));
+        }
+        logger.info("库存盘点完成，条目: {}, 调整: {}, 未识别: {}", entries.size(), adjustments.size(), unmatched.size());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("requested", entries.size());
+        result.put("matched", counted.size());
+        result.put("adjusted", adjustments.size());
+        result.put("unchanged", counted.size() - adjustments.size());
+        result.put("adjustments", adjustments);
+        result.put("unmatched", unmatched);
+        return result;
+    }
+
+    /**
+     * 盘点条目：bookId 与 isbn 二选一，bookId 优先
+     */
+    public record StocktakeEntry(Long bookId, String isbn, int countedQuantity) {
+    }
 
-            return book;
+    /**
+     * 开启或关闭书籍的热销库存模式（写后回写）
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    public void setHotStock(Long id, boolean hotStock) {
+        if (bookRepository.updateHotStock(id, hotStock) == 0) {
+            throw new BusinessException("BOOK_NOT_FOUND", "书籍不存在");
         }
-        throw new RuntimeException("书籍不存在");
+        cacheService.evictBookCache(id);
+        // 提交后再切换内存账本，保证账本以已提交的书籍行为准
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                hotStockLedger.setTracked(id, hotStock);
+            }
+        });
+        logger.info("书籍 {} 热销库存模式: {}", id, hotStock);
+    }
+
+    public Map<String, Object> getHotStockMetrics() {
+        return hotStockLedger.getMetrics();
     }
 
     // 批量保存优化
     @Transactional(propagation = Propagation.REQUIRED)
     public List<Book> saveAllBooks(List<Book> books) {
         books.forEach(this::validateBook);
-        List<Book> savedBooks = bookRepository.saveAll(books);
+        List<Book> savedBooks;
+        if (books.stream().allMatch(book -> book.getId() == null)) {
+            // 全部为新书：pooled-lo主键分配 + JDBC批量写入
+            bookRepository.bulkInsert(books);
+            savedBooks = books;
+            stockLedgerService.recordInitialStock(savedBooks);
+            List<OutboxService.PendingEvent> events = new ArrayList<>(savedBooks.size());
+            for (Book saved : savedBooks) {
+                events.add(new OutboxService.PendingEvent(ChangeEventType.BOOK_CHANGED, saved.getId(),
+                        Map.of("bookId", saved.getId(), "change", "CREATED", "stockDelta", saved.getStockQuantity())));
+            }
+            outboxService.publishAll(events);
+        } else {
+            // 已存在的书籍库存被整体改写，先读取原库存以便记录差额流水
+            Long[] existingIds = books.stream().map(Book::getId).filter(Objects::nonNull).toArray(Long[]::new);
+            Map<Long, Integer> previousStocks = new HashMap<>();
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(
+                        "SELECT id, stock_quantity FROM book WHERE id = ANY(?)");
+                ps.setArray(1, connection.createArrayOf("bigint", existingIds));
+                return ps;
+            }, (RowCallbackHandler) rs -> previousStocks.put(rs.getLong(1), rs.getInt(2)));
+            savedBooks = bookRepository.saveAll(books);
+            List<StockLedgerService.Movement> movements = new ArrayList<>(savedBooks.size());
+            for (Book saved : savedBooks) {
+                Integer previous = previousStocks.get(saved.getId());
+                movements.add(previous == null
+                        ? new StockLedgerService.Movement(saved.getId(), saved.getStockQuantity(),
+                                StockMovementReason.INITIAL, null)
+                        : new StockLedgerService.Movement(saved.getId(), saved.getStockQuantity() - previous,
+                                StockMovementReason.MANUAL, null));
+            }
+            stockLedgerService.append(movements);
+            List<OutboxService.PendingEvent> events = new ArrayList<>(movements.size());
+            for (StockLedgerService.Movement movement : movements) {
+                events.add(new OutboxService.PendingEvent(ChangeEventType.BOOK_CHANGED, movement.bookId(),
+                        Map.of("bookId", movement.bookId(),
+                                "change", movement.reason() == StockMovementReason.INITIAL ? "CREATED" : "UPDATED",
+                                "stockDelta", movement.delta())));
+            }
+            outboxService.publishAll(events);
+        }
         // 清除所有书籍缓存
         cacheService.evictAllBookCache();
         return savedBooks;
@@ -283,7 +606,7 @@ public class BookService {
         return totalValue;
     }
 
-    private void validateBook(Book book) {
+    void validateBook(Book book) {
         if (book.getPurchasePrice() != null && book.getSellingPrice() != null) {
             if (book.getSellingPrice().compareTo(book.getPurchasePrice()) < 0) {
                 throw new BusinessException("PRICE_VALIDATION", "售价不能低于进价");
@@ -0,0 +1,503 @@
+package com.northgod.server.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.northgod.server.entity.Book;
+import com.northgod.server.enums.ChangeEventType;
+import com.northgod.server.exception.BusinessException;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 书籍目录流式导入服务
+ *
+ * 逐行解析上传的 CSV / NDJSON（内存占用与文件大小无关），按 BookService 的规则校验，
+ * 合格行经 PostgreSQL COPY 写入临时暂存表，最后用一条 INSERT ... ON CONFLICT (isbn)
+ * 语句合并到书籍表。整个导入在一个数据库事务中完成，书籍缓存只在结束时清除一次。
+ */
+@Service
+public class CatalogImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogImportService.class);
+
+    private static final String CREATE_STAGING_SQL = """
+        CREATE TEMP TABLE book_import_staging (
+            line_no BIGINT NOT NULL,
+            isbn VARCHAR(20) NOT NULL,
+            title VARCHAR(200) NOT NULL,
+            author VARCHAR(100),
+            publisher VARCHAR(100),
+            purchase_price NUMERIC(10, 2),
+            selling_price NUMERIC(10, 2),
+            stock_quantity INTEGER NOT NULL,
+            min_stock INTEGER NOT NULL,
+            category VARCHAR(50),
+            publication_year INTEGER,
+            thumbnail_url VARCHAR(500),
+            description TEXT
+        ) ON COMMIT DROP
+    """;
+
+    private static final String COPY_SQL = "COPY book_import_staging (line_no, isbn, title, author, publisher, "
+            + "purchase_price, selling_price, stock_quantity, min_stock, category, publication_year, "
+            + "thumbnail_url, description) FROM STDIN WITH (FORMAT csv)";
+
+    /**
+     * 同一ISBN在文件中出现多次时以最后一行为准；已存在的书籍只更新目录信息，库存保持不变，
+     * 新增书籍的初始库存在同一条语句中记为新书入库流水
+     * （每次 nextval 占用一整段主键，不会与 Hibernate pooled-lo 已分配的区间重叠）
+     */
+    private static final String UPSERT_SQL = """
+        WITH merged AS (
+            INSERT INTO book (id, isbn, title, author, publisher, purchase_price, selling_price,
+                              stock_quantity, min_stock, category, publication_year, thumbnail_url, description,
+                              is_active, hot_stock, created_at, updated_at, version)
+            SELECT nextval('book_id_seq'), s.isbn, s.title, s.author, s.publisher, s.purchase_price, s.selling_price,
+                   s.stock_quantity, s.min_stock, s.category, s.publication_year, s.thumbnail_url, s.description,
+                   true, false, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, 0
+            FROM (
+                SELECT DISTINCT ON (isbn) * FROM book_import_staging ORDER BY isbn, line_no DESC
+            ) s
+            ON CONFLICT (isbn) DO UPDATE SET
+                title = EXCLUDED.title,
+                author = EXCLUDED.author,
+                publisher = EXCLUDED.publisher,
+                purchase_price = EXCLUDED.purchase_price,
+                selling_price = EXCLUDED.selling_price,
+                min_stock = EXCLUDED.min_stock,
+                category = EXCLUDED.category,
+                publication_year = EXCLUDED.publication_year,
+                thumbnail_url = EXCLUDED.thumbnail_url,
+                description = EXCLUDED.description,
+                updated_at = CURRENT_TIMESTAMP,
+                version = COALESCE(book.version, 0) + 1
+            RETURNING id, stock_quantity, (xmax = 0) AS inserted
+        ), opened AS (
+            INSERT INTO stock_movement (id, book_id, delta, reason, transaction_id, created_at)
+            SELECT nextval('stock_movement_id_seq'), id, stock_quantity, 'INITIAL', NULL, CURRENT_TIMESTAMP
+            FROM merged
+            WHERE inserted AND stock_quantity <> 0
+        )
+        SELECT inserted FROM merged
+    """;
+
+    private static final Map<String, String> COLUMN_ALIASES = Map.ofEntries(
+            Map.entry("isbn", "isbn"),
+            Map.entry("title", "title"),
+            Map.entry("author", "author"),
+            Map.entry("publisher", "publisher"),
+            Map.entry("purchaseprice", "purchasePrice"),
+            Map.entry("sellingprice", "sellingPrice"),
+            Map.entry("stockquantity", "stockQuantity"),
+            Map.entry("minstock", "minStock"),
+            Map.entry("category", "category"),
+            Map.entry("publicationyear", "publicationYear"),
+            Map.entry("thumbnailurl", "thumbnailUrl"),
+            Map.entry("description", "description"));
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private final BookService bookService;
+    private final CacheService cacheService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final JsonMapper jsonMapper;
+    private final Validator validator;
+    private final OutboxService outboxService;
+    private final Cache<String, ImportJob> jobs = Caffeine.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(Duration.ofHours(1))
+            .build();
+
+    @Value("${bookstore.catalog-import.copy-buffer-bytes:65536}")
+    private int copyBufferBytes;
+
+    @Value("${bookstore.catalog-import.max-reported-rejects:1000}")
+    private int maxReportedRejects;
+
+    public CatalogImportService(BookService bookService,
+                                CacheService cacheService,
+                                JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                JsonMapper jsonMapper,
+                                Validator validator,
+                                OutboxService outboxService) {
+        this.bookService = bookService;
+        this.cacheService = cacheService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jsonMapper = jsonMapper;
+        this.validator = validator;
+        this.outboxService = outboxService;
+    }
+
+    /**
+     * 查询导入进度（上传进行中也可查询）
+     */
+    public Map<String, Object> getProgress(String importId) {
+        ImportJob job = jobs.getIfPresent(importId);
+        if (job == null) {
+            throw new BusinessException("IMPORT_NOT_FOUND", "导入任务不存在或已过期: " + importId);
+        }
+        return job.toMap();
+    }
+
+    /**
+     * 流式导入目录；调用线程负责读取上传内容，直到整个文件处理完毕
+     *
+     * @param importId 客户端指定的导入ID（便于上传期间查询进度），为空时自动生成
+     * @return 导入结果，含各项计数与拒绝行明细
+     */
+    public Map<String, Object> importCatalog(InputStream input, Format format, String importId) {
+        String id = importId == null || importId.isBlank() ? UUID.randomUUID().toString() : importId;
+        ImportJob job = new ImportJob(id, format, maxReportedRejects);
+        if (jobs.asMap().putIfAbsent(id, job) != null) {
+            throw new BusinessException("IMPORT_ID_CONFLICT", "导入ID已被使用: " + id);
+        }
+        logger.info("开始导入书籍目录，导入ID: {}, 格式: {}", id, format);
+
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.execute(CREATE_STAGING_SQL);
+                jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                    CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+                    try {
+                        stream(reader, format, job, new CopyWriter(copyIn, copyBufferBytes));
+                        copyIn.endCopy();
+                    } catch (IOException e) {
+                        throw new BusinessException("IMPORT_READ_FAILED", "读取上传内容失败: " + e.getMessage(), e);
+                    } finally {
+                        if (copyIn.isActive()) {
+                            copyIn.cancelCopy();
+                        }
+                    }
+                    return null;
+                });
+                job.status = "MERGING";
+                jdbcTemplate.query(UPSERT_SQL, rs -> {
+                    if (rs.getBoolean(1)) {
+                        job.inserted.incrementAndGet();
+                    } else {
+                        job.updated.incrementAndGet();
+                    }
+                });
+                // 目录导入按整批发布一个事件，订阅者按需增量刷新
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("importId", id);
+                payload.put("inserted", job.inserted.get());
+                payload.put("updated", job.updated.get());
+                outboxService.publish(ChangeEventType.CATALOG_IMPORTED, null, payload);
+            });
+        } catch (RuntimeException | IOException e) {
+            job.status = "FAILED";
+            job.error = e.getMessage();
+            logger.error("书籍目录导入失败，导入ID: {}", id, e);
+            throw new BusinessException("IMPORT_FAILED", "书籍目录导入失败: " + e.getMessage(), job.toMap());
+        }
+
+        job.status = "COMPLETED";
+        cacheService.evictAllBookCache();
+        logger.info("书籍目录导入完成，导入ID: {}, 读取: {}, 接受: {}, 拒绝: {}, 新增: {}, 更新: {}",
+                id, job.rowsRead.get(), job.accepted.get(), job.rejected.get(),
+                job.inserted.get(), job.updated.get());
+        return job.toMap();
+    }
+
+    private void stream(Reader reader, Format format, ImportJob job, CopyWriter writer)
+            throws IOException, SQLException {
+        job.status = "LOADING";
+        if (format == Format.NDJSON) {
+            BufferedReader lines = new BufferedReader(reader);
+            String line;
+            long lineNo = 0;
+            while ((line = lines.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                job.rowsRead.incrementAndGet();
+                Book book;
+                try {
+                    book = jsonMapper.readValue(stripBom(line, lineNo), Book.class);
+                } catch (JacksonException e) {
+                    job.reject(lineNo, null, "JSON格式错误: " + e.getOriginalMessage());
+                    continue;
+                }
+                accept(lineNo, book, job, writer);
+            }
+        } else {
+            CsvReader csv = new CsvReader(reader);
+            String[] header = csv.next();
+            if (header == null) {
+                throw new BusinessException("IMPORT_EMPTY", "上传内容为空");
+            }
+            String[] fields = new String[header.length];
+            for (int i = 0; i < header.length; i++) {
+                String key = stripBom(header[i], i + 1).trim().replace("_", "").toLowerCase(Locale.ROOT);
+                fields[i] = COLUMN_ALIASES.get(key);
+            }
+            if (!Set.of(fields).containsAll(List.of("isbn", "title"))) {
+                throw new BusinessException("IMPORT_HEADER_INVALID", "CSV表头必须包含 isbn 和 title 列");
+            }
+            String[] record;
+            while ((record = csv.next()) != null) {
+                long lineNo = csv.recordLine();
+                if (record.length == 1 && record[0].isBlank()) {
+                    continue;
+                }
+                job.rowsRead.incrementAndGet();
+                Book book;
+                try {
+                    book = toBook(fields, record);
+                } catch (IllegalArgumentException e) {
+                    job.reject(lineNo, null, e.getMessage());
+                    continue;
+                }
+                accept(lineNo, book, job, writer);
+            }
+        }
+        writer.flush();
+    }
+
+    private void accept(long lineNo, Book book, ImportJob job, CopyWriter writer) throws SQLException {
+        String reason = validate(book);
+        if (reason != null) {
+            job.reject(lineNo, book.getIsbn(), reason);
+            return;
+        }
+        writer.row(lineNo, book.getIsbn().trim(), book.getTitle(), book.getAuthor(), book.getPublisher(),
+                book.getPurchasePrice(), book.getSellingPrice(), book.getStockQuantity(), book.getMinStock(),
+                book.getCategory(), book.getPublicationYear(), book.getThumbnailUrl(), book.getDescription());
+        job.accepted.incrementAndGet();
+    }
+
+    /**
+     * 与单本新增相同的校验规则，外加数据库列长度检查（避免单行超长导致整个COPY失败）
+     */
+    private String validate(Book book) {
+        if (book.getStockQuantity() == null) {
+            book.setStockQuantity(0);
+        }
+        if (book.getMinStock() == null) {
+            book.setMinStock(10);
+        }
+        for (ConstraintViolation<Book> violation : validator.validate(book)) {
+            return violation.getMessage();
+        }
+        try {
+            bookService.validateBook(book);
+        } catch (BusinessException e) {
+            return e.getMessage();
+        }
+        if (book.getIsbn().trim().length() > 20) {
+            return "ISBN长度不能超过20个字符";
+        }
+        if (book.getTitle().length() > 200) {
+            return "书名长度不能超过200个字符";
+        }
+        if (exceeds(book.getAuthor(), 100) || exceeds(book.getPublisher(), 100)
+                || exceeds(book.getCategory(), 50) || exceeds(book.getThumbnailUrl(), 500)) {
+            return "字段长度超过限制";
+        }
+        if (exceedsPrice(book.getPurchasePrice()) || exceedsPrice(book.getSellingPrice())) {
+            return "价格超出范围";
+        }
+        return null;
+    }
+
+    private Book toBook(String[] fields, String[] record) {
+        Book book = new Book();
+        for (int i = 0; i < fields.length && i < record.length; i++) {
+            if (fields[i] == null) {
+                continue;
+            }
+            String value = record[i].isEmpty() ? null : record[i];
+            switch (fields[i]) {
+                case "isbn" -> book.setIsbn(value);
+                case "title" -> book.setTitle(value);
+                case "author" -> book.setAuthor(value);
+                case "publisher" -> book.setPublisher(value);
+                case "purchasePrice" -> book.setPurchasePrice(parseDecimal(value, "进价"));
+                case "sellingPrice" -> book.setSellingPrice(parseDecimal(value, "售价"));
+                case "stockQuantity" -> book.setStockQuantity(parseInt(value, "库存数量"));
+                case "minStock" -> book.setMinStock(parseInt(value, "最低库存"));
+                case "category" -> book.setCategory(value);
+                case "publicationYear" -> book.setPublicationYear(parseInt(value, "出版年份"));
+                case "thumbnailUrl" -> book.setThumbnailUrl(value);
+                case "description" -> book.setDescription(value);
+                default -> { }
+            }
+        }
+        return book;
+    }
+
+    private static BigDecimal parseDecimal(String value, String name) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + "格式错误: " + value);
+        }
+    }
+
+    private static Integer parseInt(String value, String name) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + "格式错误: " + value);
+        }
+    }
+
+    private static boolean exceeds(String value, int maxLength) {
+        return value != null && value.length() > maxLength;
+    }
+
+    private static boolean exceedsPrice(BigDecimal price) {
+        // NUMERIC(10, 2)：整数部分最多8位
+        return price != null && price.setScale(2, RoundingMode.HALF_UP).precision() > 10;
+    }
+
+    private static String stripBom(String value, long position) {
+        return position == 1 && !value.isEmpty() && value.charAt(0) == '\uFEFF' ? value.substring(1) : value;
+    }
+
+    /**
+     * 把合格行编码为CSV并分块写入COPY流，缓冲区大小固定
+     */
+    private static final class CopyWriter {
+        private final CopyIn copyIn;
+        private final int bufferBytes;
+        private final StringBuilder buffer = new StringBuilder();
+
+        private CopyWriter(CopyIn copyIn, int bufferBytes) {
+            this.copyIn = copyIn;
+            this.bufferBytes = bufferBytes;
+        }
+
+        private void row(Object... values) throws SQLException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                Object value = values[i];
+                if (value instanceof String text) {
+                    // 字符串总是加引号，以区分空字符串和NULL（未加引号的空值）
+                    buffer.append('"').append(text.replace("\"", "\"\"")).append('"');
+                } else if (value instanceof BigDecimal decimal) {
+                    buffer.append(decimal.toPlainString());
+                } else if (value != null) {
+                    buffer.append(value);
+                }
+            }
+            buffer.append('\n');
+            if (buffer.length() >= bufferBytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * 单次导入的进度与结果；计数器可在上传过程中被其他请求读取
+     */
+    private static final class ImportJob {
+        private final String id;
+        private final Format format;
+        private final int maxRejects;
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicLong rowsRead = new AtomicLong();
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong inserted = new AtomicLong();
+        private final AtomicLong updated = new AtomicLong();
+        private final List<Map<String, Object>> rejects = new ArrayList<>();
+        private volatile String status = "STARTED";
+        private volatile String error;
+
+        private ImportJob(String id, Format format, int maxRejects) {
+            this.id = id;
+            this.format = format;
+            this.maxRejects = maxRejects;
+        }
+
+        private void reject(long lineNo, String isbn, String reason) {
+            rejected.incrementAndGet();
+            synchronized (rejects) {
+                if (rejects.size() < maxRejects) {
+                    Map<String, Object> reject = new HashMap<>();
+                    reject.put("line", lineNo);
+                    reject.put("isbn", isbn);
+                    reject.put("reason", reason);
+                    rejects.add(reject);
+                }
+            }
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("importId", id);
+            result.put("format", format);
+            result.put("status", status);
+            result.put("rowsRead", rowsRead.get());
+            result.put("accepted", accepted.get());
+            result.put("rejected", rejected.get());
+            result.put("inserted", inserted.get());
+            result.put("updated", updated.get());
+            result.put("elapsedMillis", System.currentTimeMillis() - startedAt);
+            if (error != null) {
+                result.put("error", error);
+            }
+            synchronized (rejects) {
+                result.put("rejects", List.copyOf(rejects));
+            }
+            return result;
+        }
+    }
+}
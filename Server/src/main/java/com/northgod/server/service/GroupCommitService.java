@@ -0,0 +1,302 @@
+package com.northgod.server.service;
+
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.exception.BusinessException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 交易写入组提交服务（可选）
+ *
+ * 开启后，请求线程把交易放入有界队列并等待；提交线程每次最多取 N 条或等待 T 毫秒，
+ * 在同一个数据库事务中执行这些交易并只提交一次（PostgreSQL 只需一次 WAL 刷盘），
+ * 提交成功后才完成各调用方的 Future。调用方的回调（如保存幂等记录）在同一事务中执行，与交易一起提交。
+ * 若整批中任一笔失败（如库存不足），整批回滚后逐笔单独提交，保证各笔结果互不影响。
+ * 同一批中幂等键相同的写入只执行一次，后到的共用首笔的结果，不会因幂等记录主键冲突拖累整批。
+ */
+@Service
+public class GroupCommitService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitService.class);
+
+    private final TransactionService transactionService;
+    private final TransactionTemplate transactionTemplate;
+    private final DistributionSummary batchSizeSummary;
+
+    @Value("${bookstore.group-commit.enabled:false}")
+    private boolean enabled;
+
+    @Value("${bookstore.group-commit.max-batch-size:64}")
+    private int maxBatchSize;
+
+    @Value("${bookstore.group-commit.max-wait-ms:5}")
+    private long maxWaitMillis;
+
+    @Value("${bookstore.group-commit.queue-capacity:4096}")
+    private int queueCapacity;
+
+    @Value("${bookstore.group-commit.enqueue-timeout-ms:1000}")
+    private long enqueueTimeoutMillis;
+
+    @Value("${bookstore.group-commit.commit-timeout-ms:30000}")
+    private long commitTimeoutMillis;
+
+    private BlockingQueue<PendingWrite> queue;
+    private Thread committer;
+    private volatile boolean running;
+
+    public GroupCommitService(TransactionService transactionService,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry) {
+        this.transactionService = transactionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSizeSummary = DistributionSummary.builder("bookstore.group_commit.batch_size")
+                .description("每次组提交包含的交易笔数")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        committer = Thread.ofPlatform().name("group-commit").daemon().start(this::runCommitter);
+        logger.info("交易组提交已开启，批量上限: {}, 等待上限: {}ms, 队列容量: {}",
+                maxBatchSize, maxWaitMillis, queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (committer == null) {
+            return;
+        }
+        running = false;
+        committer.interrupt();
+        committer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * 写入一笔交易；组提交关闭时直接走单笔事务
+     *
+     * @param idempotencyKey 请求的幂等键，可为 null；同一批中键相同的写入只执行一次
+     * @param inTransaction  写入后、提交前在同一事务内执行的回调（如保存幂等记录），可为 null
+     * @return 已提交的交易记录
+     */
+    public Transaction submit(TransactionType type, Transaction transaction, String idempotencyKey,
+                              Consumer<Transaction> inTransaction) {
+        PendingWrite write = new PendingWrite(type, transaction, idempotencyKey, inTransaction,
+                new CompletableFuture<>());
+        if (!running) {
+            return executeAlone(write);
+        }
+        try {
+            if (!queue.offer(write, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new BusinessException("GROUP_COMMIT_BUSY", "交易提交队列已满，请稍后重试");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("GROUP_COMMIT_INTERRUPTED", "交易提交被中断");
+        }
+        // 提交线程已在入队前后退出：取回尚未被取走的交易直接提交
+        if (!running && queue.remove(write)) {
+            return executeAlone(write);
+        }
+        try {
+            return write.future().get(commitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new CompletionException(e.getCause());
+        } catch (TimeoutException e) {
+            logger.warn("组提交等待超时（{}ms），交易类型: {}", commitTimeoutMillis, type);
+            throw new BusinessException("GROUP_COMMIT_TIMEOUT", "交易提交超时，结果未知，请使用同一幂等键重试或查询后确认");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("GROUP_COMMIT_INTERRUPTED", "交易提交被中断");
+        }
+    }
+
+    private void runCommitter() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        try {
+            commitLoop(batch);
+        } finally {
+            // 无论因何退出（包括 Error），不再接收新交易，并让尚未完成的调用方立即失败而不是一直等待
+            running = false;
+            List<PendingWrite> abandoned = new ArrayList<>(batch);
+            queue.drainTo(abandoned);
+            BusinessException stopped = new BusinessException("GROUP_COMMIT_STOPPED", "交易提交线程已停止，结果未知，请使用同一幂等键重试");
+            for (PendingWrite write : abandoned) {
+                write.future().completeExceptionally(stopped);
+            }
+            if (!abandoned.isEmpty()) {
+                logger.error("组提交线程退出，{} 笔未完成的交易已通知失败", abandoned.size());
+            }
+        }
+    }
+
+    private void commitLoop(List<PendingWrite> batch) {
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 停止信号：继续把已入队的交易处理完
+                queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+            if (!batch.isEmpty()) {
+                commitBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commitBatch(List<PendingWrite> queued) {
+        List<PendingWrite> conflicting = new ArrayList<>();
+        List<PendingWrite> batch = coalesce(queued, conflicting);
+        commitShared(batch);
+        // 与本批中同一幂等键用于其他类型的写入：单独提交，由幂等记录的主键决定成败，不影响本批
+        for (PendingWrite write : conflicting) {
+            try {
+                write.future().complete(executeAlone(write));
+            } catch (RuntimeException ex) {
+                write.future().completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * 按幂等键合并一批写入：同一个键在超时重试等情况下可能在原请求仍在队列中时再次入队，
+     * 两笔都写入会在保存幂等记录时主键冲突，使整批回滚并逐笔重试。
+     * 类型相同的后到写入不再执行，直接共用首笔的结果（含失败）；类型不同的放入 conflicting 稍后单独提交
+     *
+     * @return 需要执行的写入
+     */
+    private List<PendingWrite> coalesce(List<PendingWrite> queued, List<PendingWrite> conflicting) {
+        Map<String, PendingWrite> firstByKey = new HashMap<>();
+        List<PendingWrite> batch = new ArrayList<>(queued.size());
+        for (PendingWrite write : queued) {
+            PendingWrite first = write.idempotencyKey() == null ? null
+                    : firstByKey.putIfAbsent(write.idempotencyKey(), write);
+            if (first == null) {
+                batch.add(write);
+            } else if (first.type() != write.type()) {
+                conflicting.add(write);
+            } else {
+                first.future().whenComplete((created, failure) -> {
+                    if (failure != null) {
+                        write.future().completeExceptionally(failure);
+                    } else {
+                        write.future().complete(created);
+                    }
+                });
+            }
+        }
+        if (batch.size() < queued.size()) {
+            logger.debug("组提交合并同一幂等键的重复写入，入队: {}, 执行: {}", queued.size(), batch.size());
+        }
+        return batch;
+    }
+
+    private void commitShared(List<PendingWrite> batch) {
+        batchSizeSummary.record(batch.size());
+        List<Transaction> results = new ArrayList<>(batch.size());
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (PendingWrite write : batch) {
+                    results.add(execute(write));
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.debug("组提交整批回滚，改为逐笔提交，批量大小: {}, 原因: {}", batch.size(), e.getMessage());
+            for (PendingWrite write : batch) {
+                // 清除上次尝试分配的主键和版本，按新记录重新写入
+                write.transaction().setId(null);
+                write.transaction().setVersion(null);
+                try {
+                    write.future().complete(executeAlone(write));
+                } catch (RuntimeException ex) {
+                    write.future().completeExceptionally(ex);
+                }
+            }
+            return;
+        }
+        // 共享事务已提交，通知所有调用方
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future().complete(results.get(i));
+        }
+    }
+
+    /**
+     * 在单独的事务中执行一笔写入及其回调
+     */
+    private Transaction executeAlone(PendingWrite write) {
+        if (write.inTransaction() == null) {
+            return execute(write.type(), write.transaction());
+        }
+        return transactionTemplate.execute(status -> execute(write));
+    }
+
+    /**
+     * 在当前事务中执行一笔写入及其回调
+     */
+    private Transaction execute(PendingWrite write) {
+        Transaction created = execute(write.type(), write.transaction());
+        if (write.inTransaction() != null) {
+            write.inTransaction().accept(created);
+        }
+        return created;
+    }
+
+    private Transaction execute(TransactionType type, Transaction transaction) {
+        return switch (type) {
+            case PURCHASE -> transactionService.createPurchase(transaction);
+            case SALE -> transactionService.createSale(transaction);
+            case RETURN -> transactionService.createReturn(transaction);
+            case ADJUST_IN, ADJUST_OUT ->
+                    throw new BusinessException("UNSUPPORTED_TRANSACTION_TYPE", "库存盘点调整请使用盘点接口");
+        };
+    }
+
+    private record PendingWrite(TransactionType type, Transaction transaction, String idempotencyKey,
+                                Consumer<Transaction> inTransaction, CompletableFuture<Transaction> future) {
+    }
+}
@@ -0,0 +1,315 @@
+package com.northgod.server.service;
+
+import com.northgod.server.exception.BusinessException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热销书籍库存账本（写后回写模式）
+ *
+ * 被标记为热销（book.hot_stock）的书籍，其交易不再逐笔更新书籍行，
+ * 而是在内存计数器上以CAS预留库存（硬性下限为0，不会超卖），
+ * 交易记录以 stock_pending = true 写入，由后台任务定时把净变化量合并回写到书籍表。
+ *
+ * 崩溃安全：待回写的变化量始终以交易表中的 stock_pending 标记为准，
+ * 回写时在同一个数据库事务中清除标记并更新库存，启动时先回放所有未回写的记录。
+ */
+@Service
+public class HotStockLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotStockLedger.class);
+
+    /**
+     * 清除待回写标记并把各书籍的净变化量合并到库存（单条语句，原子执行）
+     */
+    private static final String FLUSH_SQL = """
+        WITH applied AS (
+            UPDATE transaction SET stock_pending = false
+            WHERE stock_pending = true
+            RETURNING book_id,
+                CASE WHEN transaction_type IN ('SALE', 'ADJUST_OUT') THEN -quantity ELSE quantity END AS delta
+        ), net AS (
+            SELECT book_id, SUM(delta) AS delta FROM applied GROUP BY book_id
+        )
+        UPDATE book AS b SET stock_quantity = b.stock_quantity + net.delta, updated_at = CURRENT_TIMESTAMP
+        FROM net
+        WHERE b.id = net.book_id
+        RETURNING b.id, net.delta, b.stock_quantity
+    """;
+
+    /**
+     * 待回写标记的部分索引：回写和盘点只扫描 stock_pending = true 的少量记录。
+     * 在启动完成后创建，此时首次启动的交易表已由 Hibernate 建好；已存在时不做任何事
+     */
+    private static final String STOCK_PENDING_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS idx_transaction_stock_pending ON transaction (book_id) WHERE stock_pending = true";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CacheService cacheService;
+    private final Timer flushTimer;
+    private final Map<Long, StockCounter> counters = new ConcurrentHashMap<>();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicInteger lastFlushedBooks = new AtomicInteger();
+
+    @Value("${bookstore.hot-stock.enabled:false}")
+    private boolean enabled;
+
+    public HotStockLedger(JdbcTemplate jdbcTemplate,
+                          PlatformTransactionManager transactionManager,
+                          CacheService cacheService,
+                          MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cacheService = cacheService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.flushTimer = Timer.builder("bookstore.hot_stock.flush")
+                .description("热销库存回写耗时")
+                .register(meterRegistry);
+        Gauge.builder("bookstore.hot_stock.pending", this, HotStockLedger::totalPendingDelta)
+                .description("热销库存待回写净变化量")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 启动恢复：确保待回写标记索引存在，回放上次运行未回写的变化量（即使本次关闭了热销库存模式也要回写，否则这些变化量永远不会进入库存），
+     * 然后加载热销书籍的内存计数器
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        jdbcTemplate.execute(STOCK_PENDING_INDEX_SQL);
+        drain();
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.query("SELECT id, stock_quantity FROM book WHERE hot_stock = true",
+                rs -> {
+                    counters.put(rs.getLong(1), new StockCounter(rs.getInt(2)));
+                });
+        logger.info("热销库存账本已启动，跟踪书籍数量: {}", counters.size());
+    }
+
+    public boolean isTracked(Long bookId) {
+        return enabled && bookId != null && counters.containsKey(bookId);
+    }
+
+    /**
+     * 写后回写：在内存中预留库存，调用方须将交易记录标记为 stock_pending
+     * 事务提交后计入待回写量，回滚则归还预留
+     *
+     * @return 预留后的可用库存
+     */
+    public int reserve(Long bookId, int quantity) {
+        StockCounter counter = requireCounter(bookId);
+        int available = counter.tryAdd(quantity);
+        registerCompletion(counter, quantity, true);
+        return available;
+    }
+
+    /**
+     * 直写模式：调用方同时直接更新书籍行（如作废、批量结账），这里仅同步内存可用量
+     *
+     * @return 是否满足库存下限；不满足时内存状态不变
+     */
+    public boolean tryApplyDirect(Long bookId, int quantity) {
+        StockCounter counter = requireCounter(bookId);
+        try {
+            counter.tryAdd(quantity);
+        } catch (BusinessException e) {
+            return false;
+        }
+        registerCompletion(counter, quantity, false);
+        return true;
+    }
+
+    /**
+     * 开启或关闭对某本书的跟踪。开启时先把已提交的变化量回写，再以书籍行为准加载计数器；
+     * 已在跟踪的书籍保留原计数器，其上尚未提交的预留不会丢失
+     */
+    public void setTracked(Long bookId, boolean tracked) {
+        if (!enabled) {
+            return;
+        }
+        if (tracked) {
+            if (counters.containsKey(bookId)) {
+                return;
+            }
+            flush();
+            Integer stock = jdbcTemplate.queryForObject(
+                    "SELECT stock_quantity FROM book WHERE id = ?", Integer.class, bookId);
+            if (counters.putIfAbsent(bookId, new StockCounter(stock != null ? stock : 0)) == null) {
+                logger.info("书籍 {} 已切换为热销库存模式，当前库存: {}", bookId, stock);
+            }
+        } else if (counters.remove(bookId) != null) {
+            logger.info("书籍 {} 已退出热销库存模式", bookId);
+        }
+    }
+
+    /**
+     * 书籍行的库存被其他途径改写（如编辑书籍、盘点）后，提交后把同样的差额加到内存可用量上。
+     * 原地调整而不是替换计数器：进行中的预留仍记在同一个计数器上，提交或回滚时各自结算。
+     * 盘亏可能使可用量暂时为负，此时新的扣减会被拒绝，直到库存补足。
+     *
+     * @param delta 书籍行库存的变化量（新值减旧值）
+     */
+    public void resyncAfterCommit(Long bookId, int delta) {
+        if (!isTracked(bookId) || delta == 0) {
+            return;
+        }
+        StockCounter counter = counters.get(bookId);
+        Runnable adjust = () -> {
+            int available = counter.available.addAndGet(delta);
+            logger.debug("书籍 {} 库存被改写，内存可用量调整 {}，调整后: {}", bookId, delta, available);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    adjust.run();
+                }
+            });
+        } else {
+            adjust.run();
+        }
+    }
+
+    /**
+     * 定时回写：把所有已提交的待回写变化量合并写入书籍表
+     */
+    @Scheduled(fixedDelayString = "${bookstore.hot-stock.flush-interval-ms:300}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * 执行一次回写，不检查开关（启动时用来处理上次运行遗留的待回写记录）
+     */
+    private void drain() {
+        long start = System.nanoTime();
+        List<long[]> flushed = transactionTemplate.execute(status -> jdbcTemplate.query(FLUSH_SQL,
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)}));
+        long elapsed = System.nanoTime() - start;
+        flushTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        lastFlushNanos.set(elapsed);
+        lastFlushedBooks.set(flushed != null ? flushed.size() : 0);
+
+        if (flushed != null && !flushed.isEmpty()) {
+            for (long[] row : flushed) {
+                cacheService.evictBookCache(row[0]);
+                StockCounter counter = counters.get(row[0]);
+                if (counter != null) {
+                    counter.pending.add(-row[1]);
+                }
+            }
+            logger.debug("热销库存回写完成，书籍数: {}, 耗时: {}ms", flushed.size(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("trackedBooks", counters.size());
+        metrics.put("totalPendingDelta", totalPendingDelta());
+        metrics.put("flushCount", flushTimer.count());
+        metrics.put("lastFlushMillis", lastFlushNanos.get() / 1_000_000.0);
+        metrics.put("meanFlushMillis", flushTimer.mean(TimeUnit.MILLISECONDS));
+        metrics.put("maxFlushMillis", flushTimer.max(TimeUnit.MILLISECONDS));
+        metrics.put("lastFlushedBooks", lastFlushedBooks.get());
+
+        Map<Long, Map<String, Object>> books = new LinkedHashMap<>();
+        counters.forEach((bookId, counter) -> books.put(bookId, Map.of(
+                "available", counter.available.get(),
+                "pendingDelta", counter.pending.sum())));
+        metrics.put("books", books);
+        return metrics;
+    }
+
+    private long totalPendingDelta() {
+        long total = 0;
+        for (StockCounter counter : counters.values()) {
+            total += counter.pending.sum();
+        }
+        return total;
+    }
+
+    private StockCounter requireCounter(Long bookId) {
+        StockCounter counter = counters.get(bookId);
+        if (counter == null) {
+            throw new BusinessException("HOT_STOCK_NOT_TRACKED", "书籍未处于热销库存模式");
+        }
+        return counter;
+    }
+
+    private void registerCompletion(StockCounter counter, int quantity, boolean writeBehind) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (writeBehind) {
+                counter.pending.add(quantity);
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    if (writeBehind) {
+                        counter.pending.add(quantity);
+                    }
+                } else {
+                    // 事务回滚，归还预留的库存
+                    counter.available.addAndGet(-quantity);
+                }
+            }
+        });
+    }
+
+    /**
+     * 单本书的内存库存：可用量以CAS维护硬性下限，待回写量使用LongAdder避免热点竞争
+     */
+    private static final class StockCounter {
+        private final AtomicInteger available;
+        private final LongAdder pending = new LongAdder();
+
+        private StockCounter(int initialStock) {
+            this.available = new AtomicInteger(initialStock);
+        }
+
+        private int tryAdd(int quantity) {
+            while (true) {
+                int current = available.get();
+                int next = current + quantity;
+                if (next < 0) {
+                    throw new BusinessException("INSUFFICIENT_STOCK",
+                            String.format("库存不足，当前库存：%d，请求数量：%d", current, -quantity));
+                }
+                if (available.compareAndSet(current, next)) {
+                    return next;
+                }
+            }
+        }
+    }
+}
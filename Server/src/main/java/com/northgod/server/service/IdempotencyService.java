@@ -0,0 +1,235 @@
+package com.northgod.server.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.northgod.server.entity.IdempotencyRecord;
+import com.northgod.server.repository.IdempotencyRecordRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 写接口幂等服务
+ *
+ * 客户端为每次逻辑请求生成 Idempotency-Key，重试时复用同一个键。
+ * 首次成功的响应与业务写入在同一个数据库事务中保存到 idempotency_record 表
+ * （经组提交写入的接口在提交线程的批量事务中保存），并在提交后缓存在 Caffeine 中；相同键的重试直接回放已保存的响应，不再执行业务逻辑。
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    private static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final JsonMapper jsonMapper;
+    private final Cache<String, IdempotencyRecord> responses;
+    private final Map<String, CompletableFuture<ResponseEntity<Map<String, Object>>>> inFlight =
+            new ConcurrentHashMap<>();
+    private final Duration ttl;
+
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              PlatformTransactionManager transactionManager,
+                              JsonMapper jsonMapper,
+                              @Value("${bookstore.idempotency.ttl-hours:24}") long ttlHours,
+                              @Value("${bookstore.idempotency.cache-size:10000}") long cacheSize) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jsonMapper = jsonMapper;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 幂等键凭证：由执行写入的线程在业务事务内调用 {@link #record(Ticket, ResponseEntity)} 保存响应
+     */
+    public record Ticket(String key, String endpoint) {
+    }
+
+    /**
+     * 以幂等方式执行写操作
+     *
+     * @param key      Idempotency-Key 请求头，为空时直接执行
+     * @param endpoint 接口标识，同一个键不能用于不同接口
+     * @param action   实际的写操作（内部的业务事务会加入本方法开启的事务）
+     */
+    public ResponseEntity<Map<String, Object>> execute(String key, String endpoint,
+                                                       Supplier<ResponseEntity<Map<String, Object>>> action) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        return run(key, endpoint, ticket -> transactionTemplate.execute(status -> {
+            ResponseEntity<Map<String, Object>> result = action.get();
+            if (result.getStatusCode().is2xxSuccessful()) {
+                record(ticket, result);
+            } else {
+                // 失败的请求不保存结果，回滚后允许客户端用同一个键重试
+                status.setRollbackOnly();
+            }
+            return result;
+        }));
+    }
+
+    /**
+     * 以幂等方式执行写操作，幂等记录由写操作自己在业务事务内保存
+     *
+     * 用于经组提交写入的接口：业务写入在提交线程的事务中完成，本方法不开启事务、不占用连接，
+     * 写操作须在同一个业务事务内以收到的凭证调用 {@link #record(Ticket, ResponseEntity)}，
+     * 使幂等记录与业务数据一起提交或一起回滚。键为空时凭证为 null。
+     */
+    public ResponseEntity<Map<String, Object>> executeInWrite(String key, String endpoint,
+                                                              Function<Ticket, ResponseEntity<Map<String, Object>>> action) {
+        if (key == null || key.isBlank()) {
+            return action.apply(null);
+        }
+        return run(key, endpoint, action);
+    }
+
+    /**
+     * 在当前业务事务中保存首次成功的响应（凭证为 null 或响应不成功时忽略），提交后放入缓存
+     */
+    public void record(Ticket ticket, ResponseEntity<Map<String, Object>> response) {
+        if (ticket == null || !response.getStatusCode().is2xxSuccessful()) {
+            return;
+        }
+        IdempotencyRecord record = new IdempotencyRecord();
+        record.setIdempotencyKey(ticket.key());
+        record.setEndpoint(ticket.endpoint());
+        record.setStatusCode(response.getStatusCode().value());
+        record.setResponseBody(jsonMapper.writeValueAsString(response.getBody()));
+        IdempotencyRecord saved = idempotencyRecordRepository.save(record);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    responses.put(ticket.key(), saved);
+                }
+            });
+        } else {
+            responses.put(ticket.key(), saved);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> run(String key, String endpoint,
+                                                    Function<Ticket, ResponseEntity<Map<String, Object>>> action) {
+        if (key.length() > 100) {
+            return errorResponse("Idempotency-Key 长度不能超过100个字符", HttpStatus.BAD_REQUEST);
+        }
+
+        while (true) {
+            IdempotencyRecord stored = findStored(key);
+            if (stored != null) {
+                return replay(stored, endpoint);
+            }
+
+            // 同一个键的并发重试等待首个请求的结果，而不是重复执行
+            CompletableFuture<ResponseEntity<Map<String, Object>>> mine = new CompletableFuture<>();
+            CompletableFuture<ResponseEntity<Map<String, Object>>> running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                try {
+                    ResponseEntity<Map<String, Object>> response = running.join();
+                    if (response.getStatusCode().is2xxSuccessful()) {
+                        return withReplayHeader(response);
+                    }
+                } catch (CompletionException e) {
+                    logger.debug("幂等键首个请求失败，重新检查，键: {}", key);
+                }
+                // 首个请求失败时没有保存结果：重新走一遍检查，由其中一个等待者重新执行
+                continue;
+            }
+
+            try {
+                ResponseEntity<Map<String, Object>> response = action.apply(new Ticket(key, endpoint));
+                inFlight.remove(key, mine);
+                mine.complete(response);
+                return response;
+            } catch (RuntimeException | Error e) {
+                // 先移除再完成，被唤醒的等待者重新检查时不会再看到这个已结束的请求
+                responses.invalidate(key);
+                inFlight.remove(key, mine);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 定时清理过期的幂等记录
+     */
+    @Scheduled(fixedDelay = 3_600_000)
+    public void purgeExpired() {
+        Integer deleted = transactionTemplate.execute(status ->
+                idempotencyRecordRepository.deleteExpired(LocalDateTime.now().minus(ttl)));
+        if (deleted != null && deleted > 0) {
+            logger.info("清理过期幂等记录: {} 条", deleted);
+        }
+    }
+
+    private IdempotencyRecord findStored(String key) {
+        IdempotencyRecord stored = responses.getIfPresent(key);
+        if (stored != null) {
+            return stored;
+        }
+        stored = idempotencyRecordRepository.findById(key)
+                .filter(record -> record.getCreatedAt().isAfter(LocalDateTime.now().minus(ttl)))
+                .orElse(null);
+        if (stored != null) {
+            responses.put(key, stored);
+        }
+        return stored;
+    }
+
+    private ResponseEntity<Map<String, Object>> replay(IdempotencyRecord stored, String endpoint) {
+        if (!stored.getEndpoint().equals(endpoint)) {
+            return errorResponse("Idempotency-Key 已用于其他接口: " + stored.getEndpoint(),
+                    HttpStatus.UNPROCESSABLE_CONTENT);
+        }
+        logger.info("幂等键重放，接口: {}, 键: {}", endpoint, stored.getIdempotencyKey());
+        Map<String, Object> body = jsonMapper.readValue(stored.getResponseBody(),
+                new TypeReference<Map<String, Object>>() {});
+        return ResponseEntity.status(stored.getStatusCode())
+                .header(REPLAYED_HEADER, "true")
+                .body(body);
+    }
+
+    private ResponseEntity<Map<String, Object>> withReplayHeader(ResponseEntity<Map<String, Object>> response) {
+        return ResponseEntity.status(response.getStatusCode())
+                .header(REPLAYED_HEADER, "true")
+                .body(response.getBody());
+    }
+
+    private ResponseEntity<Map<String, Object>> errorResponse(String message, HttpStatus status) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        response.put("code", "IDEMPOTENCY_KEY_INVALID");
+        response.put("status", status.value());
+        response.put("timestamp", System.currentTimeMillis());
+        return ResponseEntity.status(status).body(response);
+    }
+}
@@ -0,0 +1,288 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.ChangeEventType;
+import com.northgod.server.event.ChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实时畅销榜（进程内，不访问数据库）
+ *
+ * 按分钟分桶，每个桶是一个容量为 counters-per-bucket 的 Space-Saving 摘要（书籍ID -> 估计销量、误差上界），
+ * 环形保留最近24小时。销售提交后由发件箱中继投递的交易事件累加到对应分钟的桶，销售作废时从原桶中扣除。
+ * 查询最近 N 分钟时合并窗口内的桶并排序，结果按窗口缓存 refresh-ms 毫秒，读取只是截取已排序列表的前 k 项。
+ *
+ * 单个桶内不同书籍数超过容量时按 Space-Saving 替换计数最小的书籍，估计值可能偏大，偏大量不超过 error。
+ */
+@Service
+public class LiveSalesRankingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveSalesRankingService.class);
+
+    /** 保留的分钟桶数（24小时），同时是窗口的最大长度 */
+    static final int RETAINED_MINUTES = 24 * 60;
+
+    private static final int RECENT_EVENT_IDS = 4096;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MinuteBucket[] buckets = new MinuteBucket[RETAINED_MINUTES];
+    private final Map<Integer, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /** 最近处理过的事件ID，中继重投时跳过（至少一次投递） */
+    private final Map<Long, Boolean> recentEventIds = new LinkedHashMap<>(RECENT_EVENT_IDS, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > RECENT_EVENT_IDS;
+        }
+    };
+
+    /** 预热完成前已由事件计入的交易ID，预热时跳过以免重复计数 */
+    private Set<Long> countedBeforeWarmUp = new HashSet<>();
+    /** 预热完成前收到作废事件、但销售本身尚未计入的交易ID，预热时跳过（作废事件不再扣减） */
+    private Set<Long> voidedBeforeWarmUp = new HashSet<>();
+    private boolean warmedUp;
+
+    @Value("${bookstore.live-ranking.counters-per-bucket:200}")
+    private int countersPerBucket;
+
+    @Value("${bookstore.live-ranking.refresh-ms:2000}")
+    private long refreshMs;
+
+    public LiveSalesRankingService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 榜单项：估计销量与误差上界（真实销量在 [quantity - error, quantity] 之间）
+     */
+    public record RankedBook(long bookId, String title, long quantity, long error) {
+    }
+
+    private record Snapshot(List<RankedBook> ranking, long computedAtMs) {
+    }
+
+    @EventListener
+    public void onChange(ChangeEvent event) {
+        boolean created = event.type() == ChangeEventType.TRANSACTION_CREATED;
+        if (!created && event.type() != ChangeEventType.TRANSACTION_VOIDED) {
+            return;
+        }
+        if (!"SALE".equals(event.stringValue("transactionType"))) {
+            return;
+        }
+        Long bookId = event.longValue("bookId");
+        Integer quantity = event.intValue("quantity");
+        String createdAt = event.stringValue("createdAt");
+        if (bookId == null || quantity == null || createdAt == null) {
+            return;
+        }
+        long minute = epochMinute(LocalDateTime.parse(createdAt));
+        synchronized (this) {
+            if (recentEventIds.put(event.id(), Boolean.TRUE) != null) {
+                return;
+            }
+            if (created) {
+                if (!warmedUp) {
+                    countedBeforeWarmUp.add(event.aggregateId());
+                }
+                add(minute, bookId, event.stringValue("bookTitle"), quantity);
+            } else if (!warmedUp && !countedBeforeWarmUp.contains(event.aggregateId())) {
+                voidedBeforeWarmUp.add(event.aggregateId());
+            } else {
+                subtract(minute, bookId, quantity);
+            }
+        }
+    }
+
+    /**
+     * 启动预热：从交易表载入今天已提交且已投递的销售（仍在发件箱中等待投递的由事件计入）。
+     * 已作废的销售只有在作废事件仍待投递时才载入，由之后投递的作废事件扣除，与列式分析数据的载入规则一致
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        LocalDateTime since = LocalDateTime.now().minusMinutes(RETAINED_MINUTES - 1);
+        int[] rows = {0};
+        synchronized (this) {
+            Long[] voidedExcluded = voidedBeforeWarmUp.toArray(new Long[0]);
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("""
+                    SELECT t.id, t.created_at, t.book_id, t.book_title, t.quantity
+                    FROM transaction t
+                    WHERE t.transaction_type = 'SALE' AND t.created_at >= ?
+                      AND NOT EXISTS (
+                          SELECT 1 FROM outbox_event o
+                          WHERE o.published_at IS NULL AND o.event_type = 'TRANSACTION_CREATED'
+                            AND o.aggregate_id = t.id)
+                      AND (t.voided_at IS NULL OR (t.id <> ALL(?) AND EXISTS (
+                          SELECT 1 FROM outbox_event o
+                          WHERE o.published_at IS NULL AND o.event_type = 'TRANSACTION_VOIDED'
+                            AND o.aggregate_id = t.id)))
+                """);
+                ps.setTimestamp(1, Timestamp.valueOf(since));
+                ps.setArray(2, connection.createArrayOf("bigint", voidedExcluded));
+                return ps;
+            }, rs -> {
+                if (countedBeforeWarmUp.contains(rs.getLong(1))) {
+                    return;
+                }
+                add(epochMinute(rs.getObject(2, LocalDateTime.class)), rs.getLong(3), rs.getString(4), rs.getInt(5));
+                rows[0]++;
+            });
+            warmedUp = true;
+            countedBeforeWarmUp = Set.of();
+            voidedBeforeWarmUp = Set.of();
+        }
+        logger.info("实时畅销榜预热完成，载入最近24小时销售 {} 笔", rows[0]);
+    }
+
+    /**
+     * 最近 windowMinutes 分钟的前 limit 名；结果最多滞后 refresh-ms 毫秒
+     */
+    public List<RankedBook> getTop(int windowMinutes, int limit) {
+        int window = Math.clamp(windowMinutes, 1, RETAINED_MINUTES);
+        long nowMs = System.currentTimeMillis();
+        Snapshot snapshot = snapshots.get(window);
+        if (snapshot == null || nowMs - snapshot.computedAtMs() >= refreshMs) {
+            snapshot = new Snapshot(merge(window), nowMs);
+            snapshots.put(window, snapshot);
+        }
+        List<RankedBook> ranking = snapshot.ranking();
+        return ranking.subList(0, Math.min(Math.max(limit, 0), ranking.size()));
+    }
+
+    /**
+     * 今天零点至今经过的分钟数（含当前分钟），用于"今天"窗口
+     */
+    public static int minutesSinceMidnight() {
+        LocalDateTime now = LocalDateTime.now();
+        return (int) (epochMinute(now) - epochMinute(LocalDate.now().atStartOfDay())) + 1;
+    }
+
+    private synchronized List<RankedBook> merge(int windowMinutes) {
+        long current = epochMinute(LocalDateTime.now());
+        Map<Long, long[]> totals = new HashMap<>();
+        Map<Long, String> titles = new HashMap<>();
+        for (long minute = current - windowMinutes + 1; minute <= current; minute++) {
+            MinuteBucket bucket = buckets[slot(minute)];
+            if (bucket == null || bucket.minute != minute) {
+                continue;
+            }
+            for (Map.Entry<Long, BookCounter> entry : bucket.counters.entrySet()) {
+                long[] sums = totals.computeIfAbsent(entry.getKey(), key -> new long[2]);
+                sums[0] += entry.getValue().count;
+                sums[1] += entry.getValue().error;
+                if (entry.getValue().title != null) {
+                    titles.put(entry.getKey(), entry.getValue().title);
+                }
+            }
+        }
+        List<RankedBook> ranking = new ArrayList<>(totals.size());
+        totals.forEach((bookId, sums) -> {
+            if (sums[0] > 0) {
+                ranking.add(new RankedBook(bookId, titles.get(bookId), sums[0], sums[1]));
+            }
+        });
+        ranking.sort(Comparator.comparingLong(RankedBook::quantity).reversed()
+                .thenComparingLong(RankedBook::bookId));
+        return List.copyOf(ranking);
+    }
+
+    private void add(long minute, long bookId, String title, int quantity) {
+        MinuteBucket bucket = buckets[slot(minute)];
+        if (bucket == null || bucket.minute != minute) {
+            if (bucket != null && bucket.minute > minute) {
+                // 超过保留时长的旧事件
+                return;
+            }
+            bucket = new MinuteBucket(minute);
+            buckets[slot(minute)] = bucket;
+        }
+        bucket.offer(bookId, title, quantity, countersPerBucket);
+    }
+
+    private void subtract(long minute, long bookId, int quantity) {
+        MinuteBucket bucket = buckets[slot(minute)];
+        if (bucket == null || bucket.minute != minute) {
+            return;
+        }
+        BookCounter counter = bucket.counters.get(bookId);
+        if (counter != null) {
+            counter.count = Math.max(counter.count - quantity, 0);
+        }
+    }
+
+    private static int slot(long minute) {
+        return (int) Math.floorMod(minute, (long) RETAINED_MINUTES);
+    }
+
+    private static long epochMinute(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond() / 60;
+    }
+
+    /**
+     * 一分钟内的 Space-Saving 摘要
+     */
+    private static final class MinuteBucket {
+
+        final long minute;
+        final Map<Long, BookCounter> counters = new HashMap<>();
+
+        MinuteBucket(long minute) {
+            this.minute = minute;
+        }
+
+        void offer(long bookId, String title, int quantity, int capacity) {
+            BookCounter counter = counters.get(bookId);
+            if (counter == null) {
+                if (counters.size() < capacity) {
+                    counter = new BookCounter(title);
+                } else {
+                    // 替换计数最小的书籍，新书继承其计数作为误差上界（桶满时才扫描，容量较小）
+                    Map.Entry<Long, BookCounter> min = null;
+                    for (Map.Entry<Long, BookCounter> entry : counters.entrySet()) {
+                        if (min == null || entry.getValue().count < min.getValue().count) {
+                            min = entry;
+                        }
+                    }
+                    counters.remove(min.getKey());
+                    counter = new BookCounter(title);
+                    counter.count = min.getValue().count;
+                    counter.error = min.getValue().count;
+                }
+                counters.put(bookId, counter);
+            }
+            counter.count += quantity;
+        }
+    }
+
+    private static final class BookCounter {
+
+        final String title;
+        long count;
+        long error;
+
+        BookCounter(String title) {
+            this.title = title;
+        }
+    }
+}
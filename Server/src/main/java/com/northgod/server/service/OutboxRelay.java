@@ -0,0 +1,210 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.ChangeEventType;
+import com.northgod.server.event.ChangeEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 发件箱中继
+ *
+ * 定时按ID顺序批量读取未投递的事件，逐条以 ChangeEvent 发布给进程内订阅者（@EventListener），
+ * 全部订阅者处理成功后才标记为已投递（至少一次）。某条事件投递失败时本批次在该事件处停止，
+ * 以保证顺序；失败次数达到上限的事件标记为已投递并保留错误信息（死信），避免阻塞后续事件。
+ *
+ * 投递在业务事务之外进行，订阅者的数据库写入使用各自的事务。
+ */
+@Service
+public class OutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private static final String FETCH_SQL = """
+        SELECT id, event_type, aggregate_id, payload::text, created_at, attempts
+        FROM outbox_event
+        WHERE published_at IS NULL
+        ORDER BY id
+        LIMIT ?
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final JsonMapper jsonMapper;
+    private final Counter deliveredCounter;
+    private final Counter failedCounter;
+    private final Counter deadLetterCounter;
+    private final AtomicLong lastDeliveredId = new AtomicLong();
+
+    @Value("${bookstore.outbox.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bookstore.outbox.batch-size:200}")
+    private int batchSize;
+
+    @Value("${bookstore.outbox.max-batches-per-poll:50}")
+    private int maxBatchesPerPoll;
+
+    @Value("${bookstore.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${bookstore.outbox.retention-hours:24}")
+    private int retentionHours;
+
+    public OutboxRelay(JdbcTemplate jdbcTemplate,
+                       PlatformTransactionManager transactionManager,
+                       ApplicationEventPublisher eventPublisher,
+                       JsonMapper jsonMapper,
+                       MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.jsonMapper = jsonMapper;
+        this.deliveredCounter = Counter.builder("bookstore.outbox.delivered")
+                .description("发件箱已投递事件数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("bookstore.outbox.failed")
+                .description("发件箱投递失败次数")
+                .register(meterRegistry);
+        this.deadLetterCounter = Counter.builder("bookstore.outbox.dead_letter")
+                .description("超过重试上限被放弃的事件数")
+                .register(meterRegistry);
+        Gauge.builder("bookstore.outbox.last_delivered_id", lastDeliveredId, AtomicLong::get)
+                .description("最近一次投递成功的事件ID")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 定时拉取并投递；一次拉取最多处理 max-batches-per-poll 个满批次，积压时连续追赶
+     */
+    @Scheduled(fixedDelayString = "${bookstore.outbox.poll-interval-ms:200}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < maxBatchesPerPoll; i++) {
+            BatchResult result = relayBatch();
+            if (result.fetched() < batchSize || result.stopped()) {
+                return;
+            }
+        }
+    }
+
+    private record BatchResult(int fetched, boolean stopped) {
+    }
+
+    private BatchResult relayBatch() {
+        List<ChangeEvent> batch = new ArrayList<>();
+        Map<Long, Integer> attempts = new LinkedHashMap<>();
+        jdbcTemplate.query(FETCH_SQL, rs -> {
+            long id = rs.getLong(1);
+            Map<String, Object> payload = jsonMapper.readValue(rs.getString(4),
+                    new TypeReference<Map<String, Object>>() {});
+            batch.add(new ChangeEvent(id, ChangeEventType.valueOf(rs.getString(2)),
+                    rs.getObject(3, Long.class), payload, rs.getObject(5, LocalDateTime.class)));
+            attempts.put(id, rs.getInt(6));
+        }, batchSize);
+        if (batch.isEmpty()) {
+            return new BatchResult(0, false);
+        }
+
+        List<Long> delivered = new ArrayList<>(batch.size());
+        ChangeEvent failed = null;
+        Exception failure = null;
+        for (ChangeEvent event : batch) {
+            try {
+                eventPublisher.publishEvent(event);
+                delivered.add(event.id());
+            } catch (Exception e) {
+                failed = event;
+                failure = e;
+                break;
+            }
+        }
+
+        ChangeEvent failedEvent = failed;
+        String error = failure != null ? truncate(failure.toString()) : null;
+        boolean deadLetter = failed != null && attempts.get(failed.id()) + 1 >= maxAttempts;
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!delivered.isEmpty()) {
+                Long[] ids = delivered.toArray(new Long[0]);
+                jdbcTemplate.update(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(
+                            "UPDATE outbox_event SET published_at = CURRENT_TIMESTAMP WHERE id = ANY(?)");
+                    ps.setArray(1, connection.createArrayOf("bigint", ids));
+                    return ps;
+                });
+            }
+            if (failedEvent != null) {
+                jdbcTemplate.update("""
+                    UPDATE outbox_event SET attempts = attempts + 1, last_error = ?,
+                           published_at = CASE WHEN ? THEN CURRENT_TIMESTAMP END
+                    WHERE id = ?
+                """, error, deadLetter, failedEvent.id());
+            }
+        });
+
+        deliveredCounter.increment(delivered.size());
+        if (!delivered.isEmpty()) {
+            lastDeliveredId.set(delivered.getLast());
+        }
+        if (failedEvent != null) {
+            failedCounter.increment();
+            if (deadLetter) {
+                deadLetterCounter.increment();
+                logger.error("发件箱事件超过重试上限，已放弃: {} {}", failedEvent.id(), failedEvent.type(), failure);
+            } else {
+                logger.warn("发件箱事件投递失败，稍后重试: {} {}, 原因: {}", failedEvent.id(), failedEvent.type(), error);
+            }
+        }
+        return new BatchResult(batch.size(), failedEvent != null && !deadLetter);
+    }
+
+    /**
+     * 定时清理已投递且超过保留时间的事件
+     */
+    @Scheduled(fixedDelay = 3_600_000)
+    public void purgePublished() {
+        int deleted = jdbcTemplate.update(
+                "DELETE FROM outbox_event WHERE published_at < LOCALTIMESTAMP - make_interval(hours => ?)",
+                retentionHours);
+        if (deleted > 0) {
+            logger.info("清理已投递发件箱事件: {} 条", deleted);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pending", jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM outbox_event WHERE published_at IS NULL", Long.class));
+        metrics.put("lastDeliveredId", lastDeliveredId.get());
+        metrics.put("delivered", (long) deliveredCounter.count());
+        metrics.put("failed", (long) failedCounter.count());
+        metrics.put("deadLetters", (long) deadLetterCounter.count());
+        return metrics;
+    }
+
+    private static String truncate(String message) {
+        return message.length() > 500 ? message.substring(0, 500) : message;
+    }
+}
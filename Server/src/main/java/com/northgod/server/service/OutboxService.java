@@ -0,0 +1,147 @@
+package com.northgod.server.service;
+
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.ChangeEventType;
+import org.hibernate.Hibernate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 事务发件箱写入
+ *
+ * 调用方在业务写入的同一个数据库事务中追加变更事件：业务回滚则事件一并回滚，提交则事件一定存在。
+ * 事件由 OutboxRelay 按ID顺序异步投递给进程内订阅者，业务代码无需直接调用下游逻辑。
+ */
+@Service
+public class OutboxService {
+
+    /**
+     * 批量追加事件（数组参数，SQL文本与事件数无关；按数组顺序分配递增ID）
+     */
+    private static final String APPEND_SQL = """
+        INSERT INTO outbox_event (id, aggregate_type, aggregate_id, event_type, payload, created_at, attempts)
+        SELECT nextval('outbox_event_id_seq'), e.aggregate_type, e.aggregate_id, e.event_type, e.payload::jsonb,
+               CURRENT_TIMESTAMP, 0
+        FROM unnest(?::varchar[], ?::bigint[], ?::varchar[], ?::text[])
+             WITH ORDINALITY AS e(aggregate_type, aggregate_id, event_type, payload, ord)
+        ORDER BY e.ord
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JsonMapper jsonMapper;
+
+    public OutboxService(JdbcTemplate jdbcTemplate, JsonMapper jsonMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jsonMapper = jsonMapper;
+    }
+
+    /**
+     * 待写入的事件
+     */
+    public record PendingEvent(ChangeEventType type, Long aggregateId, Map<String, Object> payload) {
+    }
+
+    public void publish(ChangeEventType type, Long aggregateId, Map<String, Object> payload) {
+        publishAll(List.of(new PendingEvent(type, aggregateId, payload)));
+    }
+
+    /**
+     * 在当前数据库事务中追加事件
+     */
+    public void publishAll(Collection<PendingEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        String[] aggregateTypes = new String[events.size()];
+        Long[] aggregateIds = new Long[events.size()];
+        String[] eventTypes = new String[events.size()];
+        String[] payloads = new String[events.size()];
+        int i = 0;
+        for (PendingEvent event : events) {
+            aggregateTypes[i] = event.type().getAggregateType();
+            aggregateIds[i] = event.aggregateId();
+            eventTypes[i] = event.type().name();
+            payloads[i] = jsonMapper.writeValueAsString(event.payload());
+            i++;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(APPEND_SQL);
+            ps.setArray(1, connection.createArrayOf("varchar", aggregateTypes));
+            ps.setArray(2, connection.createArrayOf("bigint", aggregateIds));
+            ps.setArray(3, connection.createArrayOf("varchar", eventTypes));
+            ps.setArray(4, connection.createArrayOf("text", payloads));
+            return ps;
+        });
+    }
+
+    /**
+     * 交易创建事件（交易须已保存并分配ID）
+     */
+    public void transactionsCreated(Collection<Transaction> transactions) {
+        List<PendingEvent> events = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            events.add(new PendingEvent(ChangeEventType.TRANSACTION_CREATED, transaction.getId(),
+                    transactionPayload(transaction)));
+        }
+        publishAll(events);
+    }
+
+    public void transactionVoided(Transaction transaction, String reason) {
+        Map<String, Object> payload = transactionPayload(transaction);
+        payload.put("reason", reason);
+        publish(ChangeEventType.TRANSACTION_VOIDED, transaction.getId(), payload);
+    }
+
+    /**
+     * 书籍变更事件
+     *
+     * @param change 变更类型（CREATED、UPDATED、DELETED、RESTORED、STOCK_ADJUSTED）
+     */
+    public void bookChanged(Long bookId, String change, Integer stockDelta) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("bookId", bookId);
+        payload.put("change", change);
+        if (stockDelta != null) {
+            payload.put("stockDelta", stockDelta);
+        }
+        publish(ChangeEventType.BOOK_CHANGED, bookId, payload);
+    }
+
+    /**
+     * 交易事件内容：只读取已加载的数据，书籍为未初始化的懒加载代理时不附带库存信息
+     */
+    private Map<String, Object> transactionPayload(Transaction transaction) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("transactionId", transaction.getId());
+        payload.put("bookId", transaction.getBook().getId());
+        if (transaction.getBookTitle() != null) {
+            payload.put("bookTitle", transaction.getBookTitle());
+        }
+        payload.put("transactionType", transaction.getTransactionType().name());
+        payload.put("quantity", transaction.getQuantity());
+        payload.put("amountCents", transaction.getAmountCents());
+        payload.put("createdAt", (transaction.getCreatedAt() != null
+                ? transaction.getCreatedAt() : LocalDateTime.now()).toString());
+        if (transaction.getRelatedTransactionId() != null) {
+            payload.put("relatedTransactionId", transaction.getRelatedTransactionId());
+        }
+        if (transaction.getOperatorName() != null) {
+            payload.put("operatorName", transaction.getOperatorName());
+        }
+        if (Hibernate.isInitialized(transaction.getBook())) {
+            payload.put("category", transaction.getBook().getCategory());
+            payload.put("stockAfter", transaction.getBook().getStockQuantity());
+            payload.put("minStock", transaction.getBook().getMinStock());
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,402 @@
+package com.northgod.server.service;
+
+import com.northgod.server.exception.BusinessException;
+import com.northgod.server.util.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 全目录批量补货计划
+ *
+ * 按书籍ID区间 fork/join 并行：每个区间一条查询读取在售书籍的可用库存（含热销待回写量）和最近一次进货的供应商，
+ * 日销量历史取自内存中的书籍日销量索引，以指数平滑预测日销量并计算补货数量。
+ * 结果作为计划快照写入 reorder_plan / reorder_plan_line，采购界面按计划分页读取，不再逐本请求推荐。
+ */
+@Service
+public class ReorderPlanService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReorderPlanService.class);
+
+    /**
+     * 单个书籍ID区间的补货输入：可用库存 = 书籍表库存 + 待回写的热销库存变化
+     */
+    private static final String RANGE_SQL = """
+        WITH pending AS (
+            SELECT book_id, SUM(CASE WHEN transaction_type IN ('SALE', 'ADJUST_OUT') THEN -quantity
+                                     ELSE quantity END) AS delta
+            FROM transaction
+            WHERE stock_pending = true AND book_id BETWEEN ? AND ?
+            GROUP BY book_id
+        )
+        SELECT b.id, b.title, b.isbn, b.stock_quantity + COALESCE(p.delta, 0), b.min_stock, b.purchase_price,
+               s.related_supplier_id, s.supplier_name
+        FROM book b
+        LEFT JOIN pending p ON p.book_id = b.id
+        LEFT JOIN LATERAL (
+            SELECT t.related_supplier_id, t.supplier_name
+            FROM transaction t
+            WHERE t.book_id = b.id AND t.transaction_type = 'PURCHASE' AND t.voided_at IS NULL
+            ORDER BY t.created_at DESC
+            LIMIT 1
+        ) s ON true
+        WHERE b.id BETWEEN ? AND ? AND b.is_active = true
+    """;
+
+    private static final String INSERT_LINES_SQL = """
+        INSERT INTO reorder_plan_line (plan_id, book_id, supplier_id, supplier_name, book_title, book_isbn,
+                                       current_stock, min_stock, forecast_daily, target_stock,
+                                       recommended_quantity, unit_cost_cents)
+        SELECT ?, l.* FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::varchar[], ?::varchar[],
+                                  ?::int[], ?::int[], ?::float8[], ?::int[], ?::int[], ?::bigint[])
+            AS l(book_id, supplier_id, supplier_name, book_title, book_isbn, current_stock, min_stock,
+                 forecast_daily, target_stock, recommended_quantity, unit_cost_cents)
+    """;
+
+    private static final String LINE_COLUMNS = """
+        book_id, supplier_id, supplier_name, book_title, book_isbn, current_stock, min_stock,
+        forecast_daily, target_stock, recommended_quantity, unit_cost_cents
+    """;
+
+    private static final int INSERT_BATCH_SIZE = 5000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SalesVelocityIndex salesVelocityIndex;
+    private final AtomicBoolean planning = new AtomicBoolean();
+
+    @Value("${bookstore.reorder-plan.smoothing-alpha:0.3}")
+    private double smoothingAlpha;
+
+    @Value("${bookstore.reorder-plan.cover-days:30}")
+    private int coverDays;
+
+    @Value("${bookstore.reorder-plan.chunk-size:5000}")
+    private long chunkSize;
+
+    @Value("${bookstore.reorder-plan.parallelism:4}")
+    private int parallelism;
+
+    @Value("${bookstore.reorder-plan.keep-plans:10}")
+    private int keepPlans;
+
+    public ReorderPlanService(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              SalesVelocityIndex salesVelocityIndex) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.salesVelocityIndex = salesVelocityIndex;
+    }
+
+    /**
+     * 计划明细（只包含建议补货数量大于0的书籍）
+     */
+    private record PlanLine(long bookId, Long supplierId, String supplierName, String title, String isbn,
+                            int currentStock, int minStock, double forecastDaily, int targetStock,
+                            int recommendedQuantity, long unitCostCents) {
+    }
+
+    private record RangeResult(int booksScanned, List<PlanLine> lines) {
+    }
+
+    /**
+     * 生成补货计划
+     *
+     * @param supplierId 为空时覆盖全部在售书籍；否则只包含最近一次从该供应商进货的书籍
+     * @return 计划汇总
+     */
+    public Map<String, Object> generatePlan(Long supplierId) {
+        if (!salesVelocityIndex.isReady()) {
+            throw new BusinessException("SALES_INDEX_NOT_READY", "销量索引尚未加载完成，请稍后再试");
+        }
+        if (!planning.compareAndSet(false, true)) {
+            throw new BusinessException("REORDER_PLAN_RUNNING", "补货计划正在生成中，请稍后再试");
+        }
+        try {
+            long start = System.nanoTime();
+            Map<String, Object> bounds = jdbcTemplate.queryForMap("SELECT MIN(id) AS lo, MAX(id) AS hi FROM book");
+            AtomicInteger ranges = new AtomicInteger();
+            RangeResult result = new RangeResult(0, List.of());
+            if (bounds.get("lo") != null) {
+                long lo = ((Number) bounds.get("lo")).longValue();
+                long hi = ((Number) bounds.get("hi")).longValue();
+                try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+                    result = pool.invoke(new PlanTask(lo, hi, supplierId, ranges));
+                }
+            }
+
+            List<PlanLine> lines = result.lines();
+            long totalQuantity = 0;
+            long totalCostCents = 0;
+            for (PlanLine line : lines) {
+                totalQuantity += line.recommendedQuantity();
+                totalCostCents += Money.times(line.unitCostCents(), line.recommendedQuantity());
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            long planId = persist(supplierId, result.booksScanned(), lines, totalQuantity, totalCostCents, elapsedMs);
+
+            logger.info("补货计划已生成: {}, 供应商: {}, 书籍: {}, 需补货: {} 本书 {} 册, 区间任务: {}, 耗时: {} ms",
+                    planId, supplierId != null ? supplierId : "全部", result.booksScanned(), lines.size(),
+                    totalQuantity, ranges.get(), elapsedMs);
+            return getPlan(planId);
+        } finally {
+            planning.set(false);
+        }
+    }
+
+    private long persist(Long supplierId, int booksScanned, List<PlanLine> lines,
+                         long totalQuantity, long totalCostCents, long elapsedMs) {
+        return transactionTemplate.execute(status -> {
+            Long planId = jdbcTemplate.queryForObject("""
+                INSERT INTO reorder_plan (id, supplier_id, books_scanned, line_count, total_quantity, total_cost_cents,
+                                          smoothing_alpha, cover_days, elapsed_ms, created_at)
+                VALUES (nextval('reorder_plan_id_seq'), ?, ?, ?, ?, ?, ?, ?, ?, LOCALTIMESTAMP)
+                RETURNING id
+            """, Long.class, supplierId, booksScanned, lines.size(), totalQuantity, totalCostCents,
+                    smoothingAlpha, coverDays, elapsedMs);
+            for (int from = 0; from < lines.size(); from += INSERT_BATCH_SIZE) {
+                insertLines(planId, lines.subList(from, Math.min(from + INSERT_BATCH_SIZE, lines.size())));
+            }
+            // 只保留最近 keep-plans 个计划
+            jdbcTemplate.update("""
+                WITH expired AS (
+                    SELECT id FROM reorder_plan ORDER BY id DESC OFFSET ?
+                ), removed_lines AS (
+                    DELETE FROM reorder_plan_line WHERE plan_id IN (SELECT id FROM expired)
+                )
+                DELETE FROM reorder_plan WHERE id IN (SELECT id FROM expired)
+            """, keepPlans);
+            return planId;
+        });
+    }
+
+    private void insertLines(long planId, List<PlanLine> lines) {
+        int size = lines.size();
+        Long[] bookIds = new Long[size];
+        Long[] supplierIds = new Long[size];
+        String[] supplierNames = new String[size];
+        String[] titles = new String[size];
+        String[] isbns = new String[size];
+        Integer[] currentStocks = new Integer[size];
+        Integer[] minStocks = new Integer[size];
+        Double[] forecasts = new Double[size];
+        Integer[] targets = new Integer[size];
+        Integer[] quantities = new Integer[size];
+        Long[] unitCosts = new Long[size];
+        for (int i = 0; i < size; i++) {
+            PlanLine line = lines.get(i);
+            bookIds[i] = line.bookId();
+            supplierIds[i] = line.supplierId();
+            supplierNames[i] = line.supplierName();
+            titles[i] = line.title();
+            isbns[i] = line.isbn();
+            currentStocks[i] = line.currentStock();
+            minStocks[i] = line.minStock();
+            forecasts[i] = line.forecastDaily();
+            targets[i] = line.targetStock();
+            quantities[i] = line.recommendedQuantity();
+            unitCosts[i] = line.unitCostCents();
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(INSERT_LINES_SQL);
+            ps.setLong(1, planId);
+            ps.setArray(2, connection.createArrayOf("bigint", bookIds));
+            ps.setArray(3, connection.createArrayOf("bigint", supplierIds));
+            ps.setArray(4, connection.createArrayOf("varchar", supplierNames));
+            ps.setArray(5, connection.createArrayOf("varchar", titles));
+            ps.setArray(6, connection.createArrayOf("varchar", isbns));
+            ps.setArray(7, connection.createArrayOf("integer", currentStocks));
+            ps.setArray(8, connection.createArrayOf("integer", minStocks));
+            ps.setArray(9, connection.createArrayOf("float8", forecasts));
+            ps.setArray(10, connection.createArrayOf("integer", targets));
+            ps.setArray(11, connection.createArrayOf("integer", quantities));
+            ps.setArray(12, connection.createArrayOf("bigint", unitCosts));
+            return ps;
+        });
+    }
+
+    /**
+     * 计划汇总；planId 为空时返回最近一个计划（supplierId 不为空时为该供应商最近的计划）
+     */
+    public Map<String, Object> getPlan(Long planId) {
+        List<Map<String, Object>> plans = jdbcTemplate.query("""
+            SELECT id, supplier_id, books_scanned, line_count, total_quantity, total_cost_cents,
+                   smoothing_alpha, cover_days, elapsed_ms, created_at
+            FROM reorder_plan WHERE id = ?
+        """, (rs, rowNum) -> toPlanSummary(rs), planId);
+        if (plans.isEmpty()) {
+            throw new BusinessException("REORDER_PLAN_NOT_FOUND", "补货计划不存在");
+        }
+        return plans.getFirst();
+    }
+
+    public Map<String, Object> getLatestPlan(Long supplierId) {
+        List<Map<String, Object>> plans = jdbcTemplate.query("""
+            SELECT id, supplier_id, books_scanned, line_count, total_quantity, total_cost_cents,
+                   smoothing_alpha, cover_days, elapsed_ms, created_at
+            FROM reorder_plan WHERE supplier_id IS NOT DISTINCT FROM CAST(? AS bigint)
+            ORDER BY id DESC LIMIT 1
+        """, (rs, rowNum) -> toPlanSummary(rs), supplierId);
+        if (plans.isEmpty()) {
+            throw new BusinessException("REORDER_PLAN_NOT_FOUND", "尚未生成补货计划");
+        }
+        return plans.getFirst();
+    }
+
+    private Map<String, Object> toPlanSummary(ResultSet rs) throws SQLException {
+        Map<String, Object> plan = new LinkedHashMap<>();
+        plan.put("planId", rs.getLong(1));
+        plan.put("supplierId", rs.getObject(2, Long.class));
+        plan.put("booksScanned", rs.getInt(3));
+        plan.put("lineCount", rs.getInt(4));
+        plan.put("totalQuantity", rs.getLong(5));
+        plan.put("totalCost", Money.fromCents(rs.getLong(6)));
+        plan.put("smoothingAlpha", rs.getDouble(7));
+        plan.put("coverDays", rs.getInt(8));
+        plan.put("elapsedMs", rs.getLong(9));
+        plan.put("createdAt", rs.getObject(10, LocalDateTime.class));
+        return plan;
+    }
+
+    /**
+     * 分页读取计划明细，按供应商、书籍ID排序（可只看一个供应商），返回 lines 和 totalItems
+     */
+    public Map<String, Object> getPlanLines(long planId, Long supplierId, int page, int size) {
+        Long total = jdbcTemplate.queryForObject("""
+            SELECT COUNT(*) FROM reorder_plan_line
+            WHERE plan_id = ? AND (CAST(? AS bigint) IS NULL OR supplier_id = ?)
+        """, Long.class, planId, supplierId, supplierId);
+        List<Map<String, Object>> lines = jdbcTemplate.query("SELECT " + LINE_COLUMNS + """
+            FROM reorder_plan_line
+            WHERE plan_id = ? AND (CAST(? AS bigint) IS NULL OR supplier_id = ?)
+            ORDER BY supplier_id NULLS LAST, book_id
+            LIMIT ? OFFSET ?
+        """, (rs, rowNum) -> {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("bookId", rs.getLong(1));
+            line.put("supplierId", rs.getObject(2, Long.class));
+            line.put("supplierName", rs.getString(3));
+            line.put("title", rs.getString(4));
+            line.put("isbn", rs.getString(5));
+            line.put("currentStock", rs.getInt(6));
+            line.put("minStock", rs.getInt(7));
+            line.put("forecastDailySales", Math.round(rs.getDouble(8) * 100.0) / 100.0);
+            line.put("targetStock", rs.getInt(9));
+            line.put("recommendedQuantity", rs.getInt(10));
+            line.put("unitCost", Money.fromCents(rs.getLong(11)));
+            return line;
+        }, planId, supplierId, supplierId, size, (long) page * size);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("lines", lines);
+        result.put("totalItems", total != null ? total : 0L);
+        return result;
+    }
+
+    /**
+     * 单本书籍的补货计算
+     *
+     * 对截至昨天的最近 history 天日销量做一次指数平滑（level = α·x + (1-α)·level，初值为第一周均值），
+     * 以平滑值作为日销量预测；目标库存 = 预测 × cover-days，且不低于最低库存的2倍；
+     * 无销量的书籍目标库存为最低库存。建议补货 = 目标库存 - 可用库存。
+     */
+    private PlanLine plan(long bookId, String title, String isbn, int stock, int minStock, BigDecimal purchasePrice,
+                  Long supplierId, String supplierName) {
+        // 只用已结束的日期：今天只累计了部分销量，作为最近一天参与平滑会压低预测
+        int[] history = salesVelocityIndex.getCompletedDailySales(bookId, salesVelocityIndex.getRetainedDays() - 1);
+        double forecast = forecast(history, smoothingAlpha);
+        int targetStock = forecast > 0
+                ? Math.max((int) Math.ceil(forecast * coverDays), minStock * 2)
+                : minStock;
+        int recommended = Math.max(targetStock - stock, 0);
+        if (recommended == 0) {
+            return null;
+        }
+        long unitCostCents = purchasePrice != null ? Money.toCents(purchasePrice) : 0L;
+        return new PlanLine(bookId, supplierId, supplierName, title, isbn, stock, minStock, forecast,
+                targetStock, recommended, unitCostCents);
+    }
+
+    static double forecast(int[] history, double alpha) {
+        if (history.length == 0) {
+            return 0;
+        }
+        int warmUp = Math.min(7, history.length);
+        double level = 0;
+        for (int i = 0; i < warmUp; i++) {
+            level += history[i];
+        }
+        level /= warmUp;
+        for (int i = warmUp; i < history.length; i++) {
+            level = alpha * history[i] + (1 - alpha) * level;
+        }
+        return level;
+    }
+
+    /**
+     * 按书籍ID区间二分拆分，区间足够小时执行一次区间查询并在内存中完成预测
+     */
+    private final class PlanTask extends RecursiveTask<RangeResult> {
+
+        private final long lo;
+        private final long hi;
+        private final Long supplierId;
+        private final AtomicInteger ranges;
+
+        PlanTask(long lo, long hi, Long supplierId, AtomicInteger ranges) {
+            this.lo = lo;
+            this.hi = hi;
+            this.supplierId = supplierId;
+            this.ranges = ranges;
+        }
+
+        @Override
+        protected RangeResult compute() {
+            if (hi - lo < chunkSize) {
+                ranges.incrementAndGet();
+                List<PlanLine> lines = new ArrayList<>();
+                int[] scanned = {0};
+                jdbcTemplate.query(RANGE_SQL, rs -> {
+                    Long lineSupplierId = rs.getObject(7, Long.class);
+                    if (supplierId != null && !supplierId.equals(lineSupplierId)) {
+                        return;
+                    }
+                    scanned[0]++;
+                    PlanLine line = plan(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getInt(4),
+                            rs.getInt(5), rs.getBigDecimal(6), lineSupplierId, rs.getString(8));
+                    if (line != null) {
+                        lines.add(line);
+                    }
+                }, lo, hi, lo, hi);
+                return new RangeResult(scanned[0], lines);
+            }
+            long mid = lo + (hi - lo) / 2;
+            PlanTask left = new PlanTask(lo, mid, supplierId, ranges);
+            left.fork();
+            RangeResult right = new PlanTask(mid + 1, hi, supplierId, ranges).compute();
+            RangeResult leftResult = left.join();
+            List<PlanLine> merged = new ArrayList<>(leftResult.lines().size() + right.lines().size());
+            merged.addAll(leftResult.lines());
+            merged.addAll(right.lines());
+            return new RangeResult(leftResult.booksScanned() + right.booksScanned(), merged);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.northgod.server.service;
+
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * 交易汇总表维护
+ *
+ * sales_rollup_daily / sales_rollup_monthly 按（日期或月份, 交易类型）保存笔数、数量和金额（分），
+ * 在交易创建和作废的同一个数据库事务中增量累加，日/月汇总查询只读取汇总行，与交易量无关。
+ * 同一个键拆分为 stripes 个 slot 行，每次写入随机选择一个 slot，避免并发交易争用同一行锁。
+ * 已结束日期的日汇总不再变化，读取一次后缓存在内存中，区间查询只对仍可能变化的日期访问数据库。
+ */
+@Service
+public class SalesRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesRollupService.class);
+
+    /**
+     * 一条语句同时累加日汇总和月汇总；输入按（日期, 类型）排序，多行写入时加锁顺序一致
+     */
+    private static final String UPSERT_SQL = """
+        WITH d AS (
+            SELECT * FROM unnest(?::date[], ?::varchar[], ?::bigint[], ?::bigint[], ?::bigint[])
+                AS d(day, transaction_type, txn_count, quantity, amount_cents)
+        ), daily AS (
+            INSERT INTO sales_rollup_daily AS r (day, transaction_type, slot, txn_count, quantity, amount_cents)
+            SELECT day, transaction_type, ?::smallint, txn_count, quantity, amount_cents FROM d
+            ON CONFLICT (day, transaction_type, slot) DO UPDATE SET
+                txn_count = r.txn_count + EXCLUDED.txn_count,
+                quantity = r.quantity + EXCLUDED.quantity,
+                amount_cents = r.amount_cents + EXCLUDED.amount_cents
+        )
+        INSERT INTO sales_rollup_monthly AS r (month, transaction_type, slot, txn_count, quantity, amount_cents)
+        SELECT date_trunc('month', day)::date, transaction_type, ?::smallint,
+               SUM(txn_count), SUM(quantity), SUM(amount_cents)
+        FROM d
+        GROUP BY 1, 2
+        ORDER BY 1, 2
+        ON CONFLICT (month, transaction_type, slot) DO UPDATE SET
+            txn_count = r.txn_count + EXCLUDED.txn_count,
+            quantity = r.quantity + EXCLUDED.quantity,
+            amount_cents = r.amount_cents + EXCLUDED.amount_cents
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TodayTransactionCounters todayCounters;
+    private final TransactionPartitionService partitionService;
+
+    /**
+     * 最近 closed-day-cache-days 个已结束日期的日汇总（按类型），不再变化，缓存后不再查询数据库；空表示当天没有交易。
+     * 更早的日期不缓存，每次直接查询汇总表（只返回有交易的日期），缓存大小与请求的日期跨度无关
+     */
+    private final ConcurrentSkipListMap<LocalDate, Map<TransactionType, Totals>> closedDays =
+            new ConcurrentSkipListMap<>();
+
+    @Value("${bookstore.rollup.stripes:8}")
+    private int stripes;
+
+    @Value("${bookstore.rollup.closed-day-grace-minutes:10}")
+    private int closedDayGraceMinutes;
+
+    @Value("${bookstore.rollup.closed-day-cache-days:400}")
+    private int closedDayCacheDays;
+
+    public SalesRollupService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                              TodayTransactionCounters todayCounters,
+                              TransactionPartitionService partitionService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.todayCounters = todayCounters;
+        this.partitionService = partitionService;
+    }
+
+    /**
+     * 汇总值：笔数、数量、金额（分）
+     */
+    public record Totals(long count, long quantity, long amountCents) {
+
+        public static final Totals ZERO = new Totals(0, 0, 0);
+    }
+
+    /**
+     * 汇总增量
+     */
+    public record RollupDelta(LocalDate day, TransactionType type, long count, long quantity, long amountCents) {
+    }
+
+    /**
+     * 交易创建：在当前数据库事务中累加（交易须已保存）
+     */
+    public void applyCreated(Collection<Transaction> transactions) {
+        apply(transactions.stream()
+                .map(t -> new RollupDelta(dayOf(t), t.getTransactionType(), 1, t.getQuantity(), t.getAmountCents()))
+                .toList());
+    }
+
+    /**
+     * 交易作废：从交易创建当天的汇总中扣除
+     */
+    public void applyVoided(Transaction transaction) {
+        apply(List.of(new RollupDelta(dayOf(transaction), transaction.getTransactionType(),
+                -1, -transaction.getQuantity(), -transaction.getAmountCents())));
+    }
+
+    /**
+     * 在当前数据库事务中累加汇总增量，相同（日期, 类型）先在内存中合并
+     */
+    public void apply(Collection<RollupDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        TreeMap<RollupKey, long[]> merged = new TreeMap<>(Comparator.comparing(RollupKey::day)
+                .thenComparing(key -> key.type().name()));
+        for (RollupDelta delta : deltas) {
+            long[] sums = merged.computeIfAbsent(new RollupKey(delta.day(), delta.type()), key -> new long[3]);
+            sums[0] += delta.count();
+            sums[1] += delta.quantity();
+            sums[2] += delta.amountCents();
+        }
+        int size = merged.size();
+        Date[] days = new Date[size];
+        String[] types = new String[size];
+        Long[] counts = new Long[size];
+        Long[] quantities = new Long[size];
+        Long[] amounts = new Long[size];
+        int i = 0;
+        for (Map.Entry<RollupKey, long[]> entry : merged.entrySet()) {
+            days[i] = Date.valueOf(entry.getKey().day());
+            types[i] = entry.getKey().type().name();
+            counts[i] = entry.getValue()[0];
+            quantities[i] = entry.getValue()[1];
+            amounts[i] = entry.getValue()[2];
+            i++;
+        }
+        LocalDate earliest = merged.firstKey().day();
+        LocalDate latest = merged.lastKey().day();
+        if (!closedDays.subMap(earliest, true, latest, true).isEmpty()) {
+            evictClosedDays(earliest, latest);
+        }
+        short slot = (short) ThreadLocalRandom.current().nextInt(stripes);
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(UPSERT_SQL);
+            ps.setArray(1, connection.createArrayOf("date", days));
+            ps.setArray(2, connection.createArrayOf("varchar", types));
+            ps.setArray(3, connection.createArrayOf("bigint", counts));
+            ps.setArray(4, connection.createArrayOf("bigint", quantities));
+            ps.setArray(5, connection.createArrayOf("bigint", amounts));
+            ps.setShort(6, slot);
+            ps.setShort(7, slot);
+            return ps;
+        });
+        todayCounters.recordApplied(deltas);
+    }
+
+    private record RollupKey(LocalDate day, TransactionType type) {
+    }
+
+    private static LocalDate dayOf(Transaction transaction) {
+        LocalDateTime createdAt = transaction.getCreatedAt();
+        return createdAt != null ? createdAt.toLocalDate() : LocalDate.now();
+    }
+
+    /**
+     * 某月按交易类型的汇总（读取 类型数 × slot 数 行）
+     */
+    public Map<TransactionType, Totals> getMonth(YearMonth month) {
+        Map<TransactionType, Totals> totals = new EnumMap<>(TransactionType.class);
+        jdbcTemplate.query("""
+            SELECT transaction_type, SUM(txn_count), SUM(quantity), SUM(amount_cents)
+            FROM sales_rollup_monthly
+            WHERE month = ?
+            GROUP BY transaction_type
+        """, rs -> {
+            totals.put(TransactionType.valueOf(rs.getString(1)),
+                    new Totals(rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+        }, Date.valueOf(month.atDay(1)));
+        return totals;
+    }
+
+    /**
+     * 日期区间（含两端）内每天按交易类型的汇总，按日期倒序；没有交易的日期不出现
+     * 最近已结束的日期取自内存缓存（缺失的日期用一次区间查询补齐后缓存），
+     * 更早的日期和仍可能变化的日期每次查询汇总表
+     */
+    public Map<LocalDate, Map<TransactionType, Totals>> getDays(LocalDate startDate, LocalDate endDate) {
+        Map<LocalDate, Map<TransactionType, Totals>> days = new TreeMap<>(Comparator.reverseOrder());
+        LocalDate lastClosed = lastClosedDay();
+        LocalDate cacheStart = lastClosed.minusDays(closedDayCacheDays - 1L);
+        // 跨过零点后滑出缓存窗口的日期
+        closedDays.headMap(cacheStart).clear();
+        if (startDate.isBefore(cacheStart)) {
+            LocalDate uncachedEnd = endDate.isBefore(cacheStart) ? endDate : cacheStart.minusDays(1);
+            days.putAll(queryDays(startDate, uncachedEnd));
+        }
+        LocalDate cachedStart = startDate.isBefore(cacheStart) ? cacheStart : startDate;
+        if (!cachedStart.isAfter(lastClosed) && !cachedStart.isAfter(endDate)) {
+            LocalDate closedEnd = endDate.isBefore(lastClosed) ? endDate : lastClosed;
+            LocalDate missingFrom = null;
+            LocalDate missingTo = null;
+            for (LocalDate day = cachedStart; !day.isAfter(closedEnd); day = day.plusDays(1)) {
+                if (!closedDays.containsKey(day)) {
+                    if (missingFrom == null) {
+                        missingFrom = day;
+                    }
+                    missingTo = day;
+                }
+            }
+            if (missingFrom != null) {
+                Map<LocalDate, Map<TransactionType, Totals>> loaded = queryDays(missingFrom, missingTo);
+                for (LocalDate day = missingFrom; !day.isAfter(missingTo); day = day.plusDays(1)) {
+                    closedDays.putIfAbsent(day, loaded.getOrDefault(day, Map.of()));
+                }
+            }
+            closedDays.subMap(cachedStart, true, closedEnd, true).forEach((day, totals) -> {
+                if (!totals.isEmpty()) {
+                    days.put(day, totals);
+                }
+            });
+        }
+        LocalDate openStart = startDate.isAfter(lastClosed) ? startDate : lastClosed.plusDays(1);
+        if (!openStart.isAfter(endDate)) {
+            days.putAll(queryDays(openStart, endDate));
+        }
+        return days;
+    }
+
+    /**
+     * 最近一个已结束且超过宽限时间的日期，此前的日汇总不再变化（只有当天的交易可以作废）。
+     * 宽限时间覆盖跨零点提交、created_at 仍为前一天的交易
+     */
+    private LocalDate lastClosedDay() {
+        return LocalDateTime.now().minusMinutes(closedDayGraceMinutes).toLocalDate().minusDays(1);
+    }
+
+    private Map<LocalDate, Map<TransactionType, Totals>> queryDays(LocalDate startDate, LocalDate endDate) {
+        Map<LocalDate, Map<TransactionType, Totals>> days = new HashMap<>();
+        jdbcTemplate.query("""
+            SELECT day, transaction_type, SUM(txn_count), SUM(quantity), SUM(amount_cents)
+            FROM sales_rollup_daily
+            WHERE day BETWEEN ? AND ?
+            GROUP BY day, transaction_type
+        """, rs -> {
+            days.computeIfAbsent(rs.getDate(1).toLocalDate(), day -> new EnumMap<>(TransactionType.class))
+                    .put(TransactionType.valueOf(rs.getString(2)),
+                            new Totals(rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+        }, Date.valueOf(startDate), Date.valueOf(endDate));
+        days.replaceAll((day, totals) -> Collections.unmodifiableMap(totals));
+        return days;
+    }
+
+    /**
+     * 已缓存的日期被改写时（重建汇总，或宽限时间之后仍写入了旧日期）在提交后移除缓存
+     */
+    private void evictClosedDays(LocalDate from, LocalDate to) {
+        Runnable evict = () -> closedDays.subMap(from, true, to, true).clear();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        } else {
+            evict.run();
+        }
+    }
+
+    public Totals getDay(LocalDate day, TransactionType type) {
+        return getDays(day, day).getOrDefault(day, Map.of()).getOrDefault(type, Totals.ZERO);
+    }
+
+    /**
+     * 从交易表重建汇总（用于首次启用时回填，或修复汇总数据）
+     * 区间按整月对齐；from/to 为空时重建全部。重建期间以排他锁阻塞并发的汇总写入，
+     * 被阻塞的交易在重建提交后再累加，既不会重复也不会遗漏。
+     * 已归档（分区已分离）的月份在交易表中没有数据，跳过这些月份，保留其原有汇总。
+     */
+    public Map<String, Object> rebuild(LocalDate from, LocalDate to) {
+        LocalDate start = from != null ? from.withDayOfMonth(1) : LocalDate.of(1970, 1, 1);
+        LocalDate end = to != null ? to.withDayOfMonth(1).plusMonths(1) : LocalDate.of(9999, 1, 1);
+        long begin = System.nanoTime();
+        LocalDate today = LocalDate.now();
+        boolean coversToday = !today.isBefore(start) && today.isBefore(end);
+        List<YearMonth> archived = partitionService.listArchivedMonths().stream()
+                .filter(month -> !month.atDay(1).isBefore(start) && month.atDay(1).isBefore(end))
+                .toList();
+        int[] rows;
+        try {
+            rows = rebuildInTransaction(start, end, coversToday, archived);
+        } catch (RuntimeException e) {
+            if (coversToday) {
+                // 事务内已换上重建结果的计数器，回滚后按原汇总重新载入
+                todayCounters.reload();
+            }
+            throw e;
+        }
+        closedDays.subMap(start, true, end, false).clear();
+        long elapsedMs = (System.nanoTime() - begin) / 1_000_000;
+        logger.info("交易汇总重建完成，区间: [{}, {}), 日汇总: {} 行, 月汇总: {} 行, 跳过已归档月份: {}, 耗时: {} ms",
+                start, end, rows[0], rows[1], archived, elapsedMs);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("from", from != null ? start : null);
+        result.put("to", to != null ? end.minusDays(1) : null);
+        result.put("dailyRows", rows[0]);
+        result.put("monthlyRows", rows[1]);
+        result.put("skippedArchivedMonths", archived.stream().map(YearMonth::toString).toList());
+        result.put("elapsedMs", elapsedMs);
+        return result;
+    }
+
+    private int[] rebuildInTransaction(LocalDate start, LocalDate end, boolean coversToday, List<YearMonth> archived) {
+        // 已归档月份的月初日期（PostgreSQL 数组字面量）
+        String skipped = archived.stream().map(month -> month.atDay(1).toString())
+                .collect(Collectors.joining(",", "{", "}"));
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE sales_rollup_daily, sales_rollup_monthly IN EXCLUSIVE MODE");
+            jdbcTemplate.update("""
+                DELETE FROM sales_rollup_daily
+                WHERE day >= ? AND day < ? AND date_trunc('month', day)::date <> ALL (CAST(? AS date[]))
+            """, Date.valueOf(start), Date.valueOf(end), skipped);
+            jdbcTemplate.update("""
+                DELETE FROM sales_rollup_monthly
+                WHERE month >= ? AND month < ? AND month <> ALL (CAST(? AS date[]))
+            """, Date.valueOf(start), Date.valueOf(end), skipped);
+            int daily = jdbcTemplate.update("""
+                INSERT INTO sales_rollup_daily (day, transaction_type, slot, txn_count, quantity, amount_cents)
+                SELECT created_at::date, transaction_type, 0, COUNT(*), SUM(quantity), SUM(amount_cents)
+                FROM transaction
+                WHERE created_at >= ? AND created_at < ? AND voided_at IS NULL
+                  AND date_trunc('month', created_at)::date <> ALL (CAST(? AS date[]))
+                GROUP BY 1, 2
+            """, start.atStartOfDay(), end.atStartOfDay(), skipped);
+            int monthly = jdbcTemplate.update("""
+                INSERT INTO sales_rollup_monthly (month, transaction_type, slot, txn_count, quantity, amount_cents)
+                SELECT date_trunc('month', day)::date, transaction_type, 0,
+                       SUM(txn_count), SUM(quantity), SUM(amount_cents)
+                FROM sales_rollup_daily
+                WHERE day >= ? AND day < ? AND date_trunc('month', day)::date <> ALL (CAST(? AS date[]))
+                GROUP BY 1, 2
+            """, Date.valueOf(start), Date.valueOf(end), skipped);
+            if (coversToday) {
+                // 仍持有排他锁，并发交易的汇总写入在提交后才会继续，计数器与重建结果一致
+                todayCounters.reload();
+            }
+            return new int[]{daily, monthly};
+        });
+    }
+
+    /**
+     * 启动回填：汇总表为空而交易表已有数据时（首次启用）全量重建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        Boolean needed = jdbcTemplate.queryForObject(
+                "SELECT NOT EXISTS (SELECT 1 FROM sales_rollup_monthly) AND EXISTS (SELECT 1 FROM transaction)",
+                Boolean.class);
+        if (Boolean.TRUE.equals(needed)) {
+            logger.info("交易汇总表为空，开始从交易表回填");
+            rebuild(null, null);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.ChangeEventType;
+import com.northgod.server.event.ChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 每本书的滚动日销量索引（进程内）
+ *
+ * 每本有销售的书籍对应一个按天的环形 int 数组，保留最近 days 天的销量，推荐进货等按书籍查询近期销量的
+ * 场景直接从内存求和，不再查询交易表。销售提交后由发件箱中继投递的交易事件累加，销售作废时从原日期扣除；
+ * 启动时从交易表重建。
+ */
+@Service
+public class SalesVelocityIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesVelocityIndex.class);
+
+    private static final int RECENT_EVENT_IDS = 4096;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Long, DailySeries> series = new ConcurrentHashMap<>();
+
+    /** 最近处理过的事件ID，中继重投时跳过（至少一次投递） */
+    private final Map<Long, Boolean> recentEventIds = new LinkedHashMap<>(RECENT_EVENT_IDS, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > RECENT_EVENT_IDS;
+        }
+    };
+
+    /** 重建完成前已由事件计入的交易ID，重建时排除以免重复计数 */
+    private Set<Long> countedBeforeRebuild = new HashSet<>();
+    /** 重建完成前收到作废事件、但销售本身尚未计入的交易ID，重建时排除（作废事件不再扣减） */
+    private Set<Long> voidedBeforeRebuild = new HashSet<>();
+    private volatile boolean ready;
+
+    private final int days;
+
+    public SalesVelocityIndex(JdbcTemplate jdbcTemplate,
+                              @Value("${bookstore.sales-velocity.days:90}") int days) {
+        this.jdbcTemplate = jdbcTemplate;
+        // 推荐进货需要最近30天（含今天），补货预测只取今天之前的完整日，因此至少保留31天，上限90天
+        this.days = Math.clamp(days, 31, 90);
+    }
+
+    @EventListener
+    public void onChange(ChangeEvent event) {
+        boolean created = event.type() == ChangeEventType.TRANSACTION_CREATED;
+        if (!created && event.type() != ChangeEventType.TRANSACTION_VOIDED) {
+            return;
+        }
+        if (!"SALE".equals(event.stringValue("transactionType"))) {
+            return;
+        }
+        Long bookId = event.longValue("bookId");
+        Integer quantity = event.intValue("quantity");
+        String createdAt = event.stringValue("createdAt");
+        if (bookId == null || quantity == null || createdAt == null) {
+            return;
+        }
+        long day = LocalDateTime.parse(createdAt).toLocalDate().toEpochDay();
+        synchronized (this) {
+            if (recentEventIds.put(event.id(), Boolean.TRUE) != null) {
+                return;
+            }
+            if (!ready) {
+                if (created) {
+                    countedBeforeRebuild.add(event.aggregateId());
+                } else if (!countedBeforeRebuild.contains(event.aggregateId())) {
+                    voidedBeforeRebuild.add(event.aggregateId());
+                    return;
+                }
+            }
+            add(bookId, day, created ? quantity : -quantity);
+        }
+    }
+
+    /**
+     * 启动重建：从交易表载入最近 days 天已投递的销售（仍在发件箱中等待投递的由事件计入）。
+     * 已作废的销售只有在作废事件仍待投递时才载入，由之后投递的作废事件扣除，与列式分析数据的载入规则一致
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        LocalDate since = LocalDate.now().minusDays(days - 1);
+        int[] rows = {0};
+        long begin = System.nanoTime();
+        synchronized (this) {
+            Long[] excluded = countedBeforeRebuild.toArray(new Long[0]);
+            Long[] voidedExcluded = voidedBeforeRebuild.toArray(new Long[0]);
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("""
+                    SELECT t.book_id, t.created_at::date, SUM(t.quantity)
+                    FROM transaction t
+                    WHERE t.transaction_type = 'SALE' AND t.created_at >= ?
+                      AND t.id <> ALL(?)
+                      AND NOT EXISTS (
+                          SELECT 1 FROM outbox_event o
+                          WHERE o.published_at IS NULL AND o.event_type = 'TRANSACTION_CREATED'
+                            AND o.aggregate_id = t.id)
+                      AND (t.voided_at IS NULL OR (t.id <> ALL(?) AND EXISTS (
+                          SELECT 1 FROM outbox_event o
+                          WHERE o.published_at IS NULL AND o.event_type = 'TRANSACTION_VOIDED'
+                            AND o.aggregate_id = t.id)))
+                    GROUP BY 1, 2
+                """);
+                ps.setDate(1, Date.valueOf(since));
+                ps.setArray(2, connection.createArrayOf("bigint", excluded));
+                ps.setArray(3, connection.createArrayOf("bigint", voidedExcluded));
+                return ps;
+            }, rs -> {
+                add(rs.getLong(1), rs.getDate(2).toLocalDate().toEpochDay(), rs.getInt(3));
+                rows[0]++;
+            });
+            ready = true;
+            countedBeforeRebuild = Set.of();
+            voidedBeforeRebuild = Set.of();
+        }
+        logger.info("书籍日销量索引重建完成，{} 本书籍，{} 个书籍日，保留 {} 天，耗时: {} ms",
+                series.size(), rows[0], days, (System.nanoTime() - begin) / 1_000_000);
+    }
+
+    /**
+     * 书籍在最近 lastDays 天（含今天）的销量
+     */
+    public int getRecentSales(long bookId, int lastDays) {
+        DailySeries bookSeries = series.get(bookId);
+        if (bookSeries == null) {
+            return 0;
+        }
+        return bookSeries.sum(LocalDate.now().toEpochDay(), Math.min(lastDays, days));
+    }
+
+    /**
+     * 书籍最近 lastDays 天（含今天）每天的销量，按日期从早到晚
+     */
+    public int[] getDailySales(long bookId, int lastDays) {
+        int length = Math.min(lastDays, days);
+        DailySeries bookSeries = series.get(bookId);
+        return bookSeries == null ? new int[length] : bookSeries.copy(LocalDate.now().toEpochDay(), length);
+    }
+
+    /**
+     * 书籍截至昨天、最近 lastDays 个完整日的销量，按日期从早到晚（不含仍在累计中的今天）
+     */
+    public int[] getCompletedDailySales(long bookId, int lastDays) {
+        int length = Math.min(lastDays, days - 1);
+        DailySeries bookSeries = series.get(bookId);
+        return bookSeries == null ? new int[length]
+                : bookSeries.copy(LocalDate.now().minusDays(1).toEpochDay(), length);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getRetainedDays() {
+        return days;
+    }
+
+    private void add(long bookId, long day, int quantity) {
+        series.computeIfAbsent(bookId, id -> new DailySeries(days)).add(day, quantity);
+    }
+
+    /**
+     * 单本书籍的日销量环形数组：slot = epochDay % 长度，newestDay 之后的日期写入时清零经过的槽位
+     */
+    private static final class DailySeries {
+
+        private final int[] quantities;
+        private long newestDay = Long.MIN_VALUE;
+
+        DailySeries(int days) {
+            this.quantities = new int[days];
+        }
+
+        synchronized void add(long day, int quantity) {
+            int length = quantities.length;
+            if (newestDay == Long.MIN_VALUE) {
+                newestDay = day;
+            } else if (day > newestDay) {
+                advance(day);
+            } else if (day <= newestDay - length) {
+                // 超出保留天数
+                return;
+            }
+            quantities[(int) Math.floorMod(day, (long) length)] += quantity;
+        }
+
+        synchronized int sum(long today, int lastDays) {
+            int total = 0;
+            for (long day = today - lastDays + 1; day <= today; day++) {
+                total += get(day);
+            }
+            return total;
+        }
+
+        synchronized int[] copy(long today, int lastDays) {
+            int[] result = new int[lastDays];
+            for (int i = 0; i < lastDays; i++) {
+                result[i] = get(today - lastDays + 1 + i);
+            }
+            return result;
+        }
+
+        private int get(long day) {
+            if (day > newestDay || day <= newestDay - quantities.length) {
+                return 0;
+            }
+            return quantities[(int) Math.floorMod(day, (long) quantities.length)];
+        }
+
+        private void advance(long day) {
+            int length = quantities.length;
+            long from = Math.max(newestDay + 1, day - length + 1);
+            for (long d = from; d <= day; d++) {
+                quantities[(int) Math.floorMod(d, (long) length)] = 0;
+            }
+            newestDay = day;
+        }
+    }
+}
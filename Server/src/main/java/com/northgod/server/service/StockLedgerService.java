@@ -0,0 +1,443 @@
+package com.northgod.server.service;
+
+import com.northgod.server.entity.Book;
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.StockMovementReason;
+import com.northgod.server.exception.BusinessException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 库存流水账本
+ *
+ * 所有库存变化（交易、作废、盘点、手工修改、新书入库）都在同一个数据库事务中追加一条只读流水，
+ * 定时任务把截至某一时刻的流水按书籍滚动汇总为快照，书籍库存 = 快照 + 快照之后的流水合计。
+ * 对账任务按书籍ID区间以 fork/join 并行扫描，用流水重新计算每本书的库存并与书籍表比对，报告偏差。
+ *
+ * 热销书籍的交易在提交时即写入流水，而书籍行在回写后才更新，
+ * 因此比对时书籍表一侧的库存按"书籍行 + 待回写变化量"计算。
+ */
+@Service
+public class StockLedgerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockLedgerService.class);
+
+    /**
+     * 批量追加流水（数组参数，SQL文本与行数无关；每次 nextval 占用一整段主键）
+     */
+    private static final String APPEND_SQL = """
+        INSERT INTO stock_movement (id, book_id, delta, reason, transaction_id, created_at)
+        SELECT nextval('stock_movement_id_seq'), m.book_id, m.delta, m.reason, m.transaction_id, CURRENT_TIMESTAMP
+        FROM unnest(?::bigint[], ?::int[], ?::varchar[], ?::bigint[]) AS m(book_id, delta, reason, transaction_id)
+        WHERE m.delta <> 0
+    """;
+
+    private static final String PENDING_DELTA = """
+        SELECT book_id, SUM(CASE WHEN transaction_type IN ('SALE', 'ADJUST_OUT') THEN -quantity
+                                 ELSE quantity END) AS delta
+        FROM transaction
+        WHERE stock_pending = true
+    """;
+
+    /**
+     * 账本为空时（已有数据库首次启用）以当前库存写入期初余额
+     */
+    private static final String OPENING_SQL = """
+        INSERT INTO stock_movement (id, book_id, delta, reason, transaction_id, created_at)
+        SELECT nextval('stock_movement_id_seq'), b.id, b.stock_quantity + COALESCE(p.delta, 0), 'OPENING', NULL,
+               CURRENT_TIMESTAMP
+        FROM book b
+        LEFT JOIN (%s GROUP BY book_id) p ON p.book_id = b.id
+        WHERE NOT EXISTS (SELECT 1 FROM stock_movement)
+          AND b.stock_quantity + COALESCE(p.delta, 0) <> 0
+    """.formatted(PENDING_DELTA);
+
+    /**
+     * 快照截止时间：流水的时间戳是所在事务的开始时间（CURRENT_TIMESTAMP），尚未提交的事务可能在截止时间之后才提交
+     * 却带着更早的时间戳，因此取"当前时间减 snapshot-lag-minutes"与本库中仍在运行的最早事务开始时间两者中较早的一个，
+     * 任何尚未提交的流水都不早于截止时间，不论事务（如大批量导入）运行多久。
+     * 须在快照语句之前单独执行：此时已不在运行的事务都已提交，对随后的快照语句可见
+     */
+    private static final String CUTOFF_SQL = """
+        SELECT LEAST(LOCALTIMESTAMP - make_interval(mins => ?),
+                     (SELECT MIN(a.xact_start)::timestamp FROM pg_stat_activity a
+                      WHERE a.datname = current_database() AND a.pid <> pg_backend_pid()
+                        AND a.xact_start IS NOT NULL))
+    """;
+
+    /**
+     * 按书籍滚动快照：只汇总上次快照之后、截止时间之前的流水
+     */
+    private static final String SNAPSHOT_SQL = """
+        WITH cutoff AS (SELECT CAST(? AS timestamp) AS at)
+        INSERT INTO stock_snapshot (book_id, quantity, as_of, updated_at)
+        SELECT m.book_id, COALESCE(s.quantity, 0) + SUM(m.delta), c.at, CURRENT_TIMESTAMP
+        FROM stock_movement m
+        CROSS JOIN cutoff c
+        LEFT JOIN stock_snapshot s ON s.book_id = m.book_id
+        WHERE m.created_at < c.at AND (s.as_of IS NULL OR m.created_at >= s.as_of)
+        GROUP BY m.book_id, s.quantity, c.at
+        ON CONFLICT (book_id) DO UPDATE SET
+            quantity = EXCLUDED.quantity,
+            as_of = EXCLUDED.as_of,
+            updated_at = EXCLUDED.updated_at
+    """;
+
+    /**
+     * 单个书籍ID区间的对账（单条语句，书籍行、流水和待回写标记取自同一个MVCC快照）
+     * 快照模式与全量模式只在流水过滤条件（第一个占位）和快照数量项（第三个占位）上不同
+     */
+    private static final String RECONCILE_TEMPLATE = """
+        WITH tail AS (
+            SELECT m.book_id, SUM(m.delta) AS delta
+            FROM stock_movement m
+            LEFT JOIN stock_snapshot s ON s.book_id = m.book_id
+            WHERE m.book_id BETWEEN ? AND ? %s
+            GROUP BY m.book_id
+        ), pending AS (
+            %s AND book_id BETWEEN ? AND ?
+            GROUP BY book_id
+        ), compared AS (
+            SELECT b.id, b.stock_quantity + COALESCE(p.delta, 0) AS recorded,
+                   %s + COALESCE(t.delta, 0) AS ledger
+            FROM book b
+            LEFT JOIN stock_snapshot s ON s.book_id = b.id
+            LEFT JOIN tail t ON t.book_id = b.id
+            LEFT JOIN pending p ON p.book_id = b.id
+            WHERE b.id BETWEEN ? AND ?
+        )
+        SELECT id, recorded, ledger FROM compared WHERE recorded <> ledger ORDER BY id
+    """;
+
+    private static final String RECONCILE_SNAPSHOT_SQL = RECONCILE_TEMPLATE.formatted(
+            "AND (s.as_of IS NULL OR m.created_at >= s.as_of)", PENDING_DELTA, "COALESCE(s.quantity, 0)");
+
+    private static final String RECONCILE_FULL_SQL = RECONCILE_TEMPLATE.formatted(
+            "", PENDING_DELTA, "0");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+    private final AtomicInteger lastDriftBooks = new AtomicInteger();
+    private volatile Map<String, Object> lastReport;
+
+    @Value("${bookstore.stock-ledger.snapshot-lag-minutes:10}")
+    private int snapshotLagMinutes;
+
+    @Value("${bookstore.stock-ledger.reconcile-chunk-size:10000}")
+    private long reconcileChunkSize;
+
+    @Value("${bookstore.stock-ledger.reconcile-parallelism:4}")
+    private int reconcileParallelism;
+
+    @Value("${bookstore.stock-ledger.max-reported-drifts:1000}")
+    private int maxReportedDrifts;
+
+    public StockLedgerService(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        Gauge.builder("bookstore.stock_ledger.drift_books", lastDriftBooks, AtomicInteger::get)
+                .description("最近一次库存对账发现偏差的书籍数量")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 库存流水
+     *
+     * @param transactionId 关联的交易记录ID（作废冲销时为被作废的交易），无关联时为null
+     */
+    public record Movement(Long bookId, int delta, StockMovementReason reason, Long transactionId) {
+    }
+
+    /**
+     * 在当前数据库事务中追加流水，变化量为0的条目忽略
+     */
+    public void append(Collection<Movement> movements) {
+        if (movements.isEmpty()) {
+            return;
+        }
+        Long[] bookIds = new Long[movements.size()];
+        Integer[] deltas = new Integer[movements.size()];
+        String[] reasons = new String[movements.size()];
+        Long[] transactionIds = new Long[movements.size()];
+        int i = 0;
+        for (Movement movement : movements) {
+            bookIds[i] = movement.bookId();
+            deltas[i] = movement.delta();
+            reasons[i] = movement.reason().name();
+            transactionIds[i] = movement.transactionId();
+            i++;
+        }
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(APPEND_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", bookIds));
+            ps.setArray(2, connection.createArrayOf("integer", deltas));
+            ps.setArray(3, connection.createArrayOf("varchar", reasons));
+            ps.setArray(4, connection.createArrayOf("bigint", transactionIds));
+            return ps;
+        });
+    }
+
+    public void record(Long bookId, int delta, StockMovementReason reason, Long transactionId) {
+        append(List.of(new Movement(bookId, delta, reason, transactionId)));
+    }
+
+    /**
+     * 为已保存（已分配ID）的交易记录追加对应的库存流水
+     */
+    public void recordTransactions(Collection<Transaction> transactions) {
+        List<Movement> movements = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            movements.add(new Movement(transaction.getBook().getId(), stockDelta(transaction),
+                    StockMovementReason.of(transaction.getTransactionType()), transaction.getId()));
+        }
+        append(movements);
+    }
+
+    /**
+     * 新建书籍的初始库存记为新书入库流水
+     */
+    public void recordInitialStock(Collection<Book> books) {
+        List<Movement> movements = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (book.getStockQuantity() != null) {
+                movements.add(new Movement(book.getId(), book.getStockQuantity(), StockMovementReason.INITIAL, null));
+            }
+        }
+        append(movements);
+    }
+
+    /**
+     * 交易对库存的影响（销售、盘亏减少库存，其余增加）
+     */
+    public static int stockDelta(Transaction transaction) {
+        return switch (transaction.getTransactionType()) {
+            case SALE, ADJUST_OUT -> -transaction.getQuantity();
+            case PURCHASE, RETURN, ADJUST_IN -> transaction.getQuantity();
+        };
+    }
+
+    /**
+     * 启用账本：流水表为空时按当前库存写入期初余额
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void openLedger() {
+        int opened = jdbcTemplate.update(OPENING_SQL);
+        if (opened > 0) {
+            logger.info("库存流水账本已启用，写入期初余额: {} 本书籍", opened);
+        }
+    }
+
+    /**
+     * 定时滚动库存快照
+     */
+    @Scheduled(cron = "${bookstore.stock-ledger.snapshot-cron:0 30 2 * * *}")
+    public void scheduledSnapshot() {
+        takeSnapshot();
+    }
+
+    /**
+     * 把截止时间之前的新增流水合并到各书籍的快照中
+     *
+     * @return 快照被更新的书籍数量
+     */
+    public int takeSnapshot() {
+        long start = System.nanoTime();
+        LocalDateTime cutoff = jdbcTemplate.queryForObject(CUTOFF_SQL, LocalDateTime.class, snapshotLagMinutes);
+        int updated = jdbcTemplate.update(SNAPSHOT_SQL, cutoff);
+        logger.info("库存快照完成，截止: {}, 更新书籍: {}, 耗时: {} ms", cutoff, updated,
+                (System.nanoTime() - start) / 1_000_000);
+        return updated;
+    }
+
+    /**
+     * 查询单本书籍的账本库存：快照 + 快照之后的流水，与书籍表库存对照
+     */
+    public Map<String, Object> getLedgerStock(Long bookId) {
+        Map<String, Object> result = jdbcTemplate.query("""
+            SELECT b.stock_quantity + COALESCE((
+                       SELECT SUM(CASE WHEN t.transaction_type IN ('SALE', 'ADJUST_OUT') THEN -t.quantity
+                                       ELSE t.quantity END)
+                       FROM transaction t WHERE t.stock_pending = true AND t.book_id = b.id), 0) AS recorded,
+                   s.quantity, s.as_of,
+                   (SELECT COALESCE(SUM(m.delta), 0) FROM stock_movement m
+                    WHERE m.book_id = b.id AND (s.as_of IS NULL OR m.created_at >= s.as_of)) AS tail_delta,
+                   (SELECT COUNT(*) FROM stock_movement m
+                    WHERE m.book_id = b.id AND (s.as_of IS NULL OR m.created_at >= s.as_of)) AS tail_count
+            FROM book b
+            LEFT JOIN stock_snapshot s ON s.book_id = b.id
+            WHERE b.id = ?
+        """, rs -> {
+            if (!rs.next()) {
+                throw new BusinessException("BOOK_NOT_FOUND", "书籍不存在");
+            }
+            int snapshotQuantity = rs.getInt(2);
+            long ledgerQuantity = snapshotQuantity + rs.getLong(4);
+            Map<String, Object> ledger = new LinkedHashMap<>();
+            ledger.put("bookId", bookId);
+            ledger.put("recordedQuantity", rs.getInt(1));
+            ledger.put("snapshotQuantity", snapshotQuantity);
+            ledger.put("snapshotAsOf", rs.getObject(3, LocalDateTime.class));
+            ledger.put("tailDelta", rs.getLong(4));
+            ledger.put("tailMovements", rs.getLong(5));
+            ledger.put("ledgerQuantity", ledgerQuantity);
+            ledger.put("drift", rs.getInt(1) - ledgerQuantity);
+            return ledger;
+        }, bookId);
+
+        List<Map<String, Object>> recent = jdbcTemplate.query("""
+            SELECT id, delta, reason, transaction_id, created_at FROM stock_movement
+            WHERE book_id = ?
+            ORDER BY created_at DESC, id DESC
+            LIMIT 20
+        """, (rs, rowNum) -> {
+            Map<String, Object> movement = new LinkedHashMap<>();
+            movement.put("id", rs.getLong(1));
+            movement.put("delta", rs.getInt(2));
+            movement.put("reason", rs.getString(3));
+            movement.put("transactionId", rs.getObject(4, Long.class));
+            movement.put("createdAt", rs.getObject(5, LocalDateTime.class));
+            return movement;
+        }, bookId);
+        result.put("recentMovements", recent);
+        return result;
+    }
+
+    /**
+     * 定时对账（快照模式）
+     */
+    @Scheduled(cron = "${bookstore.stock-ledger.reconcile-cron:0 0 3 * * *}")
+    public void scheduledReconcile() {
+        try {
+            reconcile(false);
+        } catch (BusinessException e) {
+            logger.warn("跳过定时库存对账: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 用流水重新计算每本书的库存并与书籍表比对
+     *
+     * @param fullScan true 时忽略快照，从全部流水重新累加（同时校验快照本身）；false 时使用快照 + 流水尾部
+     * @return 对账报告
+     */
+    public Map<String, Object> reconcile(boolean fullScan) {
+        if (!reconciling.compareAndSet(false, true)) {
+            throw new BusinessException("RECONCILIATION_RUNNING", "库存对账正在进行中，请稍后再试");
+        }
+        try {
+            LocalDateTime startedAt = LocalDateTime.now();
+            long start = System.nanoTime();
+            Map<String, Object> bounds = jdbcTemplate.queryForMap(
+                    "SELECT MIN(id) AS lo, MAX(id) AS hi, COUNT(*) AS books FROM book");
+            AtomicInteger ranges = new AtomicInteger();
+            List<StockDrift> drifts = List.of();
+            if (bounds.get("lo") != null) {
+                String sql = fullScan ? RECONCILE_FULL_SQL : RECONCILE_SNAPSHOT_SQL;
+                long lo = ((Number) bounds.get("lo")).longValue();
+                long hi = ((Number) bounds.get("hi")).longValue();
+                try (ForkJoinPool pool = new ForkJoinPool(reconcileParallelism)) {
+                    drifts = pool.invoke(new ReconcileTask(sql, lo, hi, ranges));
+                }
+            }
+
+            long totalAbsoluteDrift = 0;
+            List<Map<String, Object>> reported = new ArrayList<>();
+            for (StockDrift drift : drifts) {
+                totalAbsoluteDrift += Math.abs(drift.recorded() - drift.ledger());
+                if (reported.size() < maxReportedDrifts) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("bookId", drift.bookId());
+                    row.put("recordedQuantity", drift.recorded());
+                    row.put("ledgerQuantity", drift.ledger());
+                    row.put("drift", drift.recorded() - drift.ledger());
+                    reported.add(row);
+                }
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("mode", fullScan ? "FULL" : "SNAPSHOT");
+            report.put("startedAt", startedAt);
+            report.put("elapsedMs", elapsedMs);
+            report.put("booksScanned", ((Number) bounds.get("books")).longValue());
+            report.put("rangeTasks", ranges.get());
+            report.put("driftBooks", drifts.size());
+            report.put("totalAbsoluteDrift", totalAbsoluteDrift);
+            report.put("drifts", reported);
+            lastReport = report;
+            lastDriftBooks.set(drifts.size());
+
+            if (drifts.isEmpty()) {
+                logger.info("库存对账完成（{}），书籍: {}, 无偏差, 耗时: {} ms",
+                        report.get("mode"), report.get("booksScanned"), elapsedMs);
+            } else {
+                logger.warn("库存对账完成（{}），书籍: {}, 偏差书籍: {}, 偏差合计: {}, 耗时: {} ms",
+                        report.get("mode"), report.get("booksScanned"), drifts.size(), totalAbsoluteDrift, elapsedMs);
+            }
+            return report;
+        } finally {
+            reconciling.set(false);
+        }
+    }
+
+    public Map<String, Object> getLastReconciliation() {
+        return lastReport;
+    }
+
+    private record StockDrift(long bookId, long recorded, long ledger) {
+    }
+
+    /**
+     * 按书籍ID区间二分拆分，区间足够小时执行一次区间对账查询
+     */
+    private final class ReconcileTask extends RecursiveTask<List<StockDrift>> {
+
+        private final String sql;
+        private final long lo;
+        private final long hi;
+        private final AtomicInteger ranges;
+
+        ReconcileTask(String sql, long lo, long hi, AtomicInteger ranges) {
+            this.sql = sql;
+            this.lo = lo;
+            this.hi = hi;
+            this.ranges = ranges;
+        }
+
+        @Override
+        protected List<StockDrift> compute() {
+            if (hi - lo < reconcileChunkSize) {
+                ranges.incrementAndGet();
+                return jdbcTemplate.query(sql,
+                        (rs, rowNum) -> new StockDrift(rs.getLong(1), rs.getLong(2), rs.getLong(3)),
+                        lo, hi, lo, hi, lo, hi);
+            }
+            long mid = lo + (hi - lo) / 2;
+            ReconcileTask left = new ReconcileTask(sql, lo, mid, ranges);
+            left.fork();
+            List<StockDrift> right = new ReconcileTask(sql, mid + 1, hi, ranges).compute();
+            List<StockDrift> merged = new ArrayList<>(left.join());
+            merged.addAll(right);
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.TransactionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 今日交易计数器（进程内，读取不访问数据库）
+ *
+ * 按交易类型用 LongAdder 累计今天的笔数、数量和金额（分），与日汇总表同源：汇总表每次写入后，
+ * 在事务提交时把同样的增量加到计数器上（作废为负增量）。跨过零点后第一次读写时换成新的一天，
+ * 另有零点的定时任务主动切换。启动时、以及重建汇总覆盖今天时，从日汇总表重新载入。
+ */
+@Service
+public class TodayTransactionCounters implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(TodayTransactionCounters.class);
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AtomicReference<DayCounters> current = new AtomicReference<>(new DayCounters(LocalDate.now()));
+
+    public TodayTransactionCounters(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 一天的计数器，按交易类型序号索引
+     */
+    private static final class DayCounters {
+
+        final LocalDate day;
+        final LongAdder[] counts = newAdders();
+        final LongAdder[] quantities = newAdders();
+        final LongAdder[] amounts = newAdders();
+
+        DayCounters(LocalDate day) {
+            this.day = day;
+        }
+
+        void add(TransactionType type, long count, long quantity, long amountCents) {
+            counts[type.ordinal()].add(count);
+            quantities[type.ordinal()].add(quantity);
+            amounts[type.ordinal()].add(amountCents);
+        }
+
+        private static LongAdder[] newAdders() {
+            LongAdder[] adders = new LongAdder[TYPES.length];
+            for (int i = 0; i < adders.length; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        reload();
+    }
+
+    /**
+     * 零点切换到新的一天（即使当时没有交易也释放前一天的计数）
+     */
+    @Scheduled(cron = "0 0 0 * * *")
+    public void rollOver() {
+        today();
+    }
+
+    /**
+     * 今天按交易类型的汇总；没有交易的类型不出现
+     */
+    public Map<TransactionType, SalesRollupService.Totals> getToday() {
+        DayCounters counters = today();
+        Map<TransactionType, SalesRollupService.Totals> totals = new EnumMap<>(TransactionType.class);
+        for (TransactionType type : TYPES) {
+            long count = counters.counts[type.ordinal()].sum();
+            long quantity = counters.quantities[type.ordinal()].sum();
+            long amountCents = counters.amounts[type.ordinal()].sum();
+            if (count != 0 || quantity != 0 || amountCents != 0) {
+                totals.put(type, new SalesRollupService.Totals(count, quantity, amountCents));
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * 汇总表写入之后调用（与写入在同一事务中）：提交后把今天的增量加到写入时的计数器上。
+     * 重建汇总会在持有汇总表排他锁时换上新的计数器，之前已提交但尚未累加的增量落在旧计数器上，
+     * 不会与重新载入的值重复计算。
+     */
+    void recordApplied(Collection<SalesRollupService.RollupDelta> deltas) {
+        DayCounters captured = current.get();
+        Runnable add = () -> {
+            for (SalesRollupService.RollupDelta delta : deltas) {
+                DayCounters target = delta.day().equals(captured.day) ? captured : forDay(delta.day());
+                if (target != null) {
+                    target.add(delta.type(), delta.count(), delta.quantity(), delta.amountCents());
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    add.run();
+                }
+            });
+        } else {
+            add.run();
+        }
+    }
+
+    /**
+     * 从日汇总表载入今天的值并换上新的计数器（在重建汇总的事务中调用时读取的是重建后的结果）
+     */
+    public void reload() {
+        DayCounters counters = new DayCounters(LocalDate.now());
+        jdbcTemplate.query("""
+            SELECT transaction_type, SUM(txn_count), SUM(quantity), SUM(amount_cents)
+            FROM sales_rollup_daily
+            WHERE day = ?
+            GROUP BY transaction_type
+        """, rs -> {
+            counters.add(TransactionType.valueOf(rs.getString(1)), rs.getLong(2), rs.getLong(3), rs.getLong(4));
+        }, Date.valueOf(counters.day));
+        current.set(counters);
+        logger.info("今日交易计数器已载入，日期: {}", counters.day);
+    }
+
+    /**
+     * 当前日期的计数器，日期已变化时换成新的空计数器
+     */
+    private DayCounters today() {
+        DayCounters counters = forDay(LocalDate.now());
+        // 系统时间回拨时沿用当前计数器
+        return counters != null ? counters : current.get();
+    }
+
+    /**
+     * 指定日期的计数器：正是当前计数器的日期则返回它；是更新的日期（跨过零点）则切换；更早的日期返回 null
+     */
+    private DayCounters forDay(LocalDate day) {
+        while (true) {
+            DayCounters counters = current.get();
+            if (counters.day.equals(day)) {
+                return counters;
+            }
+            if (counters.day.isAfter(day) || !day.equals(LocalDate.now())) {
+                return null;
+            }
+            if (current.compareAndSet(counters, new DayCounters(day))) {
+                logger.info("今日交易计数器切换到 {}", day);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.AnalyticsDimension;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.exception.BusinessException;
+import com.northgod.server.util.Money;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * 交易分析：在列式内存副本上按条件过滤、按维度分组汇总
+ *
+ * 每个分块由一个并行任务顺序扫描各列数组，累加到自己的分组表，最后合并；作废冲销行按负号计入，
+ * 结果等于排除作废交易后的汇总。查询不访问数据库（按书籍分组时仅为返回的书籍补充书名）。
+ */
+@Service
+public class TransactionAnalyticsService {
+
+    private final TransactionColumnStore store;
+    private final JdbcTemplate jdbcTemplate;
+
+    public TransactionAnalyticsService(TransactionColumnStore store, JdbcTemplate jdbcTemplate) {
+        this.store = store;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 分析条件，null 表示不限制；日期为闭区间
+     */
+    public record AnalyticsQuery(LocalDate startDate, LocalDate endDate, Set<TransactionType> types, Long bookId,
+                                 String category, String operator, AnalyticsDimension groupBy, int limit) {
+    }
+
+    public Map<String, Object> getStatus() {
+        return store.getStatus();
+    }
+
+    public Map<String, Object> query(AnalyticsQuery query) {
+        if (!store.isEnabled()) {
+            throw new BusinessException("ANALYTICS_DISABLED", "交易分析未启用（bookstore.analytics.enabled）");
+        }
+        if (!store.isLoaded()) {
+            throw new BusinessException("ANALYTICS_LOADING", "交易分析数据正在载入，请稍后再试");
+        }
+        if (query.startDate() != null && query.endDate() != null && query.startDate().isAfter(query.endDate())) {
+            throw new BusinessException("INVALID_DATE_RANGE", "开始日期不能晚于结束日期");
+        }
+        long begin = System.nanoTime();
+        AnalyticsDimension groupBy = query.groupBy() != null ? query.groupBy() : AnalyticsDimension.NONE;
+
+        Scan scan = new Scan(
+                query.startDate() != null
+                        ? TransactionColumnStore.epochMinute(query.startDate().atStartOfDay()) : Integer.MIN_VALUE,
+                query.endDate() != null
+                        ? TransactionColumnStore.epochMinute(query.endDate().plusDays(1).atStartOfDay()) : Integer.MAX_VALUE,
+                typeMask(query.types()),
+                query.bookId() != null ? Math.toIntExact(query.bookId()) : -1,
+                query.category() != null ? store.categories().find(query.category()) : -1,
+                query.operator() != null ? store.operators().find(query.operator()) : -1,
+                groupBy);
+
+        TransactionColumnStore.Chunk[] chunks = store.chunks();
+        Accumulator total;
+        if ((query.category() != null && scan.categoryId < 0) || (query.operator() != null && scan.operatorId < 0)) {
+            // 字典中没有该分类/操作员，不可能有匹配行
+            total = new Accumulator();
+        } else {
+            total = IntStream.range(0, chunks.length).parallel()
+                    .mapToObj(i -> scan.run(chunks[i]))
+                    .reduce(Accumulator::merge)
+                    .orElseGet(Accumulator::new);
+        }
+
+        List<Map<String, Object>> rows = toRows(total, groupBy, query.limit());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("groupBy", groupBy);
+        result.put("startDate", query.startDate());
+        result.put("endDate", query.endDate());
+        result.put("rows", rows);
+        result.put("groups", total.size);
+        result.put("scannedRows", Arrays.stream(chunks).mapToLong(chunk -> chunk.size).sum());
+        result.put("elapsedMicros", (System.nanoTime() - begin) / 1000);
+        return result;
+    }
+
+    private static int typeMask(Set<TransactionType> types) {
+        if (types == null || types.isEmpty()) {
+            return -1;
+        }
+        int mask = 0;
+        for (TransactionType type : types) {
+            mask |= 1 << type.ordinal();
+        }
+        return mask;
+    }
+
+    private List<Map<String, Object>> toRows(Accumulator total, AnalyticsDimension groupBy, int limit) {
+        List<Integer> slots = new ArrayList<>();
+        for (int slot = 0; slot < total.keys.length; slot++) {
+            // 作废后净额为零的分组不返回
+            if (total.used[slot] && total.counts[slot] != 0) {
+                slots.add(slot);
+            }
+        }
+        Comparator<Integer> order = switch (groupBy) {
+            case BOOK, CATEGORY, OPERATOR -> Comparator.<Integer>comparingLong(slot -> total.amounts[slot]).reversed()
+                    .thenComparingInt(slot -> total.keys[slot]);
+            default -> Comparator.comparingInt(slot -> total.keys[slot]);
+        };
+        slots.sort(order);
+        if (limit > 0 && slots.size() > limit) {
+            slots = slots.subList(0, limit);
+        }
+
+        Map<Long, String> titles = groupBy == AnalyticsDimension.BOOK
+                ? loadTitles(slots.stream().map(slot -> (long) total.keys[slot]).toArray(Long[]::new))
+                : Map.of();
+        List<Map<String, Object>> rows = new ArrayList<>(slots.size());
+        for (int slot : slots) {
+            int key = total.keys[slot];
+            Map<String, Object> row = new LinkedHashMap<>();
+            switch (groupBy) {
+                case NONE -> { }
+                case TYPE -> row.put("transactionType", TransactionType.values()[key]);
+                case DAY -> row.put("date", LocalDate.ofEpochDay(key));
+                case MONTH -> row.put("month", YearMonth.of(Math.floorDiv(key, 12), Math.floorMod(key, 12) + 1));
+                case WEEKDAY -> row.put("weekday", DayOfWeek.of(key + 1));
+                case HOUR -> row.put("hour", key);
+                case BOOK -> {
+                    row.put("bookId", (long) key);
+                    row.put("title", titles.get((long) key));
+                }
+                case CATEGORY -> row.put("category", store.categories().nameOf(key));
+                case OPERATOR -> row.put("operator", store.operators().nameOf(key));
+            }
+            row.put("count", total.counts[slot]);
+            row.put("quantity", total.quantities[slot]);
+            row.put("amount", Money.fromCents(total.amounts[slot]));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private Map<Long, String> loadTitles(Long[] bookIds) {
+        Map<Long, String> titles = new HashMap<>();
+        if (bookIds.length == 0) {
+            return titles;
+        }
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT id, title FROM book WHERE id = ANY(?)");
+            ps.setArray(1, connection.createArrayOf("bigint", bookIds));
+            return ps;
+        }, rs -> {
+            titles.put(rs.getLong(1), rs.getString(2));
+        });
+        return titles;
+    }
+
+    /**
+     * 一次查询的过滤条件与分组方式，对每个分块调用 run
+     */
+    private record Scan(int fromMinute, int toMinute, int typeMask, int bookId, int categoryId, int operatorId,
+                        AnalyticsDimension groupBy) {
+
+        Accumulator run(TransactionColumnStore.Chunk chunk) {
+            Accumulator accumulator = new Accumulator();
+            int size = chunk.size;
+            int[] minutes = chunk.minute;
+            byte[] types = chunk.type;
+            for (int row = 0; row < size; row++) {
+                int minute = minutes[row];
+                if (minute < fromMinute || minute >= toMinute) {
+                    continue;
+                }
+                byte type = types[row];
+                int sign = type > 0 ? 1 : -1;
+                if ((typeMask & (1 << (type * sign - 1))) == 0) {
+                    continue;
+                }
+                if ((bookId >= 0 && chunk.bookId[row] != bookId)
+                        || (categoryId >= 0 && chunk.categoryId[row] != categoryId)
+                        || (operatorId >= 0 && chunk.operatorId[row] != operatorId)) {
+                    continue;
+                }
+                int key = switch (groupBy) {
+                    case NONE -> 0;
+                    case TYPE -> type * sign - 1;
+                    case DAY -> Math.floorDiv(minute, 1440);
+                    case MONTH -> monthIndex(Math.floorDiv(minute, 1440));
+                    // 1970-01-01 是星期四，0 表示星期一
+                    case WEEKDAY -> Math.floorMod(Math.floorDiv(minute, 1440) + 3, 7);
+                    case HOUR -> Math.floorMod(minute, 1440) / 60;
+                    case BOOK -> chunk.bookId[row];
+                    case CATEGORY -> chunk.categoryId[row];
+                    case OPERATOR -> chunk.operatorId[row];
+                };
+                accumulator.add(key, sign, sign * chunk.quantity[row], sign * chunk.amountCents[row]);
+            }
+            return accumulator;
+        }
+
+        /**
+         * epoch 天数对应的 年 * 12 + (月 - 1)，按公历换算，避免逐行创建 LocalDate
+         */
+        private static int monthIndex(int epochDay) {
+            int z = epochDay + 719468;
+            int era = Math.floorDiv(z, 146097);
+            int dayOfEra = z - era * 146097;
+            int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            int mp = (5 * dayOfYear + 2) / 153;
+            int month = mp < 10 ? mp + 3 : mp - 9;
+            int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+            return year * 12 + month - 1;
+        }
+    }
+
+    /**
+     * 分组累加表：int 键的开放寻址散列，每个分组累计行数、数量、金额（分）
+     */
+    private static final class Accumulator {
+
+        int[] keys = new int[64];
+        boolean[] used = new boolean[64];
+        long[] counts = new long[64];
+        long[] quantities = new long[64];
+        long[] amounts = new long[64];
+        int size;
+
+        void add(int key, long count, long quantity, long amountCents) {
+            int mask = keys.length - 1;
+            int hash = key * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            counts[slot] += count;
+            quantities[slot] += quantity;
+            amounts[slot] += amountCents;
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+            }
+        }
+
+        Accumulator merge(Accumulator other) {
+            for (int slot = 0; slot < other.keys.length; slot++) {
+                if (other.used[slot]) {
+                    add(other.keys[slot], other.counts[slot], other.quantities[slot], other.amounts[slot]);
+                }
+            }
+            return this;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            boolean[] oldUsed = used;
+            long[] oldCounts = counts;
+            long[] oldQuantities = quantities;
+            long[] oldAmounts = amounts;
+            int capacity = oldKeys.length * 2;
+            keys = new int[capacity];
+            used = new boolean[capacity];
+            counts = new long[capacity];
+            quantities = new long[capacity];
+            amounts = new long[capacity];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldUsed[slot]) {
+                    add(oldKeys[slot], oldCounts[slot], oldQuantities[slot], oldAmounts[slot]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.ChangeEventType;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.event.ChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 交易历史的列式内存副本（可选，bookstore.analytics.enabled 开启）
+ *
+ * 每笔交易占一行，按列存放在定长分块的基本类型数组中：分钟（本地时间的 epoch 分钟）、书籍ID、类型、数量、
+ * 金额（分）、分类ID、操作员ID。分类和操作员按字典编码为 short。作废不修改原行，而是追加一行类型取负的冲销行，
+ * 汇总时按符号相加，因此存储只追加、读取无需加锁。
+ *
+ * 启动后在后台从交易表载入，之后由发件箱中继投递的交易创建/作废事件追加（已提交的数据）。
+ */
+@Service
+public class TransactionColumnStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionColumnStore.class);
+
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private static final int RECENT_EVENT_IDS = 4096;
+
+    private static final String LOAD_SQL = """
+        SELECT id, created_at, book_id, transaction_type, quantity, amount_cents, operator_name,
+               voided_at IS NOT NULL
+        FROM transaction
+    """;
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate snapshotTemplate;
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private final Dictionary categories = new Dictionary("未分类");
+    private final Dictionary operators = new Dictionary("未知");
+    private final Map<Long, Short> bookCategories = new HashMap<>();
+
+    /** 最近处理过的事件ID，中继重投时跳过（至少一次投递） */
+    private final Map<Long, Boolean> recentEventIds = new LinkedHashMap<>(RECENT_EVENT_IDS, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > RECENT_EVENT_IDS;
+        }
+    };
+
+    /** 载入完成前收到的事件，载入后按快照判断是否已包含再补放 */
+    private List<ChangeEvent> bufferedEvents = new ArrayList<>();
+    private volatile boolean loaded;
+    private volatile long loadMillis;
+
+    @Value("${bookstore.analytics.enabled:false}")
+    private boolean enabled;
+
+    public TransactionColumnStore(JdbcTemplate jdbcTemplate,
+                                  DataSource dataSource,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${bookstore.analytics.load-fetch-size:10000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(fetchSize);
+        this.snapshotTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTemplate.setReadOnly(true);
+    }
+
+    /**
+     * 一个分块：各列数组等长，size 之前的行已写完（volatile 写入发布给读取线程）
+     */
+    static final class Chunk {
+        final int[] minute = new int[CHUNK_SIZE];
+        final int[] bookId = new int[CHUNK_SIZE];
+        // 交易类型序号 + 1；作废冲销行取负
+        final byte[] type = new byte[CHUNK_SIZE];
+        final int[] quantity = new int[CHUNK_SIZE];
+        final long[] amountCents = new long[CHUNK_SIZE];
+        final short[] categoryId = new short[CHUNK_SIZE];
+        final short[] operatorId = new short[CHUNK_SIZE];
+        volatile int size;
+    }
+
+    /**
+     * 字符串字典：编号 0 表示空值，超过 short 范围的新值也归入 0
+     */
+    static final class Dictionary {
+        private final Map<String, Short> ids = new ConcurrentHashMap<>();
+        private volatile String[] names;
+
+        Dictionary(String emptyName) {
+            this.names = new String[]{emptyName};
+        }
+
+        synchronized short idOf(String name) {
+            if (name == null || name.isBlank()) {
+                return 0;
+            }
+            Short id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (names.length > Short.MAX_VALUE) {
+                return 0;
+            }
+            short newId = (short) names.length;
+            String[] grown = Arrays.copyOf(names, names.length + 1);
+            grown[newId] = name;
+            names = grown;
+            ids.put(name, newId);
+            return newId;
+        }
+
+        /** 只查找不新增，不存在时返回 -1 */
+        short find(String name) {
+            Short id = ids.get(name);
+            return id != null ? id : -1;
+        }
+
+        String nameOf(int id) {
+            String[] current = names;
+            return id >= 0 && id < current.length ? current[id] : null;
+        }
+
+        int size() {
+            return names.length;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    Chunk[] chunks() {
+        return chunks;
+    }
+
+    Dictionary categories() {
+        return categories;
+    }
+
+    Dictionary operators() {
+        return operators;
+    }
+
+    public long rowCount() {
+        long rows = 0;
+        for (Chunk chunk : chunks) {
+            rows += chunk.size;
+        }
+        return rows;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("loaded", loaded);
+        status.put("rows", rowCount());
+        status.put("chunks", chunks.length);
+        status.put("categories", categories.size() - 1);
+        status.put("operators", operators.size() - 1);
+        status.put("loadMillis", loadMillis);
+        // 7列合计每行25字节，按已分配的分块计算
+        status.put("memoryBytes", (long) chunks.length * CHUNK_SIZE * 25);
+        return status;
+    }
+
+    static int epochMinute(LocalDateTime time) {
+        return (int) Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    static TransactionType typeOf(byte code) {
+        return TYPES[Math.abs(code) - 1];
+    }
+
+    @EventListener
+    public void onChange(ChangeEvent event) {
+        if (!enabled || (event.type() != ChangeEventType.TRANSACTION_CREATED
+                && event.type() != ChangeEventType.TRANSACTION_VOIDED)) {
+            return;
+        }
+        synchronized (this) {
+            if (recentEventIds.put(event.id(), Boolean.TRUE) != null) {
+                return;
+            }
+            if (!loaded) {
+                bufferedEvents.add(event);
+                return;
+            }
+            appendEvent(event);
+        }
+    }
+
+    /**
+     * 启动后在后台载入，不阻塞应用就绪
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startLoading() {
+        if (enabled) {
+            Thread.ofVirtual().name("analytics-loader").start(this::load);
+        }
+    }
+
+    /**
+     * 在一个可重复读快照中：记录尚未投递的交易事件，流式读取全部交易（创建事件未投递的交易由事件补入，
+     * 作废事件未投递的交易暂不冲销），最后对载入期间缓存的事件逐个判断快照是否已包含其效果，未包含的补放。
+     */
+    private void load() {
+        long begin = System.nanoTime();
+        try {
+            long rows = snapshotTemplate.execute(status -> {
+                Set<Long> pendingCreated = new HashSet<>();
+                Set<Long> pendingVoided = new HashSet<>();
+                jdbcTemplate.query("""
+                    SELECT event_type, aggregate_id FROM outbox_event
+                    WHERE published_at IS NULL AND event_type IN ('TRANSACTION_CREATED', 'TRANSACTION_VOIDED')
+                """, rs -> {
+                    (ChangeEventType.TRANSACTION_CREATED.name().equals(rs.getString(1)) ? pendingCreated : pendingVoided)
+                            .add(rs.getLong(2));
+                });
+                synchronized (this) {
+                    jdbcTemplate.query("SELECT id, category FROM book", rs -> {
+                        bookCategories.put(rs.getLong(1), categories.idOf(rs.getString(2)));
+                    });
+                }
+
+                long[] count = {0};
+                streamingJdbcTemplate.query(LOAD_SQL, rs -> {
+                    long id = rs.getLong(1);
+                    boolean voided = rs.getBoolean(8);
+                    boolean plus = !pendingCreated.contains(id);
+                    boolean minus = voided && !pendingVoided.contains(id);
+                    if (!plus && !minus) {
+                        return;
+                    }
+                    int minute = epochMinute(rs.getObject(2, LocalDateTime.class));
+                    long bookId = rs.getLong(3);
+                    byte type = (byte) (TransactionType.valueOf(rs.getString(4)).ordinal() + 1);
+                    int quantity = rs.getInt(5);
+                    long amountCents = rs.getLong(6);
+                    String operator = rs.getString(7);
+                    synchronized (this) {
+                        short categoryId = bookCategories.getOrDefault(bookId, (short) 0);
+                        short operatorId = operators.idOf(operator);
+                        if (plus) {
+                            append(minute, bookId, type, quantity, amountCents, categoryId, operatorId);
+                        }
+                        if (minus) {
+                            append(minute, bookId, (byte) -type, quantity, amountCents, categoryId, operatorId);
+                        }
+                    }
+                    count[0]++;
+                });
+
+                synchronized (this) {
+                    replayBuffered(pendingCreated, pendingVoided);
+                    loaded = true;
+                }
+                return count[0];
+            });
+            loadMillis = (System.nanoTime() - begin) / 1_000_000;
+            logger.info("交易分析列存载入完成，交易: {} 笔，行数: {}，耗时: {} ms", rows, rowCount(), loadMillis);
+        } catch (Exception e) {
+            logger.error("交易分析列存载入失败", e);
+        }
+    }
+
+    /**
+     * 载入期间缓存的事件：快照中可见且事件已投递（不在待投递集合中）说明效果已载入，否则补放
+     */
+    private void replayBuffered(Set<Long> pendingCreated, Set<Long> pendingVoided) {
+        List<ChangeEvent> events = bufferedEvents;
+        bufferedEvents = List.of();
+        if (events.isEmpty()) {
+            return;
+        }
+        Long[] ids = events.stream().map(ChangeEvent::aggregateId).distinct().toArray(Long[]::new);
+        Map<Long, Boolean> visible = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(
+                    "SELECT id, voided_at IS NOT NULL FROM transaction WHERE id = ANY(?)");
+            ps.setArray(1, connection.createArrayOf("bigint", ids));
+            return ps;
+        }, rs -> {
+            visible.put(rs.getLong(1), rs.getBoolean(2));
+        });
+        int replayed = 0;
+        for (ChangeEvent event : events) {
+            Long id = event.aggregateId();
+            boolean reflected = event.type() == ChangeEventType.TRANSACTION_CREATED
+                    ? visible.containsKey(id) && !pendingCreated.contains(id)
+                    : Boolean.TRUE.equals(visible.get(id)) && !pendingVoided.contains(id);
+            if (!reflected) {
+                appendEvent(event);
+                replayed++;
+            }
+        }
+        logger.info("交易分析列存补放载入期间的事件: {} / {}", replayed, events.size());
+    }
+
+    private void appendEvent(ChangeEvent event) {
+        Long bookId = event.longValue("bookId");
+        Integer quantity = event.intValue("quantity");
+        Long amountCents = event.longValue("amountCents");
+        String createdAt = event.stringValue("createdAt");
+        String transactionType = event.stringValue("transactionType");
+        if (bookId == null || quantity == null || amountCents == null || createdAt == null || transactionType == null) {
+            return;
+        }
+        String category = event.stringValue("category");
+        short categoryId;
+        if (category != null) {
+            categoryId = categories.idOf(category);
+            bookCategories.put(bookId, categoryId);
+        } else {
+            categoryId = bookCategories.getOrDefault(bookId, (short) 0);
+        }
+        byte type = (byte) (TransactionType.valueOf(transactionType).ordinal() + 1);
+        if (event.type() == ChangeEventType.TRANSACTION_VOIDED) {
+            type = (byte) -type;
+        }
+        append(epochMinute(LocalDateTime.parse(createdAt)), bookId, type, quantity, amountCents,
+                categoryId, operators.idOf(event.stringValue("operatorName")));
+    }
+
+    /**
+     * 追加一行（调用方持有本对象的锁，单写者）
+     */
+    private void append(int minute, long bookId, byte type, int quantity, long amountCents,
+                        short categoryId, short operatorId) {
+        Chunk[] current = chunks;
+        Chunk chunk = current.length > 0 ? current[current.length - 1] : null;
+        if (chunk == null || chunk.size == CHUNK_SIZE) {
+            chunk = new Chunk();
+            Chunk[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = chunk;
+            chunks = grown;
+        }
+        int row = chunk.size;
+        chunk.minute[row] = minute;
+        chunk.bookId[row] = Math.toIntExact(bookId);
+        chunk.type[row] = type;
+        chunk.quantity[row] = quantity;
+        chunk.amountCents[row] = amountCents;
+        chunk.categoryId[row] = categoryId;
+        chunk.operatorId[row] = operatorId;
+        chunk.size = row + 1;
+    }
+}
@@ -0,0 +1,178 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.util.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 交易记录流式导出服务
+ *
+ * 在只读事务中用只进游标按 fetch-size 分批读取交易表，每行直接写入输出流（CSV 或 NDJSON，可选 gzip），
+ * 不在内存中保留结果集，堆占用与导出行数无关。
+ */
+@Service
+public class TransactionExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExportService.class);
+
+    private static final String EXPORT_SQL = """
+        SELECT t.id, t.created_at, t.transaction_type, t.book_id, t.book_isbn, t.book_title, t.quantity,
+               t.unit_price, t.amount_cents, t.supplier_name, t.operator_name, t.related_transaction_id,
+               t.voided_at, t.notes
+        FROM transaction t
+        WHERE t.created_at >= ? AND t.created_at < ?
+          AND (CAST(? AS varchar) IS NULL OR t.transaction_type = CAST(? AS varchar))
+        ORDER BY t.created_at, t.id
+    """;
+
+    private static final String[] COLUMNS = {"id", "createdAt", "transactionType", "bookId", "bookIsbn", "bookTitle",
+            "quantity", "unitPrice", "amount", "supplierName", "operatorName", "relatedTransactionId", "voidedAt",
+            "notes"};
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate readOnlyTemplate;
+    private final JsonMapper jsonMapper;
+
+    @Value("${bookstore.export.write-buffer-bytes:65536}")
+    private int writeBufferBytes;
+
+    public TransactionExportService(DataSource dataSource,
+                                    PlatformTransactionManager transactionManager,
+                                    JsonMapper jsonMapper,
+                                    @Value("${bookstore.export.fetch-size:5000}") int fetchSize) {
+        // PostgreSQL 只在关闭自动提交（事务内）且设置了 fetchSize 时使用游标分批读取，否则一次读入全部结果
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTemplate.setReadOnly(true);
+        this.jsonMapper = jsonMapper;
+    }
+
+    /**
+     * 把 [startDate, endDate]（含两端）内的交易按时间顺序写入 output，返回导出行数；
+     * 包含已作废的交易（voidedAt 非空），output 由调用方关闭
+     */
+    public long export(LocalDate startDate, LocalDate endDate, TransactionType type, Format format, boolean gzip,
+                       OutputStream output) throws IOException {
+        long begin = System.nanoTime();
+        OutputStream target = gzip ? new GZIPOutputStream(output, writeBufferBytes) : output;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), writeBufferBytes);
+        if (format == Format.CSV) {
+            // UTF-8 BOM，Excel 打开时正确识别中文
+            writer.write('\uFEFF');
+            writer.write(String.join(",", COLUMNS));
+            writer.write('\n');
+        }
+
+        long[] rows = {0};
+        try {
+            readOnlyTemplate.executeWithoutResult(status -> streamingJdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(EXPORT_SQL);
+                ps.setTimestamp(1, Timestamp.valueOf(startDate.atStartOfDay()));
+                ps.setTimestamp(2, Timestamp.valueOf(endDate.plusDays(1).atStartOfDay()));
+                ps.setString(3, type != null ? type.name() : null);
+                ps.setString(4, type != null ? type.name() : null);
+                return ps;
+            }, rs -> {
+                try {
+                    if (format == Format.CSV) {
+                        writeCsvRow(writer, rs);
+                    } else {
+                        writeJsonRow(writer, rs);
+                    }
+                } catch (IOException e) {
+                    // 客户端断开等写入失败，终止查询
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        if (gzip) {
+            ((GZIPOutputStream) target).finish();
+        }
+        logger.info("导出交易记录 {} 到 {}，格式: {}{}，行数: {}，耗时: {} ms", startDate, endDate, format,
+                gzip ? "（gzip）" : "", rows[0], (System.nanoTime() - begin) / 1_000_000);
+        return rows[0];
+    }
+
+    private void writeCsvRow(Writer writer, ResultSet rs) throws SQLException, IOException {
+        for (int column = 1; column <= COLUMNS.length; column++) {
+            if (column > 1) {
+                writer.write(',');
+            }
+            Object value = value(rs, column);
+            if (value instanceof String text) {
+                writer.write('"');
+                writer.write(text.replace("\"", "\"\""));
+                writer.write('"');
+            } else if (value instanceof BigDecimal decimal) {
+                writer.write(decimal.toPlainString());
+            } else if (value != null) {
+                writer.write(value.toString());
+            }
+        }
+        writer.write('\n');
+    }
+
+    private void writeJsonRow(Writer writer, ResultSet rs) throws SQLException, IOException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int column = 1; column <= COLUMNS.length; column++) {
+            row.put(COLUMNS[column - 1], value(rs, column));
+        }
+        writer.write(jsonMapper.writeValueAsString(row));
+        writer.write('\n');
+    }
+
+    /**
+     * 列值：金额由分换算为元；字符串在 CSV 中总是加引号
+     */
+    private static Object value(ResultSet rs, int column) throws SQLException {
+        return switch (column) {
+            case 1, 4 -> rs.getLong(column);
+            case 7 -> rs.getInt(column);
+            case 8 -> rs.getBigDecimal(column);
+            case 9 -> Money.fromCents(rs.getLong(column));
+            case 12 -> {
+                long id = rs.getLong(column);
+                yield rs.wasNull() ? null : id;
+            }
+            case 2, 13 -> {
+                Timestamp time = rs.getTimestamp(column);
+                yield time != null ? time.toLocalDateTime() : null;
+            }
+            default -> rs.getString(column);
+        };
+    }
+}
@@ -0,0 +1,367 @@
+package com.northgod.server.service;
+
+import com.northgod.server.exception.BusinessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 交易表按月分区（PostgreSQL 声明式范围分区，分区键 created_at）
+ *
+ * 启动时（Hibernate 建表/更新表结构之后、开始接收请求之前）把普通交易表转换为分区表：原表改名为
+ * transaction_legacy，作为覆盖历史数据的一个分区挂到新的分区表下（只校验不复制数据，原表为空时直接删除），
+ * 另建一个默认分区兜底。之后每天预建未来几个月的分区。实体映射和查询不变，按 created_at 的范围条件
+ * 由规划器裁剪分区。
+ *
+ * 默认关闭。转换是一次性迁移：整个过程持有交易表的 ACCESS EXCLUSIVE 锁，需要扫描校验全部历史数据并建立
+ * (id, created_at) 主键索引（分区表的主键必须包含分区键），耗时与数据量成正比，应在维护窗口内开启。
+ *
+ * 归档旧月份只是 DETACH PARTITION 的元数据操作：分离出的表改名为 transaction_archive_yyyy_MM 保留在库中，
+ * 交易汇总表不受影响（重建汇总时跳过已归档的月份）。
+ *
+ * 历史分区覆盖转换前的所有月份，不能按月归档：先用 {@link #splitLegacyMonth()} 每次把其中最早的一个月
+ * 拆成独立的月分区，拆出来的月份即可照常归档。拆分需要移动该月的数据并重新校验剩余的历史数据，
+ * 期间持有交易表的排他锁，应在业务低峰逐月执行。
+ */
+@Service
+public class TransactionPartitionService implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionPartitionService.class);
+
+    private static final String LEGACY_PARTITION = "transaction_legacy";
+    private static final String DEFAULT_PARTITION = "transaction_default";
+
+    private static final Pattern BOUND_PATTERN = Pattern.compile("FROM \\((.+?)\\) TO \\((.+?)\\)");
+
+    private static final String PARTITIONS_SQL = """
+        SELECT c.relname, pg_get_expr(c.relpartbound, c.oid), c.reltuples::bigint, pg_total_relation_size(c.oid)
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'transaction'::regclass
+        ORDER BY c.relname
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${bookstore.partitioning.enabled:false}")
+    private boolean enabled;
+
+    @Value("${bookstore.partitioning.premake-months:3}")
+    private int premakeMonths;
+
+    @Value("${bookstore.partitioning.lock-timeout-ms:5000}")
+    private long lockTimeoutMs;
+
+    public TransactionPartitionService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 一个分区及其范围（[from, to)，null 表示无界；默认分区两端都为 null）
+     */
+    public record Partition(String name, LocalDateTime from, LocalDateTime to, boolean isDefault,
+                            long estimatedRows, long totalBytes) {
+    }
+
+    /**
+     * 所有单例创建完成后执行：此时 Hibernate 已完成表结构更新，Web 服务器尚未启动
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            convertIfNeeded();
+            ensurePartitions();
+        } catch (Exception e) {
+            // 分区只影响查询性能，失败时保持原表继续启动
+            logger.error("交易表分区初始化失败", e);
+        }
+    }
+
+    /**
+     * 每天预建当月及未来 premake-months 个月的分区
+     */
+    @Scheduled(cron = "${bookstore.partitioning.maintenance-cron:0 10 0 * * *}")
+    public void ensurePartitions() {
+        if (!enabled || !isPartitioned()) {
+            return;
+        }
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= premakeMonths; i++) {
+            YearMonth month = current.plusMonths(i);
+            if (listPartitions().stream().noneMatch(partition -> overlaps(partition, month))) {
+                createPartition(month);
+            }
+        }
+    }
+
+    public boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('transaction'))",
+                Boolean.class));
+    }
+
+    public List<Partition> listPartitions() {
+        return jdbcTemplate.query(PARTITIONS_SQL, (rs, rowNum) -> {
+            String bound = rs.getString(2);
+            if ("DEFAULT".equals(bound)) {
+                return new Partition(rs.getString(1), null, null, true, rs.getLong(3), rs.getLong(4));
+            }
+            Matcher matcher = BOUND_PATTERN.matcher(bound);
+            if (!matcher.find()) {
+                throw new IllegalStateException("无法解析分区范围: " + bound);
+            }
+            return new Partition(rs.getString(1), parseBound(matcher.group(1)), parseBound(matcher.group(2)),
+                    false, rs.getLong(3), rs.getLong(4));
+        });
+    }
+
+    /**
+     * 分离并归档一个月的分区（只修改元数据）；只允许归档当月之前的月份
+     */
+    public Map<String, Object> detachMonth(YearMonth month) {
+        if (!isPartitioned()) {
+            throw new BusinessException("PARTITIONING_DISABLED", "交易表未分区");
+        }
+        if (!month.isBefore(YearMonth.now())) {
+            throw new BusinessException("PARTITION_NOT_CLOSED", "只能归档当月之前的月份: " + month);
+        }
+        String name = partitionName(month);
+        List<Partition> partitions = listPartitions();
+        if (partitions.stream().noneMatch(partition -> partition.name().equals(name))) {
+            if (partitions.stream().anyMatch(partition -> partition.name().equals(LEGACY_PARTITION)
+                    && overlaps(partition, month))) {
+                throw new BusinessException("PARTITION_IN_LEGACY",
+                        "该月份仍在历史分区 " + LEGACY_PARTITION + " 中，请先逐月拆分: " + month);
+            }
+            throw new BusinessException("PARTITION_NOT_FOUND", "分区不存在或已归档: " + name);
+        }
+        String archiveName = "transaction_archive_" + name.substring("transaction_".length());
+        long begin = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> {
+            // 分离需要短暂持有父表的排他锁，等不到锁时放弃而不是让后续查询排队
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeoutMs + "ms'");
+            jdbcTemplate.execute("ALTER TABLE transaction DETACH PARTITION " + name);
+            jdbcTemplate.execute("ALTER TABLE " + name + " RENAME TO " + archiveName);
+        });
+        long elapsedMs = (System.nanoTime() - begin) / 1_000_000;
+        logger.info("已归档交易分区 {} -> {}，耗时: {} ms", name, archiveName, elapsedMs);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("month", month.toString());
+        result.put("partition", name);
+        result.put("archiveTable", archiveName);
+        result.put("elapsedMs", elapsedMs);
+        return result;
+    }
+
+    /**
+     * 已归档（已分离）的月份，按月份升序
+     */
+    public List<YearMonth> listArchivedMonths() {
+        return jdbcTemplate.query("""
+            SELECT relname FROM pg_class
+            WHERE relnamespace = to_regnamespace(current_schema()) AND relkind = 'r'
+              AND relname ~ '^transaction_archive_[0-9]{4}_[0-9]{2}$'
+            ORDER BY relname
+        """, (rs, rowNum) -> {
+            String suffix = rs.getString(1).substring("transaction_archive_".length());
+            return YearMonth.of(Integer.parseInt(suffix.substring(0, 4)), Integer.parseInt(suffix.substring(5)));
+        });
+    }
+
+    /**
+     * 把历史分区中最早的一个月拆成独立的月分区（一个事务）：分离历史分区，把该月的行移入新建的月分区并挂载，
+     * 剩余的历史数据以收窄后的范围重新挂载（需要扫描校验），历史分区已空时删除。
+     * 逐次调用直到历史分区被删除，转换前的月份即全部成为可归档的月分区。
+     */
+    public Map<String, Object> splitLegacyMonth() {
+        if (!isPartitioned()) {
+            throw new BusinessException("PARTITIONING_DISABLED", "交易表未分区");
+        }
+        Partition legacy = listPartitions().stream()
+                .filter(partition -> partition.name().equals(LEGACY_PARTITION))
+                .findFirst()
+                .orElseThrow(() -> new BusinessException("PARTITION_NOT_FOUND", "历史分区不存在或已拆分完毕"));
+        LocalDateTime earliest = jdbcTemplate.queryForObject(
+                "SELECT MIN(created_at) FROM " + LEGACY_PARTITION, LocalDateTime.class);
+        YearMonth month = earliest != null ? YearMonth.from(earliest) : null;
+        if (month != null && listPartitions().stream().anyMatch(partition ->
+                !partition.name().equals(LEGACY_PARTITION) && overlaps(partition, month))) {
+            throw new BusinessException("PARTITION_OVERLAP", "月份 " + month + " 已有其他分区，无法拆分");
+        }
+
+        long begin = System.nanoTime();
+        int[] moved = {0};
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeoutMs + "ms'");
+            jdbcTemplate.execute("ALTER TABLE transaction DETACH PARTITION " + LEGACY_PARTITION);
+            if (month == null) {
+                jdbcTemplate.execute("DROP TABLE " + LEGACY_PARTITION);
+                return;
+            }
+            String name = partitionName(month);
+            Timestamp start = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+            Timestamp end = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+            jdbcTemplate.execute("CREATE TABLE " + name
+                    + " (LIKE transaction INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE)");
+            moved[0] = jdbcTemplate.update("WITH moved AS (DELETE FROM " + LEGACY_PARTITION
+                    + " WHERE created_at < ? RETURNING *) INSERT INTO " + name + " SELECT * FROM moved", end);
+            jdbcTemplate.execute("ALTER TABLE transaction ATTACH PARTITION " + name
+                    + " FOR VALUES FROM ('" + start + "') TO ('" + end + "')");
+            if (legacy.to() == null || end.toLocalDateTime().isBefore(legacy.to())) {
+                jdbcTemplate.execute("ALTER TABLE transaction ATTACH PARTITION " + LEGACY_PARTITION
+                        + " FOR VALUES FROM ('" + end + "') TO ("
+                        + (legacy.to() != null ? "'" + Timestamp.valueOf(legacy.to()) + "'" : "MAXVALUE") + ")");
+            } else {
+                jdbcTemplate.execute("DROP TABLE " + LEGACY_PARTITION);
+            }
+        });
+        long elapsedMs = (System.nanoTime() - begin) / 1_000_000;
+        boolean remaining = listPartitions().stream().anyMatch(partition -> partition.name().equals(LEGACY_PARTITION));
+        logger.info("历史分区拆分完成，月份: {}，移动: {} 行，剩余历史分区: {}，耗时: {} ms",
+                month, moved[0], remaining, elapsedMs);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("month", month != null ? month.toString() : null);
+        result.put("partition", month != null ? partitionName(month) : null);
+        result.put("movedRows", moved[0]);
+        result.put("legacyRemaining", remaining);
+        result.put("elapsedMs", elapsedMs);
+        return result;
+    }
+
+    static String partitionName(YearMonth month) {
+        return String.format("transaction_%04d_%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private static boolean overlaps(Partition partition, YearMonth month) {
+        if (partition.isDefault()) {
+            return false;
+        }
+        LocalDateTime start = month.atDay(1).atStartOfDay();
+        LocalDateTime end = month.plusMonths(1).atDay(1).atStartOfDay();
+        return (partition.from() == null || partition.from().isBefore(end))
+                && (partition.to() == null || partition.to().isAfter(start));
+    }
+
+    private static LocalDateTime parseBound(String bound) {
+        if ("MINVALUE".equals(bound) || "MAXVALUE".equals(bound)) {
+            return null;
+        }
+        return Timestamp.valueOf(bound.replace("'", "")).toLocalDateTime();
+    }
+
+    /**
+     * 创建一个月的分区；默认分区中已有该月数据时，在同一事务中把这些行移入新分区再挂载
+     */
+    private void createPartition(YearMonth month) {
+        String name = partitionName(month);
+        Timestamp start = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+        Timestamp end = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+        String bounds = "FOR VALUES FROM ('" + start + "') TO ('" + end + "')";
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SET LOCAL lock_timeout = '" + lockTimeoutMs + "ms'");
+            boolean hasDefaultRows = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE created_at >= ? AND created_at < ?)",
+                    Boolean.class, start, end));
+            if (!hasDefaultRows) {
+                jdbcTemplate.execute("CREATE TABLE " + name + " PARTITION OF transaction " + bounds);
+                return;
+            }
+            jdbcTemplate.execute("CREATE TABLE " + name
+                    + " (LIKE transaction INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE)");
+            int moved = jdbcTemplate.update("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION
+                    + " WHERE created_at >= ? AND created_at < ? RETURNING *) INSERT INTO " + name
+                    + " SELECT * FROM moved", start, end);
+            jdbcTemplate.execute("ALTER TABLE transaction ATTACH PARTITION " + name + " " + bounds);
+            logger.info("已从默认分区移入 {} 行到 {}", moved, name);
+        });
+        logger.info("已创建交易分区 {}（{} 至 {}）", name, start, end);
+    }
+
+    /**
+     * 普通表转换为分区表（一个 DDL 事务）：原表连同索引改名后作为历史分区挂载，范围到最后一笔交易所在月的月末；
+     * 父表的索引按原表定义重建（挂载时复用历史分区上的同构索引），主键改为 (id, created_at)，外键按原定义复制。
+     * 挂载需要扫描一遍历史数据校验分区范围，只在首次转换时发生。
+     */
+    private void convertIfNeeded() {
+        String kind = jdbcTemplate.queryForObject(
+                "SELECT COALESCE((SELECT relkind::text FROM pg_class WHERE oid = to_regclass('transaction')), '')",
+                String.class);
+        if (!"r".equals(kind)) {
+            return;
+        }
+        long begin = System.nanoTime();
+        logger.info("正在把交易表转换为按月分区表...");
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("LOCK TABLE transaction IN ACCESS EXCLUSIVE MODE");
+            List<String[]> indexes = jdbcTemplate.query("""
+                SELECT i.relname, pg_get_indexdef(i.oid)
+                FROM pg_index x JOIN pg_class i ON i.oid = x.indexrelid
+                WHERE x.indrelid = 'transaction'::regclass AND NOT x.indisprimary
+            """, (rs, rowNum) -> new String[]{rs.getString(1), rs.getString(2)});
+            List<String[]> foreignKeys = jdbcTemplate.query("""
+                SELECT conname, pg_get_constraintdef(oid) FROM pg_constraint
+                WHERE conrelid = 'transaction'::regclass AND contype = 'f'
+            """, (rs, rowNum) -> new String[]{rs.getString(1), rs.getString(2)});
+            String primaryKey = jdbcTemplate.queryForObject("""
+                SELECT conname FROM pg_constraint WHERE conrelid = 'transaction'::regclass AND contype = 'p'
+            """, String.class);
+            LocalDateTime maxCreatedAt = jdbcTemplate.queryForObject(
+                    "SELECT MAX(created_at) FROM transaction", LocalDateTime.class);
+
+            // 序列若归属于原表的列，删除原表时会被一并删除
+            jdbcTemplate.execute("ALTER SEQUENCE IF EXISTS transaction_id_seq OWNED BY NONE");
+            jdbcTemplate.execute("ALTER TABLE transaction RENAME TO " + LEGACY_PARTITION);
+            jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION + " RENAME CONSTRAINT " + primaryKey
+                    + " TO " + LEGACY_PARTITION + "_pkey");
+            for (String[] index : indexes) {
+                jdbcTemplate.execute("ALTER INDEX " + index[0] + " RENAME TO " + index[0] + "_legacy");
+            }
+
+            jdbcTemplate.execute("CREATE TABLE transaction (LIKE " + LEGACY_PARTITION
+                    + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE INCLUDING COMMENTS)"
+                    + " PARTITION BY RANGE (created_at)");
+            jdbcTemplate.execute("ALTER TABLE transaction ADD CONSTRAINT " + primaryKey + " PRIMARY KEY (id, created_at)");
+            for (String[] foreignKey : foreignKeys) {
+                jdbcTemplate.execute("ALTER TABLE transaction ADD CONSTRAINT " + foreignKey[0] + " " + foreignKey[1]);
+            }
+            for (String[] index : indexes) {
+                // 原定义引用的表名 transaction 现在指向新的父表
+                jdbcTemplate.execute(index[1]);
+            }
+            jdbcTemplate.execute("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF transaction DEFAULT");
+
+            if (maxCreatedAt == null) {
+                jdbcTemplate.execute("DROP TABLE " + LEGACY_PARTITION);
+            } else {
+                Timestamp legacyEnd = Timestamp.valueOf(
+                        YearMonth.from(maxCreatedAt).plusMonths(1).atDay(1).atStartOfDay());
+                jdbcTemplate.execute("ALTER TABLE transaction ATTACH PARTITION " + LEGACY_PARTITION
+                        + " FOR VALUES FROM (MINVALUE) TO ('" + legacyEnd + "')");
+            }
+        });
+        logger.info("交易表已转换为分区表，耗时: {} ms", (System.nanoTime() - begin) / 1_000_000);
+    }
+}
@@ -1,18 +1,26 @@
 package com.northgod.server.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -23,49 +31,73 @@ import org.springframework.transaction.annotation.Transactional;
 import com.northgod.server.entity.Book;
 import com.northgod.server.entity.Supplier;
 import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.StockMovementReason;
 import com.northgod.server.enums.TransactionType;
 import com.northgod.server.exception.BusinessException;
 import com.northgod.server.repository.BookRepository;
 import com.northgod.server.repository.SupplierRepository;
 import com.northgod.server.repository.TransactionRepository;
+import com.northgod.server.util.Money;
 
 @Service
 @Transactional(readOnly = true)
 public class TransactionService {
 
     private static final Logger logger = LoggerFactory.getLogger(TransactionService.class);
+
+    /** 推荐进货统计销量的天数（含今天），汇总销量与计算日均销量使用同一窗口 */
+    private static final int RECOMMENDATION_WINDOW_DAYS = 30;
+
     private final TransactionRepository transactionRepository;
     private final BookService bookService;
     private final BookRepository bookRepository;
     private final SupplierRepository supplierRepository;
     private final CacheService cacheService;
+    private final HotStockLedger hotStockLedger;
+    private final StockLedgerService stockLedgerService;
+    private final OutboxService outboxService;
+    private final SalesRollupService salesRollupService;
+    private final SalesVelocityIndex salesVelocityIndex;
+    private final TodayTransactionCounters todayCounters;
+
+    @Value("${bookstore.ranking.default-limit:10}")
+    private int rankingDefaultLimit;
+
+    @Value("${bookstore.ranking.max-limit:100}")
+    private int rankingMaxLimit;
 
     public TransactionService(TransactionRepository transactionRepository,
                               BookService bookService,
                               BookRepository bookRepository,
                               SupplierRepository supplierRepository,
-                              CacheService cacheService) {
+                              CacheService cacheService,
+                              HotStockLedger hotStockLedger,
+                              StockLedgerService stockLedgerService,
+                              OutboxService outboxService,
+                              SalesRollupService salesRollupService,
+                              SalesVelocityIndex salesVelocityIndex,
+                              TodayTransactionCounters todayCounters) {
         this.transactionRepository = transactionRepository;
         this.bookService = bookService;
         this.bookRepository = bookRepository;
         this.supplierRepository = supplierRepository;
         this.cacheService = cacheService;
+        this.hotStockLedger = hotStockLedger;
+        this.stockLedgerService = stockLedgerService;
+        this.outboxService = outboxService;
+        this.salesRollupService = salesRollupService;
+        this.salesVelocityIndex = salesVelocityIndex;
+        this.todayCounters = todayCounters;
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
     @CacheEvict(value = "transactions", allEntries = true)
     public Transaction createPurchase(Transaction transaction) {
         validateTransaction(transaction, TransactionType.PURCHASE);
+        Long bookId = transaction.getBook().getId();
 
-        // 先获取bookId，用于后续清除缓存
-        Long bookId = transaction.getBook() != null ? transaction.getBook().getId() : null;
-        if (bookId == null) {
-            throw new BusinessException("MISSING_BOOK", "书籍信息不能为空");
-        }
-
-        // 从数据库重新加载Book实体，避免版本控制问题
-        Book book = bookRepository.findById(bookId)
-                .orElseThrow(() -> new BusinessException("BOOK_NOT_FOUND", "书籍不存在"));
+        // 唯一一次书籍读取（只读加载，库存由带保护的UPDATE原子修改）
+        Book book = loadActiveBook(bookId);
         transaction.setBook(book);
 
         // 从数据库重新加载Supplier实体
@@ -78,22 +110,15 @@ public class TransactionService {
 
         transaction.setTransactionType(TransactionType.PURCHASE);
 
-        if (transaction.getUnitPrice() == null || transaction.getQuantity() == null) {
-            throw new BusinessException("MISSING_REQUIRED_FIELDS", "单价和数量不能为空");
-        }
+        transaction.calculateTotalAmount();
 
-        BigDecimal total = transaction.getUnitPrice()
-                .multiply(BigDecimal.valueOf(transaction.getQuantity()))
-                .setScale(2, RoundingMode.HALF_UP);
-        transaction.setTotalAmount(total);
+        book.setStockQuantity(applyStock(transaction, transaction.getQuantity()));
 
         Transaction savedTransaction = transactionRepository.save(transaction);
-        logger.info("创建进货记录: {}, 金额: {}", savedTransaction.getId(), total);
-
-        // 手动清除书籍缓存
-        cacheService.evictBookCache(bookId);
-
-        bookService.updateStock(bookId, transaction.getQuantity());
+        stockLedgerService.recordTransactions(List.of(savedTransaction));
+        outboxService.transactionsCreated(List.of(savedTransaction));
+        salesRollupService.applyCreated(List.of(savedTransaction));
+        logger.info("创建进货记录: {}, 金额: {}", savedTransaction.getId(), savedTransaction.getTotalAmount());
 
         return savedTransaction;
     }
@@ -102,49 +127,30 @@ public class TransactionService {
     @CacheEvict(value = "transactions", allEntries = true)
     public Transaction createSale(Transaction transaction) {
         validateTransaction(transaction, TransactionType.SALE);
+        Long bookId = transaction.getBook().getId();
 
-        // 先获取bookId，用于后续清除缓存
-        Long bookId = transaction.getBook() != null ? transaction.getBook().getId() : null;
-        if (bookId == null) {
-            throw new BusinessException("MISSING_BOOK", "书籍信息不能为空");
-        }
-
-        Book book = bookRepository.findById(bookId)
-                .orElseThrow(() -> new BusinessException("BOOK_NOT_FOUND", "书籍不存在"));
-
-        // 从数据库重新加载Book实体，避免版本控制问题
+        // 唯一一次书籍读取（只读加载，库存由带保护的UPDATE原子修改）
+        Book book = loadActiveBook(bookId);
         transaction.setBook(book);
 
-        if (book.getStockQuantity() < transaction.getQuantity()) {
-            throw new BusinessException("INSUFFICIENT_STOCK",
-                    String.format("库存不足，当前库存：%d，请求数量：%d",
-                            book.getStockQuantity(), transaction.getQuantity()));
-        }
-
         transaction.setTransactionType(TransactionType.SALE);
 
-        if (transaction.getUnitPrice() == null || transaction.getQuantity() == null) {
-            throw new BusinessException("MISSING_REQUIRED_FIELDS", "单价和数量不能为空");
-        }
-
         if (book.getSellingPrice() != null &&
                 transaction.getUnitPrice().compareTo(book.getSellingPrice()) > 0) {
             logger.warn("销售价格高于标价，书籍ID: {}, 标价: {}, 售价: {}",
                     book.getId(), book.getSellingPrice(), transaction.getUnitPrice());
         }
 
-        BigDecimal total = transaction.getUnitPrice()
-                .multiply(BigDecimal.valueOf(transaction.getQuantity()))
-                .setScale(2, RoundingMode.HALF_UP);
-        transaction.setTotalAmount(total);
+        transaction.calculateTotalAmount();
 
-        Transaction savedTransaction = transactionRepository.save(transaction);
-        logger.info("创建销售记录: {}, 金额: {}", savedTransaction.getId(), total);
-
-        // 手动清除书籍缓存
-        cacheService.evictBookCache(bookId);
+        // 库存检查与扣减在同一条UPDATE中完成，库存不足时抛出 INSUFFICIENT_STOCK
+        book.setStockQuantity(applyStock(transaction, -transaction.getQuantity()));
 
-        bookService.updateStock(bookId, -transaction.getQuantity());
+        Transaction savedTransaction = transactionRepository.save(transaction);
+        stockLedgerService.recordTransactions(List.of(savedTransaction));
+        outboxService.transactionsCreated(List.of(savedTransaction));
+        salesRollupService.applyCreated(List.of(savedTransaction));
+        logger.info("创建销售记录: {}, 金额: {}", savedTransaction.getId(), savedTransaction.getTotalAmount());
 
         return savedTransaction;
     }
@@ -156,50 +162,373 @@ public class TransactionService {
             throw new BusinessException("MISSING_REFERENCE", "必须指定原销售记录ID");
         }
 
-        Transaction originalTransaction = transactionRepository
-                .findByIdAndTransactionType(transaction.getRelatedTransactionId(), TransactionType.SALE)
-                .orElseThrow(() -> new BusinessException("ORIGINAL_TRANSACTION_NOT_FOUND", "原销售记录不存在"));
+        validateTransaction(transaction, TransactionType.RETURN);
 
-        if (transaction.getQuantity() > originalTransaction.getQuantity()) {
-            throw new BusinessException("EXCESSIVE_RETURN",
-                    String.format("退货数量不能超过原销售数量，原销售数量：%d",
-                            originalTransaction.getQuantity()));
-        }
+        Long bookId = transaction.getBook().getId();
 
-        validateTransaction(transaction, TransactionType.RETURN);
-        
-        // 先获取bookId，用于后续清除缓存
-        Long bookId = transaction.getBook() != null ? transaction.getBook().getId() : null;
-        if (bookId == null) {
-            throw new BusinessException("MISSING_BOOK", "书籍信息不能为空");
+        // 已退货计数的检查与累加在一条UPDATE中完成，多次部分退货时无需扫描历史退货记录；
+        // 该行锁持有到事务提交，与下方退货记录的插入一同生效或回滚
+        if (transactionRepository.addReturnedQuantity(
+                transaction.getRelatedTransactionId(), bookId, transaction.getQuantity()).isEmpty()) {
+            throw returnRejected(transaction.getRelatedTransactionId(), bookId);
         }
-        
-        // 从数据库重新加载Book实体，避免版本控制问题
-        Book book = bookRepository.findById(bookId)
-                .orElseThrow(() -> new BusinessException("BOOK_NOT_FOUND", "书籍不存在"));
+
+        // 唯一一次书籍读取（只读加载，库存由带保护的UPDATE原子修改）
+        Book book = loadActiveBook(bookId);
         transaction.setBook(book);
-        
+
         transaction.setTransactionType(TransactionType.RETURN);
 
-        BigDecimal total = transaction.getUnitPrice()
-                .multiply(BigDecimal.valueOf(transaction.getQuantity()))
-                .setScale(2, RoundingMode.HALF_UP);
-        transaction.setTotalAmount(total);
+        transaction.calculateTotalAmount();
+
+        book.setStockQuantity(applyStock(transaction, transaction.getQuantity()));
 
         Transaction savedTransaction = transactionRepository.save(transaction);
+        stockLedgerService.recordTransactions(List.of(savedTransaction));
+        outboxService.transactionsCreated(List.of(savedTransaction));
+        salesRollupService.applyCreated(List.of(savedTransaction));
         logger.info("创建退货记录: {}, 关联销售记录: {}",
                 savedTransaction.getId(), transaction.getRelatedTransactionId());
 
-        // 手动清除书籍缓存
-        cacheService.evictBookCache(bookId);
+        return savedTransaction;
+    }
 
-        bookService.updateStock(bookId, transaction.getQuantity());
+    /**
+     * 已退货计数未能累加时，查明原销售记录被拒绝的具体原因
+     */
+    private BusinessException returnRejected(Long saleId, Long bookId) {
+        Transaction sale = transactionRepository.findById(saleId).orElse(null);
+        if (sale == null) {
+            return new BusinessException("ORIGINAL_TRANSACTION_NOT_FOUND", "原销售记录不存在");
+        }
+        if (sale.getTransactionType() != TransactionType.SALE) {
+            return new BusinessException("ORIGINAL_NOT_SALE", "关联的交易记录不是销售记录");
+        }
+        if (sale.getVoidedAt() != null) {
+            return new BusinessException("ORIGINAL_SALE_VOIDED", "原销售记录已作废，不能退货");
+        }
+        if (!sale.getBook().getId().equals(bookId)) {
+            return new BusinessException("RETURN_BOOK_MISMATCH", "退货书籍与原销售记录的书籍不一致");
+        }
+        return new BusinessException("EXCESSIVE_RETURN",
+                String.format("退货数量超过剩余可退数量，剩余可退数量：%d", sale.getReturnableQuantity()));
+    }
 
-        return savedTransaction;
+    /**
+     * 整单结账：一个购物篮的所有销售行在同一个数据库事务中提交
+     * 库存扣减合并为一条批量UPDATE，交易记录通过JDBC批量插入；
+     * 任一行失败则整单拒绝（事务回滚），并在异常数据中返回逐行结果
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    @CacheEvict(value = "transactions", allEntries = true)
+    public Map<String, Object> checkout(List<Transaction> items) {
+        if (items == null || items.isEmpty()) {
+            throw new BusinessException("EMPTY_BASKET", "购物篮不能为空");
+        }
+        items.forEach(item -> validateTransaction(item, TransactionType.SALE));
+
+        // 一次查询加载整单涉及的所有书籍，同一本书的多行合并扣减
+        Map<Long, Integer> deltas = new LinkedHashMap<>();
+        for (Transaction item : items) {
+            deltas.merge(item.getBook().getId(), -item.getQuantity(), Integer::sum);
+        }
+        Map<Long, Book> books = bookRepository.findAllByIdReadOnly(deltas.keySet()).stream()
+                .collect(Collectors.toMap(Book::getId, book -> book));
+
+        Map<Long, Integer> newStocks = Map.of();
+        boolean booksValid = deltas.keySet().stream()
+                .allMatch(bookId -> books.containsKey(bookId) && books.get(bookId).getIsActive());
+        if (booksValid) {
+            newStocks = bookService.adjustStockBatch(deltas);
+        }
+        if (!booksValid || newStocks.size() < deltas.size()) {
+            List<Map<String, Object>> lines = buildCheckoutLines(items, books, newStocks, booksValid, null);
+            throw new BusinessException("CHECKOUT_REJECTED", "结账失败，部分商品无法销售，整单未提交", lines);
+        }
+
+        long totalCents = 0;
+        int totalQuantity = 0;
+        for (Transaction item : items) {
+            Book book = books.get(item.getBook().getId());
+            book.setStockQuantity(newStocks.get(book.getId()));
+            item.setBook(book);
+            item.setTransactionType(TransactionType.SALE);
+            item.calculateTotalAmount();
+            totalCents += item.getAmountCents();
+            totalQuantity += item.getQuantity();
+        }
+        BigDecimal totalAmount = Money.fromCents(totalCents);
+
+        // hibernate.jdbc.batch_size 生效时，所有行以批量INSERT写入
+        List<Transaction> saved = transactionRepository.saveAll(items);
+        stockLedgerService.recordTransactions(saved);
+        outboxService.transactionsCreated(saved);
+        salesRollupService.applyCreated(saved);
+        logger.info("整单结账完成，行数: {}, 数量: {}, 金额: {}", saved.size(), totalQuantity, totalAmount);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("lines", buildCheckoutLines(saved, books, newStocks, true, saved));
+        result.put("lineCount", saved.size());
+        result.put("totalQuantity", totalQuantity);
+        result.put("totalAmount", totalAmount);
+        return result;
+    }
+
+    /**
+     * 构建逐行结账结果
+     * stockApplied 表示批量扣减是否已执行；saved 为空表示整单被拒绝
+     */
+    private List<Map<String, Object>> buildCheckoutLines(List<Transaction> items, Map<Long, Book> books,
+                                                         Map<Long, Integer> newStocks, boolean stockApplied,
+                                                         List<Transaction> saved) {
+        List<Map<String, Object>> lines = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Transaction item = items.get(i);
+            Long bookId = item.getBook().getId();
+            Book book = books.get(bookId);
+
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("line", i + 1);
+            line.put("bookId", bookId);
+            line.put("quantity", item.getQuantity());
+            line.put("unitPrice", item.getUnitPrice());
+            if (book != null) {
+                line.put("title", book.getTitle());
+            }
+
+            if (book == null) {
+                line.put("status", "BOOK_NOT_FOUND");
+            } else if (!book.getIsActive()) {
+                line.put("status", "BOOK_INACTIVE");
+            } else if (!stockApplied) {
+                // 其他行校验失败，本行未执行库存扣减
+                line.put("status", "NOT_PROCESSED");
+            } else if (!newStocks.containsKey(bookId)) {
+                line.put("status", "INSUFFICIENT_STOCK");
+                line.put("availableStock", book.getStockQuantity());
+            } else {
+                line.put("status", "OK");
+                if (saved != null) {
+                    line.put("transactionId", saved.get(i).getId());
+                    line.put("totalAmount", saved.get(i).getTotalAmount());
+                    line.put("stockQuantity", newStocks.get(bookId));
+                }
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * 供应商送货收货：整张送货单在一个数据库事务中入库
+     * ISBN一次查询解析，库存增量合并为一条批量UPDATE，进货记录通过JDBC批量插入；
+     * 任一行无法识别则整单拒绝，并在异常数据中返回逐行结果
+     */
+    @Transactional(propagation = Propagation.REQUIRED)
+    @CacheEvict(value = "transactions", allEntries = true)
+    public Map<String, Object> receiveGoods(Long supplierId, List<ReceiptLine> lines,
+                                            String operatorName, String notes) {
+        if (lines == null || lines.isEmpty()) {
+            throw new BusinessException("EMPTY_RECEIPT", "送货单不能为空");
+        }
+        if (supplierId == null) {
+            throw new BusinessException("MISSING_SUPPLIER", "进货必须指定供应商");
+        }
+        Supplier supplier = supplierRepository.findById(supplierId)
+                .orElseThrow(() -> new BusinessException("SUPPLIER_NOT_FOUND", "供应商不存在"));
+        if (!Boolean.TRUE.equals(supplier.getIsActive())) {
+            throw new BusinessException("SUPPLIER_INACTIVE", "供应商已停用");
+        }
+        for (ReceiptLine line : lines) {
+            if (line.isbn() == null || line.isbn().isBlank()) {
+                throw new BusinessException("INVALID_ISBN", "ISBN不能为空");
+            }
+            if (line.quantity() <= 0) {
+                throw new BusinessException("INVALID_QUANTITY", "数量必须大于0");
+            }
+            if (line.unitPrice() == null || line.unitPrice().compareTo(BigDecimal.ZERO) <= 0) {
+                throw new BusinessException("INVALID_PRICE", "单价必须大于0");
+            }
+        }
+
+        // 一次查询解析整单涉及的所有ISBN
+        Map<String, Book> books = bookRepository.findAllByIsbnReadOnly(
+                        lines.stream().map(line -> line.isbn().trim()).collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Book::getIsbn, book -> book));
+
+        boolean allValid = lines.stream().allMatch(line -> {
+            Book book = books.get(line.isbn().trim());
+            return book != null && book.getIsActive();
+        });
+        if (!allValid) {
+            throw new BusinessException("RECEIPT_REJECTED", "收货失败，部分ISBN无法识别或书籍已下架，整单未提交",
+                    buildReceiptLines(lines, books, null, null));
+        }
+
+        Map<Long, Integer> deltas = new LinkedHashMap<>();
+        for (ReceiptLine line : lines) {
+            deltas.merge(books.get(line.isbn().trim()).getId(), line.quantity(), Integer::sum);
+        }
+        Map<Long, Integer> newStocks = bookService.adjustStockBatch(deltas);
+
+        List<Transaction> purchases = new ArrayList<>(lines.size());
+        long totalCents = 0;
+        int totalQuantity = 0;
+        for (ReceiptLine line : lines) {
+            Book book = books.get(line.isbn().trim());
+            book.setStockQuantity(newStocks.get(book.getId()));
+            Transaction purchase = new Transaction();
+            purchase.setBook(book);
+            purchase.setRelatedSupplier(supplier);
+            purchase.setTransactionType(TransactionType.PURCHASE);
+            purchase.setQuantity(line.quantity());
+            purchase.setUnitPrice(line.unitPrice());
+            purchase.calculateTotalAmount();
+            purchase.setOperatorName(operatorName);
+            purchase.setNotes(line.notes() != null ? line.notes() : notes);
+            purchases.add(purchase);
+            totalCents += purchase.getAmountCents();
+            totalQuantity += line.quantity();
+        }
+        BigDecimal totalAmount = Money.fromCents(totalCents);
+
+        // hibernate.jdbc.batch_size 生效时，所有行以批量INSERT写入
+        List<Transaction> saved = transactionRepository.saveAll(purchases);
+        stockLedgerService.recordTransactions(saved);
+        outboxService.transactionsCreated(saved);
+        salesRollupService.applyCreated(saved);
+        logger.info("送货单收货完成，供应商: {}, 行数: {}, 书籍数: {}, 数量: {}, 金额: {}",
+                supplier.getName(), saved.size(), deltas.size(), totalQuantity, totalAmount);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("supplierId", supplier.getId());
+        result.put("supplierName", supplier.getName());
+        result.put("lines", buildReceiptLines(lines, books, newStocks, saved));
+        result.put("lineCount", saved.size());
+        result.put("bookCount", deltas.size());
+        result.put("totalQuantity", totalQuantity);
+        result.put("totalAmount", totalAmount);
+        return result;
+    }
+
+    /**
+     * 解析CSV格式的送货单（表头需包含 isbn、quantity、unitPrice，可选 notes）
+     */
+    public List<ReceiptLine> parseReceiptCsv(InputStream input) {
+        List<ReceiptLine> lines = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            CsvReader csv = new CsvReader(reader);
+            String[] header = csv.next();
+            if (header == null) {
+                throw new BusinessException("EMPTY_RECEIPT", "送货单不能为空");
+            }
+            Map<String, Integer> columns = new HashMap<>();
+            for (int i = 0; i < header.length; i++) {
+                columns.put(header[i].replace("\uFEFF", "").trim().replace("_", "").toLowerCase(Locale.ROOT), i);
+            }
+            Integer isbnColumn = columns.get("isbn");
+            Integer quantityColumn = columns.get("quantity");
+            Integer priceColumn = columns.get("unitprice");
+            Integer notesColumn = columns.get("notes");
+            if (isbnColumn == null || quantityColumn == null || priceColumn == null) {
+                throw new BusinessException("CSV_INVALID", "送货单表头必须包含 isbn、quantity、unitPrice 列");
+            }
+            String[] record;
+            while ((record = csv.next()) != null) {
+                if (record.length == 1 && record[0].isBlank()) {
+                    continue;
+                }
+                try {
+                    lines.add(new ReceiptLine(
+                            column(record, isbnColumn),
+                            Integer.parseInt(column(record, quantityColumn).trim()),
+                            new BigDecimal(column(record, priceColumn).trim()),
+                            notesColumn != null ? column(record, notesColumn) : null));
+                } catch (RuntimeException e) {
+                    throw new BusinessException("CSV_INVALID",
+                            "送货单第 " + csv.recordLine() + " 行格式错误: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new BusinessException("CSV_INVALID", "读取送货单失败: " + e.getMessage());
+        }
+        return lines;
+    }
+
+    private static String column(String[] record, int index) {
+        String value = index < record.length ? record[index] : "";
+        return value.isEmpty() ? null : value;
+    }
+
+    private List<Map<String, Object>> buildReceiptLines(List<ReceiptLine> lines, Map<String, Book> books,
+                                                        Map<Long, Integer> newStocks, List<Transaction> saved) {
+        List<Map<String, Object>> result = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            ReceiptLine line = lines.get(i);
+            Book book = books.get(line.isbn().trim());
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("line", i + 1);
+            row.put("isbn", line.isbn());
+            row.put("quantity", line.quantity());
+            row.put("unitPrice", line.unitPrice());
+            if (book == null) {
+                row.put("status", "ISBN_NOT_FOUND");
+            } else {
+                row.put("bookId", book.getId());
+                row.put("title", book.getTitle());
+                if (!book.getIsActive()) {
+                    row.put("status", "BOOK_INACTIVE");
+                } else if (saved == null) {
+                    row.put("status", "NOT_PROCESSED");
+                } else {
+                    row.put("status", "OK");
+                    row.put("transactionId", saved.get(i).getId());
+                    row.put("totalAmount", saved.get(i).getTotalAmount());
+                    row.put("stockQuantity", newStocks.get(book.getId()));
+                }
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * 送货单行
+     */
+    public record ReceiptLine(String isbn, int quantity, BigDecimal unitPrice, String notes) {
     }
 
     public List<Transaction> getTodayTransactions() {
-        return transactionRepository.findByDate(LocalDate.now());
+        LocalDateTime start = LocalDate.now().atStartOfDay();
+        return transactionRepository.findAllCreatedBetween(start, start.plusDays(1));
+    }
+
+    /**
+     * 今日汇总：读取进程内计数器，不访问数据库（已作废的交易不计入）
+     */
+    public Map<String, Object> getTodaySummary() {
+        Map<TransactionType, SalesRollupService.Totals> totals = todayCounters.getToday();
+        long totalTransactions = 0;
+        Map<String, Object> byType = new LinkedHashMap<>();
+        for (Map.Entry<TransactionType, SalesRollupService.Totals> entry : totals.entrySet()) {
+            totalTransactions += entry.getValue().count();
+            byType.put(entry.getKey().name(), Map.of(
+                    "count", entry.getValue().count(),
+                    "quantity", entry.getValue().quantity(),
+                    "amount", Money.fromCents(entry.getValue().amountCents())));
+        }
+        long salesCents = totals.getOrDefault(TransactionType.SALE, SalesRollupService.Totals.ZERO).amountCents();
+        long purchasesCents = totals.getOrDefault(TransactionType.PURCHASE, SalesRollupService.Totals.ZERO).amountCents();
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("date", LocalDate.now());
+        summary.put("totalTransactions", totalTransactions);
+        summary.put("salesTotal", Money.fromCents(salesCents));
+        summary.put("purchasesTotal", Money.fromCents(purchasesCents));
+        summary.put("netTotal", Money.fromCents(salesCents - purchasesCents));
+        summary.put("byType", byType);
+        return summary;
     }
 
     public Page<Transaction> getTransactionHistory(Long bookId, int page, int size) {
@@ -208,128 +537,155 @@ public class TransactionService {
     }
 
     public List<Transaction> getMonthlyTransactions(int year, int month) {
-        return transactionRepository.findByYearAndMonth(year, month);
+        LocalDateTime start = LocalDate.of(year, month, 1).atStartOfDay();
+        return transactionRepository.findAllCreatedBetween(start, start.plusMonths(1));
     }
 
+    /**
+     * 月度汇总：读取月汇总表（每个交易类型至多 stripes 行），不再加载当月交易记录
+     */
     public Map<String, Object> getMonthlySummary(int year, int month) {
-        List<Transaction> monthlyTransactions = getMonthlyTransactions(year, month);
+        Map<TransactionType, SalesRollupService.Totals> totals = salesRollupService.getMonth(YearMonth.of(year, month));
+        SalesRollupService.Totals sales = totals.getOrDefault(TransactionType.SALE, SalesRollupService.Totals.ZERO);
+        SalesRollupService.Totals purchases = totals.getOrDefault(TransactionType.PURCHASE, SalesRollupService.Totals.ZERO);
+        SalesRollupService.Totals returns = totals.getOrDefault(TransactionType.RETURN, SalesRollupService.Totals.ZERO);
 
         Map<String, Object> summary = new LinkedHashMap<>();
         summary.put("year", year);
         summary.put("month", month);
 
-        BigDecimal totalSales = BigDecimal.ZERO;
-        BigDecimal totalPurchases = BigDecimal.ZERO;
-        BigDecimal totalReturns = BigDecimal.ZERO;
-        int saleQuantity = 0;
-        int purchaseQuantity = 0;
-        int returnQuantity = 0;
-
-        for (Transaction t : monthlyTransactions) {
-            switch (t.getTransactionType()) {
-                case SALE -> {
-                    totalSales = totalSales.add(t.getTotalAmount());
-                    saleQuantity += t.getQuantity();
-                }
-                case PURCHASE -> {
-                    totalPurchases = totalPurchases.add(t.getTotalAmount());
-                    purchaseQuantity += t.getQuantity();
-                }
-                case RETURN -> {
-                    totalReturns = totalReturns.add(t.getTotalAmount());
-                    returnQuantity += t.getQuantity();
-                }
-            }
-        }
-
-        summary.put("totalSales", totalSales);
-        summary.put("totalPurchases", totalPurchases);
-        summary.put("totalReturns", totalReturns);
-        summary.put("saleQuantity", saleQuantity);
-        summary.put("purchaseQuantity", purchaseQuantity);
-        summary.put("returnQuantity", returnQuantity);
-        summary.put("netRevenue", totalSales.subtract(totalPurchases).subtract(totalReturns));
-        summary.put("transactionCount", monthlyTransactions.size());
+        // 金额以分累加，仅在输出时转换为元
+        summary.put("totalSales", Money.fromCents(sales.amountCents()));
+        summary.put("totalPurchases", Money.fromCents(purchases.amountCents()));
+        summary.put("totalReturns", Money.fromCents(returns.amountCents()));
+        summary.put("saleQuantity", sales.quantity());
+        summary.put("purchaseQuantity", purchases.quantity());
+        summary.put("returnQuantity", returns.quantity());
+        summary.put("netRevenue", Money.fromCents(
+                sales.amountCents() - purchases.amountCents() - returns.amountCents()));
+        summary.put("transactionCount", totals.values().stream()
+                .mapToLong(SalesRollupService.Totals::count).sum());
 
         return summary;
     }
 
     public List<Map<String, Object>> getSalesRanking(int year, int month) {
-        List<Object[]> results = transactionRepository.findSalesRanking(year, month);
-
-        return results.stream()
-                .limit(10) // 只取前10名
-                .map(row -> {
-                    Book book = (Book) row[0];
-                    Long quantity = (Long) row[1];
-                    BigDecimal amount = (BigDecimal) row[2];
-
-                    Map<String, Object> ranking = new LinkedHashMap<>();
-                    ranking.put("rank", results.indexOf(row) + 1);
-                    ranking.put("bookId", book.getId());
-                    ranking.put("title", book.getTitle());
-                    ranking.put("author", book.getAuthor());
-                    ranking.put("quantity", quantity);
-                    ranking.put("amount", amount);
-                    ranking.put("averagePrice",
-                            amount.divide(BigDecimal.valueOf(quantity), 2, RoundingMode.HALF_UP));
-                    return ranking;
-                })
+        LocalDate start = LocalDate.of(year, month, 1);
+        return getSalesRanking(start, start.plusMonths(1).minusDays(1), rankingDefaultLimit);
+    }
+
+    /**
+     * 日期区间（含两端）内销量前 N 的书籍，排名和截断在数据库中完成
+     */
+    public List<Map<String, Object>> getSalesRanking(LocalDate startDate, LocalDate endDate, int limit) {
+        return transactionRepository.findTopSales(startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay(),
+                        normalizeRankingLimit(limit))
+                .stream()
+                .map(this::toRankingEntry)
                 .collect(Collectors.toList());
     }
 
-    public Map<String, Object> getDailySummary(LocalDate startDate, LocalDate endDate) {
-        LocalDateTime start = startDate.atStartOfDay();
-        LocalDateTime end = endDate.plusDays(1).atStartOfDay();
+    /**
+     * 日期区间（含两端）内每个分类销量前 N 的书籍，按分类分组（category 不为空时只返回该分类）
+     */
+    public Map<String, List<Map<String, Object>>> getSalesRankingByCategory(LocalDate startDate, LocalDate endDate,
+                                                                          int limit, String category) {
+        Map<String, List<Map<String, Object>>> ranking = new LinkedHashMap<>();
+        for (Object[] row : transactionRepository.findTopSalesByCategory(startDate.atStartOfDay(),
+                endDate.plusDays(1).atStartOfDay(), normalizeRankingLimit(limit), category)) {
+            String key = row[4] != null ? (String) row[4] : "未分类";
+            ranking.computeIfAbsent(key, k -> new ArrayList<>()).add(toRankingEntry(row));
+        }
+        return ranking;
+    }
+
+    private int normalizeRankingLimit(int limit) {
+        if (limit <= 0) {
+            return rankingDefaultLimit;
+        }
+        return Math.min(limit, rankingMaxLimit);
+    }
 
-        List<Object[]> dailyResults = transactionRepository.getDailySummary(start, end);
+    private Map<String, Object> toRankingEntry(Object[] row) {
+        long quantity = ((Number) row[5]).longValue();
+        long amountCents = Money.centsOf((Number) row[6]);
+
+        Map<String, Object> ranking = new LinkedHashMap<>();
+        ranking.put("rank", ((Number) row[0]).intValue());
+        ranking.put("bookId", ((Number) row[1]).longValue());
+        ranking.put("title", row[2]);
+        ranking.put("author", row[3]);
+        ranking.put("category", row[4]);
+        ranking.put("quantity", quantity);
+        ranking.put("amount", Money.fromCents(amountCents));
+        ranking.put("averagePrice", Money.fromCents(Money.divide(amountCents, quantity)));
+        return ranking;
+    }
+
+    /**
+     * 每日汇总：读取日汇总表，按日期倒序
+     */
+    public Map<String, Object> getDailySummary(LocalDate startDate, LocalDate endDate) {
+        Map<LocalDate, Map<TransactionType, SalesRollupService.Totals>> days =
+                salesRollupService.getDays(startDate, endDate);
 
         Map<String, Object> result = new LinkedHashMap<>();
         List<Map<String, Object>> dailySummaries = new ArrayList<>();
 
-        BigDecimal totalSales = BigDecimal.ZERO;
-        BigDecimal totalPurchases = BigDecimal.ZERO;
+        long salesCents = 0;
+        long purchasesCents = 0;
         long totalTransactions = 0;
 
-        for (Object[] row : dailyResults) {
-            LocalDate date = ((java.sql.Date) row[0]).toLocalDate();
-            Long count = (Long) row[1];
-            BigDecimal sales = (BigDecimal) row[2];
-            BigDecimal purchases = (BigDecimal) row[3];
+        for (Map.Entry<LocalDate, Map<TransactionType, SalesRollupService.Totals>> day : days.entrySet()) {
+            long count = 0;
+            long sales = 0;
+            long purchases = 0;
+            for (Map.Entry<TransactionType, SalesRollupService.Totals> entry : day.getValue().entrySet()) {
+                count += entry.getValue().count();
+                if (entry.getKey() == TransactionType.SALE) {
+                    sales = entry.getValue().amountCents();
+                } else if (entry.getKey() == TransactionType.PURCHASE) {
+                    purchases = entry.getValue().amountCents();
+                }
+            }
+            if (count == 0) {
+                // 当天交易已全部作废
+                continue;
+            }
 
             Map<String, Object> daily = new LinkedHashMap<>();
-            daily.put("date", date);
+            daily.put("date", day.getKey());
             daily.put("transactionCount", count);
-            daily.put("salesTotal", sales);
-            daily.put("purchasesTotal", purchases);
-            daily.put("netTotal", sales.subtract(purchases));
+            daily.put("salesTotal", Money.fromCents(sales));
+            daily.put("purchasesTotal", Money.fromCents(purchases));
+            daily.put("netTotal", Money.fromCents(sales - purchases));
 
             dailySummaries.add(daily);
 
-            totalSales = totalSales.add(sales);
-            totalPurchases = totalPurchases.add(purchases);
+            salesCents += sales;
+            purchasesCents += purchases;
             totalTransactions += count;
         }
 
         result.put("period", Map.of("startDate", startDate, "endDate", endDate));
         result.put("dailySummaries", dailySummaries);
         result.put("summary", Map.of(
-                "totalSales", totalSales,
-                "totalPurchases", totalPurchases,
-                "netTotal", totalSales.subtract(totalPurchases),
+                "totalSales", Money.fromCents(salesCents),
+                "totalPurchases", Money.fromCents(purchasesCents),
+                "netTotal", Money.fromCents(salesCents - purchasesCents),
                 "totalTransactions", totalTransactions,
-                "averageDailySales", totalSales.divide(BigDecimal.valueOf(dailySummaries.size()), 2, RoundingMode.HALF_UP)
+                "averageDailySales", Money.fromCents(Money.divide(salesCents, dailySummaries.size()))
         ));
 
         return result;
     }
 
     public BigDecimal getDailySalesTotal(LocalDate date) {
-        return transactionRepository.getDailySalesTotal(date);
+        return Money.fromCents(salesRollupService.getDay(date, TransactionType.SALE).amountCents());
     }
 
     public BigDecimal getDailyPurchasesTotal(LocalDate date) {
-        return transactionRepository.getDailyPurchasesTotal(date);
+        return Money.fromCents(salesRollupService.getDay(date, TransactionType.PURCHASE).amountCents());
     }
 
     /**
@@ -343,32 +699,25 @@ public class TransactionService {
         int currentStock = book.getStockQuantity();
         int minStock = Optional.ofNullable(book.getMinStock()).orElse(0);
 
-        // 计算过去30天的销售数据
-        LocalDate endDate = LocalDate.now();
-        LocalDate startDate = endDate.minusDays(30);
-        LocalDateTime startDateTime = startDate.atStartOfDay();
-        LocalDateTime endDateTime = endDate.plusDays(1).atStartOfDay();
-
-        List<Transaction> recentSales = transactionRepository.findByDateRange(
-                startDateTime, endDateTime, PageRequest.of(0, 1000))
-                .getContent()
-                .stream()
-                .filter(t -> t.getTransactionType() == TransactionType.SALE && 
-                             t.getBook().getId().equals(bookId))
-                .collect(Collectors.toList());
-
-        // 计算总销售数量和平均日销量
-        int totalSalesQuantity = recentSales.stream()
-                .mapToInt(Transaction::getQuantity)
-                .sum();
-        double averageDailySales = totalSalesQuantity / 30.0;
+        // 最近30天（含今天）的销量取自内存中的书籍日销量索引；索引重建完成前按书籍查询交易表
+        int totalSalesQuantity;
+        if (salesVelocityIndex.isReady()) {
+            totalSalesQuantity = salesVelocityIndex.getRecentSales(bookId, RECOMMENDATION_WINDOW_DAYS);
+        } else {
+            LocalDate endDate = LocalDate.now();
+            Object[] recentSales = transactionRepository.sumBookSales(bookId,
+                    endDate.minusDays(RECOMMENDATION_WINDOW_DAYS - 1).atStartOfDay(),
+                    endDate.plusDays(1).atStartOfDay()).getFirst();
+            totalSalesQuantity = ((Number) recentSales[1]).intValue();
+        }
+        double averageDailySales = (double) totalSalesQuantity / RECOMMENDATION_WINDOW_DAYS;
 
         // 计算推荐进货数量
         // 策略：保证至少30天的库存，同时考虑最低库存要求
         int recommendedQuantity;
         String reason;
 
-        if (recentSales.isEmpty()) {
+        if (totalSalesQuantity == 0) {
             // 没有销售历史，建议保持最低库存的2倍
             recommendedQuantity = Math.max(minStock * 2 - currentStock, minStock);
             reason = "该书籍暂无销售历史，建议保持最低库存的2倍";
@@ -415,21 +764,54 @@ public class TransactionService {
         if (transaction.getUnitPrice() == null || transaction.getUnitPrice().compareTo(BigDecimal.ZERO) <= 0) {
             throw new BusinessException("INVALID_PRICE", "单价必须大于0");
         }
+    }
 
-        // 验证书籍是否存在且可用
-        Book book = bookRepository.findById(transaction.getBook().getId())
+    /**
+     * 为单笔交易变更库存
+     * 热销书籍只在内存账本上预留库存，交易记录标记为待回写；其他书籍直接执行带保护的UPDATE
+     *
+     * @return 变更后的可用库存
+     */
+    private int applyStock(Transaction transaction, int quantity) {
+        Long bookId = transaction.getBook().getId();
+        if (hotStockLedger.isTracked(bookId)) {
+            transaction.setStockPending(true);
+            return hotStockLedger.reserve(bookId, quantity);
+        }
+        return bookService.adjustStock(bookId, quantity);
+    }
+
+    /**
+     * 加载并校验书籍是否存在且可用
+     * 使用只读加载：随后写入的库存值仅用于响应展示，不会触发实体UPDATE和版本递增
+     */
+    private Book loadActiveBook(Long bookId) {
+        Book book = bookRepository.findByIdReadOnly(bookId)
                 .orElseThrow(() -> new BusinessException("BOOK_NOT_FOUND", "书籍不存在"));
 
         if (!book.getIsActive()) {
             throw new BusinessException("BOOK_INACTIVE", "书籍已下架");
         }
+        return book;
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
     public void voidTransaction(Long transactionId, String reason) {
-        Transaction transaction = transactionRepository.findById(transactionId)
+        // 加锁读取：与并发退货对已退货数量的累加互斥，下方的部分退货检查不会读到过期的计数
+        Transaction transaction = transactionRepository.findByIdForUpdate(transactionId)
                 .orElseThrow(() -> new BusinessException("TRANSACTION_NOT_FOUND", "交易记录不存在"));
 
+        if (transaction.getVoidedAt() != null) {
+            throw new BusinessException("ALREADY_VOIDED", "交易记录已作废");
+        }
+
+        // 已有退货的销售不能直接作废，否则退货记录归还的库存和冲减的金额会被重复计算
+        if (transaction.getTransactionType() == TransactionType.SALE
+                && transaction.getReturnedQuantity() != null && transaction.getReturnedQuantity() > 0) {
+            throw new BusinessException("SALE_PARTIALLY_RETURNED",
+                    String.format("该销售已退货%d本，请先作废相关退货记录", transaction.getReturnedQuantity()));
+        }
+
         // 只能作废当天的交易
         if (!transaction.getCreatedAt().toLocalDate().equals(LocalDate.now())) {
             throw new BusinessException("CANNOT_VOID_OLD_TRANSACTION", "只能作废当天的交易记录");
@@ -440,15 +822,31 @@ public class TransactionService {
             case SALE -> transaction.getQuantity(); // 销售作废，增加库存
             case PURCHASE -> -transaction.getQuantity(); // 进货作废，减少库存
             case RETURN -> -transaction.getQuantity(); // 退货作废，减少库存
+            case ADJUST_IN -> -transaction.getQuantity(); // 盘盈作废，减少库存
+            case ADJUST_OUT -> transaction.getQuantity(); // 盘亏作废，增加库存
         };
 
         try {
-            bookService.updateStock(transaction.getBook().getId(), reverseQuantity);
+            // 仅使用书籍ID，不初始化懒加载的书籍实体
+            bookService.adjustStock(transaction.getBook().getId(), reverseQuantity);
+            stockLedgerService.record(transaction.getBook().getId(), reverseQuantity,
+                    StockMovementReason.VOID, transaction.getId());
+            if (transaction.getTransactionType() == TransactionType.RETURN
+                    && transaction.getRelatedTransactionId() != null) {
+                // 退货作废，归还原销售记录的可退数量
+                transactionRepository.addReturnedQuantity(transaction.getRelatedTransactionId(),
+                        transaction.getBook().getId(), -transaction.getQuantity());
+            }
             transaction.setNotes((transaction.getNotes() != null ? transaction.getNotes() + "\n" : "") +
                     String.format("[作废] %s 原因: %s", LocalDateTime.now(), reason));
+            transaction.setVoidedAt(LocalDateTime.now());
             transactionRepository.save(transaction);
+            salesRollupService.applyVoided(transaction);
+            outboxService.transactionVoided(transaction, reason);
 
             logger.info("交易记录已作废: {}, 原因: {}", transactionId, reason);
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             throw new BusinessException("VOID_TRANSACTION_FAILED", "作废交易失败: " + e.getMessage());
         }
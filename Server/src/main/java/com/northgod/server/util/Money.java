@@ -0,0 +1,62 @@
+package com.northgod.server.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 金额定点表示工具
+ *
+ * 交易写入路径和汇总统计内部统一以 long 类型的"分"计算，避免 BigDecimal 的对象分配与缩放运算；
+ * 只有在读取请求参数和构建 JSON 响应时才与 BigDecimal（元，两位小数）互相转换。
+ */
+public final class Money {
+
+    /** 金额小数位数（1元 = 100分） */
+    public static final int SCALE = 2;
+
+    private Money() {
+    }
+
+    /**
+     * 元转换为分，超过两位小数时四舍五入；超出 long 范围时抛出 ArithmeticException
+     */
+    public static long toCents(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).movePointRight(SCALE).longValueExact();
+    }
+
+    /**
+     * 分转换为元（两位小数），仅在响应边界使用
+     */
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * 单价（分）乘以数量，溢出时抛出 ArithmeticException
+     */
+    public static long times(long unitCents, int quantity) {
+        return Math.multiplyExact(unitCents, (long) quantity);
+    }
+
+    /**
+     * 金额（分）除以整数，结果四舍五入到分（用于平均值）；除数为0时返回0
+     */
+    public static long divide(long cents, long divisor) {
+        if (divisor == 0) {
+            return 0;
+        }
+        long quotient = cents / divisor;
+        long remainder = cents % divisor;
+        if (Math.abs(remainder) * 2 >= Math.abs(divisor)) {
+            quotient += Long.signum(cents) * Long.signum(divisor);
+        }
+        return quotient;
+    }
+
+    /**
+     * 数据库 SUM 结果（可能为 null）转换为分
+     */
+    public static long centsOf(Number sum) {
+        return sum == null ? 0L : sum.longValue();
+    }
+}
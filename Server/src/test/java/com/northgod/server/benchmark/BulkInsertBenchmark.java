@@ -0,0 +1,131 @@
+package com.northgod.server.benchmark;
+
+import com.northgod.server.entity.Book;
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.repository.BookRepository;
+import com.northgod.server.repository.TransactionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量写入基准测试（需要可用的PostgreSQL，默认跳过）
+ * 运行方式：BOOKSTORE_BENCHMARK=true ./gradlew test --tests '*BulkInsertBenchmark'
+ *
+ * 对比逐行保存（每行一个事务、逐行nextval）与 bulkInsert（pooled-lo + JDBC批量 + reWriteBatchedInserts）
+ * 的每秒写入行数；逐行路径只取样本量，避免基准本身运行过久。
+ */
+@SpringBootTest
+@EnabledIfEnvironmentVariable(named = "BOOKSTORE_BENCHMARK", matches = "true")
+class BulkInsertBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkInsertBenchmark.class);
+    private static final String ISBN_PREFIX = "BM";
+    private static final int BOOK_COUNT = 100_000;
+    private static final int TRANSACTION_COUNT = 1_000_000;
+    private static final int ROW_BY_ROW_SAMPLE = 5_000;
+    private static final int CHUNK_SIZE = 10_000;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void bulkInsertBooksAndTransactions() {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        // 逐行保存（改造前的写入方式）
+        List<Book> sampleBooks = newBooks("R", ROW_BY_ROW_SAMPLE);
+        long start = System.nanoTime();
+        for (Book book : sampleBooks) {
+            tx.executeWithoutResult(status -> bookRepository.save(book));
+        }
+        report("书籍-逐行保存", ROW_BY_ROW_SAMPLE, start);
+
+        // 批量写入书籍
+        // 保留写入后的书籍对象（已分离但字段完整），交易记录直接引用，避免在会话外初始化懒加载代理
+        List<Book> books = new ArrayList<>(BOOK_COUNT);
+        start = System.nanoTime();
+        for (int offset = 0; offset < BOOK_COUNT; offset += CHUNK_SIZE) {
+            List<Book> chunk = newBooks("B" + offset + "-", CHUNK_SIZE);
+            tx.executeWithoutResult(status -> bookRepository.bulkInsert(chunk));
+            books.addAll(chunk);
+        }
+        report("书籍-bulkInsert", BOOK_COUNT, start);
+
+        // 逐行保存交易记录
+        start = System.nanoTime();
+        for (int i = 0; i < ROW_BY_ROW_SAMPLE; i++) {
+            Transaction transaction = newTransaction(books.get(i % books.size()));
+            tx.executeWithoutResult(status -> transactionRepository.save(transaction));
+        }
+        report("交易-逐行保存", ROW_BY_ROW_SAMPLE, start);
+
+        // 批量写入交易记录
+        start = System.nanoTime();
+        for (int offset = 0; offset < TRANSACTION_COUNT; offset += CHUNK_SIZE) {
+            List<Transaction> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                chunk.add(newTransaction(books.get((offset + i) % books.size())));
+            }
+            tx.executeWithoutResult(status -> transactionRepository.bulkInsert(chunk));
+        }
+        report("交易-bulkInsert", TRANSACTION_COUNT, start);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM transaction WHERE book_id IN (SELECT id FROM book WHERE isbn LIKE ?)",
+                ISBN_PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM book WHERE isbn LIKE ?", ISBN_PREFIX + "%");
+    }
+
+    private List<Book> newBooks(String tag, int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Book book = new Book();
+            book.setIsbn(ISBN_PREFIX + tag + i);
+            book.setTitle("Benchmark Book " + tag + i);
+            book.setPurchasePrice(new BigDecimal("10.00"));
+            book.setSellingPrice(new BigDecimal("20.00"));
+            book.setStockQuantity(100);
+            books.add(book);
+        }
+        return books;
+    }
+
+    private Transaction newTransaction(Book book) {
+        Transaction transaction = new Transaction();
+        transaction.setBook(book);
+        transaction.setTransactionType(TransactionType.SALE);
+        transaction.setQuantity(1);
+        transaction.setUnitPrice(new BigDecimal("20.00"));
+        return transaction;
+    }
+
+    private void report(String name, int rows, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        logger.info("{}: {} 行, 耗时 {} 秒, {} 行/秒", name, rows,
+                String.format("%.2f", seconds), String.format("%.0f", rows / seconds));
+    }
+}
@@ -0,0 +1,171 @@
+package com.northgod.server.benchmark;
+
+import com.northgod.server.entity.Book;
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.repository.BookRepository;
+import com.northgod.server.service.GroupCommitService;
+import com.northgod.server.service.IdempotencyService;
+import com.northgod.server.service.TransactionService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 组提交基准测试（需要可用的PostgreSQL，默认跳过）
+ * 运行方式：BOOKSTORE_BENCHMARK=true ./gradlew test --tests '*GroupCommitBenchmark'
+ *
+ * 多个并发客户端各自写入销售记录并保存幂等记录（与销售接口的写入相同），
+ * 对比每笔一个事务（改造前）与经组提交合并提交的每秒写入笔数，并报告平均批量大小。
+ */
+@SpringBootTest(properties = "bookstore.group-commit.enabled=true")
+@EnabledIfEnvironmentVariable(named = "BOOKSTORE_BENCHMARK", matches = "true")
+class GroupCommitBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitBenchmark.class);
+    private static final String ISBN_PREFIX = "GC";
+    private static final String KEY_PREFIX = "gc-benchmark-";
+    private static final String ENDPOINT = "POST /transactions/sale";
+    private static final int CLIENTS = 64;
+    private static final int SALES = 20_000;
+    private static final int WARMUP_SALES = 2_000;
+
+    @Autowired
+    private GroupCommitService groupCommitService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger keySequence = new AtomicInteger();
+
+    @Test
+    void groupCommitVersusSingleTransactions() throws Exception {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        // 每个客户端一本书，避免库存行锁竞争掩盖提交次数的差异
+        List<Book> books = newBooks();
+        tx.executeWithoutResult(status -> bookRepository.bulkInsert(books));
+
+        // 每笔一个事务（组提交关闭时的写入方式）
+        run(books, WARMUP_SALES, (book, ticket) -> tx.executeWithoutResult(status ->
+                idempotencyService.record(ticket, response(transactionService.createSale(newSale(book))))));
+        long start = System.nanoTime();
+        run(books, SALES, (book, ticket) -> tx.executeWithoutResult(status ->
+                idempotencyService.record(ticket, response(transactionService.createSale(newSale(book))))));
+        report("逐笔提交", SALES, start);
+
+        // 组提交
+        run(books, WARMUP_SALES, (book, ticket) -> groupCommitService.submit(TransactionType.SALE, newSale(book),
+                ticket.key(), written -> idempotencyService.record(ticket, response(written))));
+        DistributionSummary batchSize = meterRegistry.get("bookstore.group_commit.batch_size").summary();
+        long batchesBefore = batchSize.count();
+        double totalBefore = batchSize.totalAmount();
+        start = System.nanoTime();
+        run(books, SALES, (book, ticket) -> groupCommitService.submit(TransactionType.SALE, newSale(book),
+                ticket.key(), written -> idempotencyService.record(ticket, response(written))));
+        report("组提交", SALES, start);
+        long batches = batchSize.count() - batchesBefore;
+        logger.info("组提交: {} 批, 平均每批 {} 笔", batches,
+                String.format("%.1f", (batchSize.totalAmount() - totalBefore) / Math.max(batches, 1)));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM idempotency_record WHERE idempotency_key LIKE ?", KEY_PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM transaction WHERE book_id IN (SELECT id FROM book WHERE isbn LIKE ?)",
+                ISBN_PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM book WHERE isbn LIKE ?", ISBN_PREFIX + "%");
+    }
+
+    /**
+     * 由 CLIENTS 个并发客户端共写入 sales 笔，每个客户端只写自己的书
+     */
+    private void run(List<Book> books, int sales, SaleWriter writer) throws Exception {
+        try (ExecutorService executor = Executors.newFixedThreadPool(CLIENTS)) {
+            List<Future<?>> futures = new ArrayList<>(CLIENTS);
+            for (int client = 0; client < CLIENTS; client++) {
+                Book book = books.get(client);
+                int count = sales / CLIENTS;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        writer.write(book, new IdempotencyService.Ticket(
+                                KEY_PREFIX + keySequence.incrementAndGet(), ENDPOINT));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+    }
+
+    private List<Book> newBooks() {
+        List<Book> books = new ArrayList<>(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            Book book = new Book();
+            book.setIsbn(ISBN_PREFIX + i);
+            book.setTitle("Group Commit Book " + i);
+            book.setPurchasePrice(new BigDecimal("10.00"));
+            book.setSellingPrice(new BigDecimal("20.00"));
+            book.setStockQuantity(1_000_000);
+            books.add(book);
+        }
+        return books;
+    }
+
+    private Transaction newSale(Book book) {
+        Transaction transaction = new Transaction();
+        transaction.setBook(book);
+        transaction.setQuantity(1);
+        transaction.setUnitPrice(new BigDecimal("20.00"));
+        return transaction;
+    }
+
+    private ResponseEntity<Map<String, Object>> response(Transaction created) {
+        return ResponseEntity.status(201).body(Map.of("success", true, "id", created.getId()));
+    }
+
+    private void report(String name, int sales, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        logger.info("{}: {} 笔, 耗时 {} 秒, {} 笔/秒", name, sales,
+                String.format("%.2f", seconds), String.format("%.0f", sales / seconds));
+    }
+
+    @FunctionalInterface
+    private interface SaleWriter {
+        void write(Book book, IdempotencyService.Ticket ticket);
+    }
+}
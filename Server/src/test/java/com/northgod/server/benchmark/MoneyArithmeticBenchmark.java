@@ -0,0 +1,147 @@
+package com.northgod.server.benchmark;
+
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import com.northgod.server.util.Money;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * 金额运算微基准（默认跳过，不依赖数据库）
+ * 运行方式：BOOKSTORE_BENCHMARK=true ./gradlew test --tests '*MoneyArithmeticBenchmark'
+ *
+ * 对比改造前的 BigDecimal 计算与以分为单位的 long 计算：
+ * 销售写入路径的金额计算（服务层 multiply/setScale + 实体回调再次 multiply）和月度汇总的金额累加。
+ * 每组先预热再计时，并通过线程分配计数报告每次操作的分配字节数。
+ */
+@EnabledIfEnvironmentVariable(named = "BOOKSTORE_BENCHMARK", matches = "true")
+class MoneyArithmeticBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MoneyArithmeticBenchmark.class);
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+    private static final int SALE_OPERATIONS = 1_000_000;
+    private static final int MONTHLY_ROWS = 1_000_000;
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // 防止JIT消除无副作用的计算
+    private long sink;
+
+    @Test
+    void saleAmountCalculation() {
+        BigDecimal[] prices = new BigDecimal[1024];
+        int[] quantities = new int[prices.length];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = BigDecimal.valueOf(random.nextLong(100, 100_000), 2);
+            quantities[i] = random.nextInt(1, 20);
+        }
+        Transaction transaction = new Transaction();
+
+        measure("销售金额-BigDecimal", SALE_OPERATIONS, () -> {
+            long checksum = 0;
+            for (int i = 0; i < SALE_OPERATIONS; i++) {
+                int slot = i & (prices.length - 1);
+                transaction.setUnitPrice(prices[slot]);
+                transaction.setQuantity(quantities[slot]);
+                transaction.setTotalAmount(prices[slot]
+                        .multiply(BigDecimal.valueOf(quantities[slot]))
+                        .setScale(2, RoundingMode.HALF_UP));
+                // 改造前实体 @PrePersist 回调再次计算一遍
+                transaction.setTotalAmount(prices[slot].multiply(BigDecimal.valueOf(quantities[slot])));
+                checksum += transaction.getTotalAmount().scale();
+            }
+            return checksum;
+        });
+
+        measure("销售金额-分(long)", SALE_OPERATIONS, () -> {
+            long checksum = 0;
+            for (int i = 0; i < SALE_OPERATIONS; i++) {
+                int slot = i & (prices.length - 1);
+                transaction.setUnitPrice(prices[slot]);
+                transaction.setQuantity(quantities[slot]);
+                transaction.calculateTotalAmount();
+                checksum += transaction.getAmountCents();
+            }
+            return checksum;
+        });
+    }
+
+    @Test
+    void monthlyAggregation() {
+        TransactionType[] types = {TransactionType.SALE, TransactionType.PURCHASE, TransactionType.RETURN};
+        List<Transaction> rows = new ArrayList<>(MONTHLY_ROWS);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < MONTHLY_ROWS; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setTransactionType(types[random.nextInt(types.length)]);
+            transaction.setQuantity(random.nextInt(1, 20));
+            transaction.setUnitPrice(BigDecimal.valueOf(random.nextLong(100, 100_000), 2));
+            transaction.calculateTotalAmount();
+            rows.add(transaction);
+        }
+
+        measure("月度汇总-BigDecimal", MONTHLY_ROWS, () -> {
+            BigDecimal sales = BigDecimal.ZERO;
+            BigDecimal purchases = BigDecimal.ZERO;
+            BigDecimal returns = BigDecimal.ZERO;
+            for (Transaction t : rows) {
+                switch (t.getTransactionType()) {
+                    case SALE -> sales = sales.add(t.getTotalAmount());
+                    case PURCHASE -> purchases = purchases.add(t.getTotalAmount());
+                    case RETURN -> returns = returns.add(t.getTotalAmount());
+                    default -> {
+                    }
+                }
+            }
+            return sales.subtract(purchases).subtract(returns).unscaledValue().longValue();
+        });
+
+        measure("月度汇总-分(long)", MONTHLY_ROWS, () -> {
+            long sales = 0;
+            long purchases = 0;
+            long returns = 0;
+            for (Transaction t : rows) {
+                switch (t.getTransactionType()) {
+                    case SALE -> sales += t.getAmountCents();
+                    case PURCHASE -> purchases += t.getAmountCents();
+                    case RETURN -> returns += t.getAmountCents();
+                    default -> {
+                    }
+                }
+            }
+            return Money.fromCents(sales - purchases - returns).unscaledValue().longValue();
+        });
+    }
+
+    private void measure(String label, int operations, LongSupplier body) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += body.getAsLong();
+        }
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            sink += body.getAsLong();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREAD_BEAN.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long totalOperations = (long) operations * MEASURE_ROUNDS;
+        logger.info("{}: {} ns/op, {} B/op", label,
+                String.format("%.1f", (double) elapsed / totalOperations),
+                String.format("%.1f", (double) allocated / totalOperations));
+    }
+}
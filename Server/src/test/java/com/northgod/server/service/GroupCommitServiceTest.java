@@ -0,0 +1,82 @@
+package com.northgod.server.service;
+
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GroupCommitServiceTest {
+
+    private final TransactionService transactionService = mock(TransactionService.class);
+    private final AtomicLong ids = new AtomicLong();
+    private final CopyOnWriteArrayList<Transaction> recorded = new CopyOnWriteArrayList<>();
+    private GroupCommitService service;
+
+    @BeforeEach
+    void setUp() {
+        when(transactionService.createSale(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setId(ids.incrementAndGet());
+            return transaction;
+        });
+        service = new GroupCommitService(transactionService, mock(PlatformTransactionManager.class),
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "maxBatchSize", 64);
+        // 等待时间足够长，保证并发提交的写入落在同一批
+        ReflectionTestUtils.setField(service, "maxWaitMillis", 500L);
+        ReflectionTestUtils.setField(service, "queueCapacity", 16);
+        ReflectionTestUtils.setField(service, "enqueueTimeoutMillis", 1000L);
+        ReflectionTestUtils.setField(service, "commitTimeoutMillis", 5000L);
+        service.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.stop();
+    }
+
+    @Test
+    void sameKeyInOneBatchIsWrittenOnce() {
+        Consumer<Transaction> record = recorded::add;
+        CompletableFuture<Transaction> first = CompletableFuture.supplyAsync(() ->
+                service.submit(TransactionType.SALE, new Transaction(), "key-1", record));
+        CompletableFuture<Transaction> retry = CompletableFuture.supplyAsync(() ->
+                service.submit(TransactionType.SALE, new Transaction(), "key-1", record));
+
+        assertThat(first.join().getId()).isEqualTo(retry.join().getId());
+        verify(transactionService, times(1)).createSale(any(Transaction.class));
+        assertThat(recorded).hasSize(1);
+    }
+
+    @Test
+    void differentKeysInOneBatchAreAllWritten() {
+        CompletableFuture<Transaction> first = CompletableFuture.supplyAsync(() ->
+                service.submit(TransactionType.SALE, new Transaction(), "key-1", recorded::add));
+        CompletableFuture<Transaction> second = CompletableFuture.supplyAsync(() ->
+                service.submit(TransactionType.SALE, new Transaction(), "key-2", recorded::add));
+        CompletableFuture<Transaction> withoutKey = CompletableFuture.supplyAsync(() ->
+                service.submit(TransactionType.SALE, new Transaction(), null, null));
+
+        assertThat(first.join().getId()).isNotEqualTo(second.join().getId());
+        assertThat(withoutKey.join().getId()).isNotNull();
+        verify(transactionService, times(3)).createSale(any(Transaction.class));
+        assertThat(recorded).hasSize(2);
+    }
+}
@@ -0,0 +1,159 @@
+package com.northgod.server.service;
+
+import com.northgod.server.exception.BusinessException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 热销库存账本：内存预留、提交/回滚结算、回写后的待回写量，以及库存被改写时原地调整
+ */
+class HotStockLedgerTest {
+
+    private static final long BOOK_ID = 1L;
+    private static final int INITIAL_STOCK = 10;
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final CacheService cacheService = mock(CacheService.class);
+    private HotStockLedger ledger;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ledger = new HotStockLedger(jdbcTemplate, mock(PlatformTransactionManager.class), cacheService,
+                new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(ledger, "enabled", true);
+        ResultSet row = mock(ResultSet.class);
+        when(row.getLong(1)).thenReturn(BOOK_ID);
+        when(row.getInt(2)).thenReturn(INITIAL_STOCK);
+        doAnswer(invocation -> {
+            invocation.getArgument(1, RowCallbackHandler.class).processRow(row);
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT id, stock_quantity FROM book"), any(RowCallbackHandler.class));
+        ledger.recover();
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void recoverCreatesStockPendingIndex() {
+        verify(jdbcTemplate).execute(startsWith("CREATE INDEX IF NOT EXISTS idx_transaction_stock_pending"));
+    }
+
+    @Test
+    void rejectsReservationBelowZero() {
+        assertThat(ledger.reserve(BOOK_ID, -8)).isEqualTo(2);
+
+        assertThatThrownBy(() -> ledger.reserve(BOOK_ID, -3))
+                .isInstanceOf(BusinessException.class)
+                .extracting("code").isEqualTo("INSUFFICIENT_STOCK");
+        assertThat(available()).isEqualTo(2);
+    }
+
+    @Test
+    void rollbackReturnsReservation() {
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.reserve(BOOK_ID, -4);
+        complete(detach(), TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(available()).isEqualTo(INITIAL_STOCK);
+        assertThat(pendingDelta()).isZero();
+    }
+
+    @Test
+    void flushClearsCommittedPendingDelta() {
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.reserve(BOOK_ID, -3);
+        complete(detach(), TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(pendingDelta()).isEqualTo(-3);
+
+        doReturn(List.<long[]>of(new long[]{BOOK_ID, -3, 7}))
+                .when(jdbcTemplate).query(contains("SET stock_pending = false"), ArgumentMatchers.<RowMapper<long[]>>any());
+        ledger.flush();
+
+        assertThat(pendingDelta()).isZero();
+        assertThat(available()).isEqualTo(7);
+        verify(cacheService).evictBookCache(BOOK_ID);
+    }
+
+    @Test
+    void resyncKeepsInFlightReservation() {
+        // 一笔销售已预留但尚未提交时，书籍库存被盘点改写（-5）
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.reserve(BOOK_ID, -4);
+        List<TransactionSynchronization> sale = detach();
+
+        ledger.resyncAfterCommit(BOOK_ID, -5);
+        assertThat(available()).isEqualTo(1);
+
+        complete(sale, TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertThat(available()).isEqualTo(INITIAL_STOCK - 5);
+    }
+
+    @Test
+    void resyncAppliesOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.resyncAfterCommit(BOOK_ID, 6);
+        List<TransactionSynchronization> stocktake = detach();
+        assertThat(available()).isEqualTo(INITIAL_STOCK);
+
+        complete(stocktake, TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(available()).isEqualTo(INITIAL_STOCK + 6);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> book() {
+        return ((Map<Long, Map<String, Object>>) ledger.getMetrics().get("books")).get(BOOK_ID);
+    }
+
+    private int available() {
+        return (Integer) book().get("available");
+    }
+
+    private long pendingDelta() {
+        return (Long) book().get("pendingDelta");
+    }
+
+    private static List<TransactionSynchronization> detach() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        return synchronizations;
+    }
+
+    private static void complete(List<TransactionSynchronization> synchronizations, int status) {
+        for (TransactionSynchronization synchronization : synchronizations) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.northgod.server.service;
+
+import com.northgod.server.entity.Book;
+import com.northgod.server.entity.Transaction;
+import com.northgod.server.enums.TransactionType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 交易汇总一致性（需要可用的PostgreSQL，默认跳过）
+ * 运行方式：BOOKSTORE_IT=true ./gradlew test --tests '*IntegrationTest'
+ *
+ * 销售与作废增量累加后的日汇总、今日计数器、重建后的日汇总，三者都应等于直接从交易表聚合的结果。
+ */
+@SpringBootTest
+@EnabledIfEnvironmentVariable(named = "BOOKSTORE_IT", matches = "true")
+class SalesRollupIntegrationTest {
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    @Autowired
+    private TodayTransactionCounters todayCounters;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long bookId;
+
+    @BeforeEach
+    void createBook() {
+        Book book = new Book();
+        // isbn 列长度为20
+        book.setIsbn("ITR" + System.nanoTime() % 100_000_000_000_000_000L);
+        book.setTitle("Rollup Test Book");
+        book.setPurchasePrice(new BigDecimal("10.00"));
+        book.setSellingPrice(new BigDecimal("20.00"));
+        book.setStockQuantity(100);
+        bookId = bookService.saveBook(book).getId();
+        // 同一天的其他测试可能已删除自己写入的交易而未回退汇总，先按交易表重建今天的汇总
+        LocalDate today = LocalDate.now();
+        salesRollupService.rebuild(today, today);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM stock_movement WHERE book_id = ?", bookId);
+        jdbcTemplate.update("DELETE FROM transaction WHERE book_id = ?", bookId);
+        jdbcTemplate.update("DELETE FROM book WHERE id = ?", bookId);
+        LocalDate today = LocalDate.now();
+        salesRollupService.rebuild(today, today);
+    }
+
+    @Test
+    void applyVoidAndRebuildAgreeWithTransactionTable() {
+        Transaction first = transactionService.createSale(sale(2));
+        transactionService.createSale(sale(3));
+        transactionService.voidTransaction(first.getId(), "rollup test");
+
+        LocalDate today = LocalDate.now();
+        SalesRollupService.Totals expected = aggregateSales(today);
+        assertThat(rollupSales(today)).isEqualTo(expected);
+        assertThat(todayCounters.getToday().getOrDefault(TransactionType.SALE, SalesRollupService.Totals.ZERO))
+                .isEqualTo(expected);
+
+        salesRollupService.rebuild(today, today);
+        assertThat(rollupSales(today)).isEqualTo(expected);
+        assertThat(todayCounters.getToday().getOrDefault(TransactionType.SALE, SalesRollupService.Totals.ZERO))
+                .isEqualTo(expected);
+    }
+
+    private Transaction sale(int quantity) {
+        Book book = new Book();
+        book.setId(bookId);
+        Transaction transaction = new Transaction();
+        transaction.setBook(book);
+        transaction.setQuantity(quantity);
+        transaction.setUnitPrice(new BigDecimal("20.00"));
+        return transaction;
+    }
+
+    private SalesRollupService.Totals rollupSales(LocalDate day) {
+        return salesRollupService.getDays(day, day).getOrDefault(day, Map.of())
+                .getOrDefault(TransactionType.SALE, SalesRollupService.Totals.ZERO);
+    }
+
+    private SalesRollupService.Totals aggregateSales(LocalDate day) {
+        return jdbcTemplate.queryForObject("""
+            SELECT COUNT(*), COALESCE(SUM(quantity), 0), COALESCE(SUM(amount_cents), 0)
+            FROM transaction
+            WHERE created_at >= ? AND created_at < ? AND transaction_type = 'SALE' AND voided_at IS NULL
+        """, (rs, rowNum) -> new SalesRollupService.Totals(rs.getLong(1), rs.getLong(2), rs.getLong(3)),
+                Date.valueOf(day), Date.valueOf(day.plusDays(1)));
+    }
+}
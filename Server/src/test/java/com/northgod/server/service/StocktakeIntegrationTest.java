@@ -0,0 +1,120 @@
+package com.northgod.server.service;
+
+import com.northgod.server.entity.Book;
+import com.northgod.server.entity.Transaction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 批量盘点与热销库存回写（需要可用的PostgreSQL，默认跳过）
+ * 运行方式：BOOKSTORE_IT=true ./gradlew test --tests '*IntegrationTest'
+ *
+ * 热销书籍有尚未回写的销售时盘点：盘点按"书籍行 + 待回写量"计算差异，回写之后书籍行恰为实盘数，
+ * 内存账本与书籍行一致。
+ */
+@SpringBootTest(properties = "bookstore.hot-stock.enabled=true")
+@EnabledIfEnvironmentVariable(named = "BOOKSTORE_IT", matches = "true")
+class StocktakeIntegrationTest {
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private HotStockLedger hotStockLedger;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long bookId;
+
+    @BeforeEach
+    void createHotBook() {
+        Book book = new Book();
+        // isbn 列长度为20
+        book.setIsbn("ITS" + System.nanoTime() % 100_000_000_000_000_000L);
+        book.setTitle("Stocktake Test Book");
+        book.setPurchasePrice(new BigDecimal("10.00"));
+        book.setSellingPrice(new BigDecimal("20.00"));
+        book.setStockQuantity(10);
+        bookId = bookService.saveBook(book).getId();
+        bookService.setHotStock(bookId, true);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        hotStockLedger.flush();
+        bookService.setHotStock(bookId, false);
+        jdbcTemplate.update("DELETE FROM stock_movement WHERE book_id = ?", bookId);
+        jdbcTemplate.update("DELETE FROM transaction WHERE book_id = ?", bookId);
+        jdbcTemplate.update("DELETE FROM book WHERE id = ?", bookId);
+    }
+
+    @Test
+    void stocktakeAccountsForPendingHotStockSales() {
+        assertThat(hotStockLedger.isTracked(bookId)).isTrue();
+        transactionService.createSale(sale(3));
+
+        Map<String, Object> result = bookService.applyStocktake(
+                List.of(new BookService.StocktakeEntry(bookId, null, 6)), "it", "stocktake test");
+
+        assertThat(result.get("adjusted")).isEqualTo(1);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> adjustment = ((List<Map<String, Object>>) result.get("adjustments")).getFirst();
+        assertThat(adjustment.get("previousQuantity")).isEqualTo(7);
+        assertThat(adjustment.get("delta")).isEqualTo(-1);
+
+        hotStockLedger.flush();
+        assertThat(bookStock()).isEqualTo(6);
+        assertThat(ledgerAvailable()).isEqualTo(6);
+    }
+
+    @Test
+    void stocktakeMatchingEffectiveStockMakesNoAdjustment() {
+        transactionService.createSale(sale(4));
+
+        Map<String, Object> result = bookService.applyStocktake(
+                List.of(new BookService.StocktakeEntry(bookId, null, 6)), "it", "stocktake test");
+
+        assertThat(result.get("adjusted")).isEqualTo(0);
+        assertThat(result.get("unchanged")).isEqualTo(1);
+        hotStockLedger.flush();
+        assertThat(bookStock()).isEqualTo(6);
+        assertThat(ledgerAvailable()).isEqualTo(6);
+    }
+
+    private Transaction sale(int quantity) {
+        Book book = new Book();
+        book.setId(bookId);
+        Transaction transaction = new Transaction();
+        transaction.setBook(book);
+        transaction.setQuantity(quantity);
+        transaction.setUnitPrice(new BigDecimal("20.00"));
+        return transaction;
+    }
+
+    private int bookStock() {
+        Integer stock = jdbcTemplate.queryForObject(
+                "SELECT stock_quantity FROM book WHERE id = ?", Integer.class, bookId);
+        return stock != null ? stock : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int ledgerAvailable() {
+        Map<Long, Map<String, Object>> books = (Map<Long, Map<String, Object>>) hotStockLedger.getMetrics().get("books");
+        return (Integer) books.get(bookId).get("available");
+    }
+}
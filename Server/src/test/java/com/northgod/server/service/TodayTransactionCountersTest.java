@@ -0,0 +1,81 @@
+package com.northgod.server.service;
+
+import com.northgod.server.enums.TransactionType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 今日交易计数器：只在事务提交后累加，回滚不计入，作废的负增量抵消原交易
+ */
+class TodayTransactionCountersTest {
+
+    private final TodayTransactionCounters counters = new TodayTransactionCounters(mock(JdbcTemplate.class));
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void addsDeltasOnlyAfterCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        counters.recordApplied(List.of(sale(1, 2, 3000)));
+        assertThat(counters.getToday()).isEmpty();
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(counters.getToday().get(TransactionType.SALE))
+                .isEqualTo(new SalesRollupService.Totals(1, 2, 3000));
+    }
+
+    @Test
+    void discardsDeltasOnRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        counters.recordApplied(List.of(sale(1, 2, 3000)));
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(counters.getToday()).isEmpty();
+    }
+
+    @Test
+    void voidCancelsCreatedTransaction() {
+        counters.recordApplied(List.of(sale(1, 2, 3000), sale(1, 5, 7500)));
+        counters.recordApplied(List.of(sale(-1, -2, -3000)));
+
+        assertThat(counters.getToday().get(TransactionType.SALE))
+                .isEqualTo(new SalesRollupService.Totals(1, 5, 7500));
+    }
+
+    @Test
+    void ignoresEarlierDays() {
+        counters.recordApplied(List.of(new SalesRollupService.RollupDelta(
+                LocalDate.now().minusDays(1), TransactionType.PURCHASE, 1, 10, 10000)));
+
+        assertThat(counters.getToday()).isEmpty();
+    }
+
+    private static SalesRollupService.RollupDelta sale(long count, long quantity, long amountCents) {
+        return new SalesRollupService.RollupDelta(LocalDate.now(), TransactionType.SALE, count, quantity, amountCents);
+    }
+
+    private static void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+    }
+}